@@ -0,0 +1,100 @@
+package billooms.penchuck.drawables;
+
+/**
+ * Measures AngleStepper against calling Math.cos and Math.sin for every angle:
+ * the largest error over a long run, and the time per step.
+ * <p>
+ * Usage: java billooms.penchuck.drawables.AngleStepperBenchmark [steps [step angle in degrees]]
+ * (the default is 10000000 steps of 0.0137 degrees, about 380 turns).
+ * @author Bill Ooms. Copyright 2010 Studio of Bill Ooms. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class AngleStepperBenchmark {
+	private final static double START = 12.5;		// starting angle in degrees
+	private final static int ROUNDS = 3;			// the first rounds warm up the compiler
+
+	/**
+	 * Not used
+	 */
+	private AngleStepperBenchmark() {
+	}
+
+	/**
+	 * Run the benchmark
+	 * @param args number of steps and step angle (both optional)
+	 */
+	public static void main(String[] args) {
+		long steps = (args.length > 0) ? Long.parseLong(args[0]) : 10000000L;
+		double step = (args.length > 1) ? Double.parseDouble(args[1]) : 0.0137;
+		System.out.println(steps + " steps of " + step + " degrees");
+
+		AngleStepper as = new AngleStepper(START, step);
+		double maxErr = 0.0, maxLen = 0.0;
+		long report = 1000;
+		for (long k = 0; k < steps; k++, as.next()) {
+			double ang = Math.toRadians(START + (k * step) % 360.0);
+			maxErr = Math.max(maxErr, Math.max(Math.abs(as.cos() - Math.cos(ang)), Math.abs(as.sin() - Math.sin(ang))));
+			maxLen = Math.max(maxLen, Math.abs(Math.hypot(as.cos(), as.sin()) - 1.0));
+			if (k + 1 == report) {
+				System.out.printf("after %d steps: max error %.2e, max length error %.2e%n", report, maxErr, maxLen);
+				report *= 10;
+			}
+		}
+		if (steps * 10 != report) {		// not just printed
+			System.out.printf("after %d steps: max error %.2e, max length error %.2e%n", steps, maxErr, maxLen);
+		}
+
+		for (int round = 1; round <= ROUNDS; round++) {
+			long t = System.nanoTime();
+			double sum = stepperSum(steps, step);
+			long tStepper = System.nanoTime() - t;
+			t = System.nanoTime();
+			sum -= trigSum(steps, step);
+			long tTrig = System.nanoTime() - t;
+			System.out.printf("round %d: AngleStepper %.1f ns/step, Math.cos and Math.sin %.1f ns/step, %.1f times faster (difference of sums %.1e)%n",
+					round, (double) tStepper / steps, (double) tTrig / steps, (double) tTrig / tStepper, sum);
+		}
+	}
+
+	/**
+	 * Add up the cosines and sines from an AngleStepper
+	 * @param steps number of steps
+	 * @param step step angle in degrees
+	 * @return sum (so the work can't be left out)
+	 */
+	private static double stepperSum(long steps, double step) {
+		double sum = 0.0;
+		AngleStepper as = new AngleStepper(START, step);
+		for (long k = 0; k < steps; k++, as.next()) {
+			sum += as.cos() + as.sin();
+		}
+		return sum;
+	}
+
+	/**
+	 * Add up the cosines and sines from Math.cos and Math.sin
+	 * @param steps number of steps
+	 * @param step step angle in degrees
+	 * @return sum (so the work can't be left out)
+	 */
+	private static double trigSum(long steps, double step) {
+		double sum = 0.0;
+		for (long k = 0; k < steps; k++) {
+			double ang = Math.toRadians(START + (k * step) % 360.0);
+			sum += Math.cos(ang) + Math.sin(ang);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,281 @@
+package billooms.penchuck.drawables;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.GeneralPath;
+import java.util.Arrays;
+
+/**
+ * A curve with a width (in pixels) at each point, where the points are kept in primitive arrays.
+ * Use this instead of CurveWidth for passes with a very large number of points
+ * (such as many revolutions of a geared or spiral pass): points are added one at a time
+ * as they are generated, so there is never a Point2d for each point.
+ * When painting, points that fall on the same pixel as the previous point are skipped
+ * (so the cost depends on the size on the screen rather than the number of points),
+ * segments outside the clip are skipped, and each run of points with the same width
+ * is drawn as a single path with a single stroke.
+ * @author Bill Ooms. Copyright 2010 Studio of Bill Ooms. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class BufferedCurve extends Shape implements Polyline {
+	private double[] xs, ys;		// positions in inches
+	private int[] widths;			// widths in pixels
+	private int size = 0;
+	private boolean closed = false;	// true if the last point connects back to the first
+	private double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;	// bounding box kept as points are added
+	private double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+	private int maxWidth = 0;
+	private BasicStroke[] strokes = new BasicStroke[0];	// strokes by width, made as needed
+
+	/**
+	 * An empty curve
+	 * @param capacity expected number of points
+	 * @param c Color
+	 */
+	public BufferedCurve(int capacity, Color c) {
+		super(c);
+		capacity = Math.max(capacity, 16);
+		xs = new double[capacity];
+		ys = new double[capacity];
+		widths = new int[capacity];
+	}
+
+	/**
+	 * An empty curve
+	 * @param c Color
+	 */
+	public BufferedCurve(Color c) {
+		this(1024, c);
+	}
+
+	/**
+	 * Add a point to the end of the curve
+	 * @param x x in inches
+	 * @param y y in inches
+	 * @param w width in pixels
+	 */
+	public void add(double x, double y, int w) {
+		if (size == xs.length) {
+			ensureCapacity(2 * size);
+		}
+		xs[size] = x;
+		ys[size] = y;
+		widths[size] = w;
+		size++;
+		minX = Math.min(minX, x);
+		maxX = Math.max(maxX, x);
+		minY = Math.min(minY, y);
+		maxY = Math.max(maxY, y);
+		maxWidth = Math.max(maxWidth, w);
+	}
+
+	/**
+	 * Make sure there is room for the given number of points
+	 * @param n number of points
+	 */
+	public void ensureCapacity(int n) {
+		if (n > xs.length) {
+			xs = Arrays.copyOf(xs, n);
+			ys = Arrays.copyOf(ys, n);
+			widths = Arrays.copyOf(widths, n);
+		}
+	}
+
+	/**
+	 * Release any unused space (call this when all the points have been added)
+	 */
+	public void trimToSize() {
+		if (size < xs.length) {
+			xs = Arrays.copyOf(xs, size);
+			ys = Arrays.copyOf(ys, size);
+			widths = Arrays.copyOf(widths, size);
+		}
+	}
+
+	/**
+	 * Remove all the points
+	 */
+	public void clear() {
+		size = 0;
+		minX = minY = Double.MAX_VALUE;
+		maxX = maxY = -Double.MAX_VALUE;
+		maxWidth = 0;
+	}
+
+	/**
+	 * Set whether the last point connects back to the first
+	 * @param c true for a closed curve
+	 */
+	public void setClosed(boolean c) {
+		closed = c;
+	}
+
+	/**
+	 * Find out if the last point connects back to the first
+	 * @return true for a closed curve
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+    /**
+     * Paint the curve
+     * @param g Graphics g
+	 * @param dpi pixels per inch
+	 * @param zPix zero location in pixels
+     */
+	@Override
+	public void paint(Graphics g, int dpi, Point zPix) {
+		if (!visible || (size < 2)) {
+			return;
+		}
+		Graphics2D g2d = (Graphics2D) g;
+		g2d.setColor(color);
+		Rectangle clip = g.getClipBounds();
+		GeneralPath path = new GeneralPath();
+		int n = closed ? size + 1 : size;
+		int lastX = zPix.x + (int) (xs[0] * dpi);
+		int lastY = zPix.y - (int) (ys[0] * dpi);
+		int lastW = widths[0];
+		boolean penDown = false;		// true if the path ends at lastX, lastY
+		for (int k = 1; k < n; k++) {
+			int i = (k == size) ? 0 : k;
+			int px = zPix.x + (int) (xs[i] * dpi);
+			int py = zPix.y - (int) (ys[i] * dpi);
+			int w = widths[i];
+			if ((px == lastX) && (py == lastY) && (w == lastW)) {
+				continue;		// same pixel as the last point
+			}
+			if (w != lastW) {		// draw what there is so far with the old width
+				drawPath(g2d, path, lastW);
+				path = new GeneralPath();
+				penDown = false;
+				lastW = w;
+			}
+			if ((clip != null) && outside(clip, lastX, lastY, px, py, w)) {
+				penDown = false;	// this segment is off the screen
+			} else {
+				if (!penDown) {
+					path.moveTo(lastX, lastY);
+					penDown = true;
+				}
+				path.lineTo(px, py);
+			}
+			lastX = px;
+			lastY = py;
+		}
+		drawPath(g2d, path, lastW);
+	}
+
+	/**
+	 * Draw a path with a round stroke of a given width
+	 * @param g2d Graphics2D
+	 * @param path path to draw
+	 * @param w width in pixels
+	 */
+	private void drawPath(Graphics2D g2d, GeneralPath path, int w) {
+		if (path.getCurrentPoint() == null) {
+			return;		// nothing in the path
+		}
+		w = Math.max(w, 1);
+		BasicStroke[] s = strokes;		// local copy so that tiles can be painted on several threads
+		if (w >= s.length) {
+			s = Arrays.copyOf(s, w + 1);
+			strokes = s;
+		}
+		if (s[w] == null) {
+			s[w] = new BasicStroke(w, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+		}
+		g2d.setStroke(s[w]);
+		g2d.draw(path);
+	}
+
+	/**
+	 * Check if a segment is completely outside a clip rectangle
+	 * @param clip clip rectangle
+	 * @param x0 x of the first end
+	 * @param y0 y of the first end
+	 * @param x1 x of the second end
+	 * @param y1 y of the second end
+	 * @param w width of the segment
+	 * @return true if the segment can't be seen
+	 */
+	private static boolean outside(Rectangle clip, int x0, int y0, int x1, int y1, int w) {
+		return (Math.max(x0, x1) + w < clip.x) || (Math.min(x0, x1) - w > clip.x + clip.width)
+				|| (Math.max(y0, y1) + w < clip.y) || (Math.min(y0, y1) - w > clip.y + clip.height);
+	}
+
+	/**
+	 * Get the number of points in the curve
+	 * @return the number of points
+	 */
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Get the x-coordinate of a point
+	 * @param i index of the point
+	 * @return x in inches
+	 */
+	@Override
+	public double getX(int i) {
+		return xs[i];
+	}
+
+	/**
+	 * Get the y-coordinate of a point
+	 * @param i index of the point
+	 * @return y in inches
+	 */
+	@Override
+	public double getY(int i) {
+		return ys[i];
+	}
+
+	/**
+	 * Get the width of a point
+	 * @param i index of the point
+	 * @return width in pixels
+	 */
+	public int getWidth(int i) {
+		return widths[i];
+	}
+
+	/**
+	 * Get the largest width of any point
+	 * @return width in pixels (0 if there are no points)
+	 */
+	public int getMaxWidth() {
+		return maxWidth;
+	}
+
+	/**
+	 * Get the bounding box for the points defining this curve
+	 * @return bounding box (which might not include 0.0, 0.0)
+	 */
+	@Override
+	public BoundingBox getBoundingBox() {
+		if (size == 0) {
+			return new BoundingBox(0.0, 0.0, 0.0, 0.0);
+		}
+		return new BoundingBox(minX, minY, maxX, maxY);
+	}
+}
@@ -6,6 +6,7 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.geom.GeneralPath;
+import java.util.Arrays;
 import javax.vecmath.Point2d;
 
 /**
@@ -26,10 +27,12 @@ import javax.vecmath.Point2d;
  * You should have received a copy of the GNU General Public License
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
-public class Curve extends Shape {
+public class Curve extends Shape implements Polyline {
     public final static Color CURVE_COLOR = Color.YELLOW;
 	private final static double EPSILON = 0.001;	// a point is equal if x & y within EPSILON
+	private final static double STEP_TOLERANCE = 1.0e-9;	// fraction of a step ignored when counting steps (round-off)
 	private Point2d[] points;
+	private double[] cumLength = null;	// cumulative length up to each point (null until needed)
 
 	/**
 	 * A drawable curve defined by an array of points
@@ -87,7 +90,8 @@ public class Curve extends Shape {
 	}
 
 	/**
-	 * Get the array of Point2d that defines the curve
+	 * Get the array of Point2d that defines the curve.
+	 * If the points are changed in place, call setPoints() so that the length is recalculated.
 	 * @return array of Point2d
 	 */
 	public Point2d[] getPoints() {
@@ -98,15 +102,37 @@ public class Curve extends Shape {
 	 * Get the number of points in the curve
 	 * @return the number of points
 	 */
+	@Override
 	public int getSize() {
 		return points.length;
 	}
 
+	/**
+	 * Get the x-coordinate of a point
+	 * @param i index of the point
+	 * @return x in inches
+	 */
+	@Override
+	public double getX(int i) {
+		return points[i].x;
+	}
+
+	/**
+	 * Get the y-coordinate of a point
+	 * @param i index of the point
+	 * @return y in inches
+	 */
+	@Override
+	public double getY(int i) {
+		return points[i].y;
+	}
+
 	/**
 	 * Clear the points associated with this curve
 	 */
 	public void clear() {
 		this.points = new Point2d[0];
+		this.cumLength = null;
 	}
 
 	/**
@@ -115,6 +141,7 @@ public class Curve extends Shape {
 	 */
 	public void setPoints(Point2d[] pts) {
 		this.points = pts;
+		this.cumLength = null;
 	}
 
 	/**
@@ -217,6 +244,15 @@ public class Curve extends Shape {
 		setPoints(ptsOffsetBy(cut));
 	}
 
+	/**
+	 * Move the curve by moving all points parallel with the tangent at each point.
+	 * @param cut offset amount
+	 * @param closed true if the last point connects back to the first point
+	 */
+	public void offsetPts(double cut, boolean closed) {
+		setPoints(ptsOffsetBy(cut, closed));
+	}
+
 	/**
 	 * Return an array of points which are offset from this curve by the specified amount.
 	 * This assumes cutting on the inside (use negative value for cutting outside)
@@ -224,31 +260,27 @@ public class Curve extends Shape {
 	 * @return new array of Point2d representing the points on a new curve
 	 */
 	public Point2d[] ptsOffsetBy(double cut) {
-		if (points.length <= 1) {	// no offset for one point
-			return points;
-		}
+		return ptsOffsetBy(cut, false);
+	}
 
-		Point2d[] newPts = new Point2d[points.length];
-		for (int i = 0; i < points.length; i++) {
-			int im1 = Math.max(i - 1, 0);
-			int ip1 = Math.min(i + 1, points.length - 1);
-			if (points[im1].x == points[ip1].x) {		// check for vertical
-				newPts[i] = new Point2d(points[i].x + cut, points[i].y);	// if vertical, move x-direction only
-//			} else if (points[im1].y == points[ip1].y) {	// check for horizontal
-//				newPts[i] = new Point2d(points[i].x, points[i].y - cut);	// if horizontal, move y-direction only
-			} else {
-				double theta = Math.atan2(points[ip1].y - points[im1].y, points[ip1].x - points[im1].x);
-				newPts[i] = new Point2d(points[i].x + cut * Math.sin(theta),
-						points[i].y - cut * Math.cos(theta));
-			}
-		}
-		return newPts;
+	/**
+	 * Return an array of points which are offset from this curve by the specified amount.
+	 * This assumes cutting on the inside (use negative value for cutting outside).
+	 * Loops where the offset crosses over itself (i.e. on tight concave sections) are removed,
+	 * but loops which are already in the curve are kept.
+	 * @param cut offset amount
+	 * @param closed true if the last point connects back to the first point
+	 * @return new array of Point2d representing the points on a new curve
+	 */
+	public Point2d[] ptsOffsetBy(double cut, boolean closed) {
+		return CurveOffset.offset(points, cut, closed);
 	}
 
 	/**
 	 * Get the bounding box for the points defining this shape
 	 * @return bounding box (which might not include 0.0, 0.0)
 	 */
+	@Override
 	public BoundingBox getBoundingBox() {
 		if (points.length == 0) {
 			return new BoundingBox(0.0, 0.0, 0.0, 0.0);
@@ -279,12 +311,112 @@ public class Curve extends Shape {
 	public double getLength() {
 		if (points.length < 2)
 			return 0.0;
-		double length = 0.0;
-		for (int i = 0; i < points.length-1; i++) {
-			Point2d p0 = points[i];
-			Point2d p1 = points[i+1];
-			length += Math.hypot(p0.x - p1.x, p0.y - p1.y);
+		double[] cum = getCumLength();
+		return cum[cum.length - 1];
+	}
+
+	/**
+	 * Get the table of cumulative length along the curve (calculated the first time it is needed)
+	 * @return cumulative length at each point (the first is 0.0, the last is the total length)
+	 */
+	private double[] getCumLength() {
+		if ((cumLength == null) || (cumLength.length != points.length)) {
+			double[] cum = new double[points.length];
+			for (int i = 1; i < points.length; i++) {
+				Point2d p0 = points[i-1];
+				Point2d p1 = points[i];
+				cum[i] = cum[i-1] + Math.hypot(p1.x - p0.x, p1.y - p0.y);
+			}
+			cumLength = cum;
+		}
+		return cumLength;
+	}
+
+	/**
+	 * Find the point at a given distance along the curve (measured from the first point)
+	 * @param s distance along the curve (limited to the range 0.0 to getLength())
+	 * @return new point on the curve (null if no points)
+	 */
+	public Point2d pointAtLength(double s) {
+		if (points.length == 0)
+			return null;
+		if (points.length == 1)
+			return new Point2d(points[0]);
+		double[] cum = getCumLength();
+		s = Math.max(0.0, Math.min(s, cum[cum.length - 1]));
+		int i = Arrays.binarySearch(cum, s);
+		if (i >= 0) {
+			while ((i > 0) && (cum[i-1] == s)) {	// first point in case of duplicates
+				i--;
+			}
+			return new Point2d(points[i]);
+		}
+		i = -i - 1;				// cum[i-1] < s < cum[i]
+		return interpolate(i, s, cum);
+	}
+
+	/**
+	 * Resample the curve with a given number of points evenly spaced along its length.
+	 * The first and last points are always included.
+	 * @param n number of points (at least 2)
+	 * @return new array of Point2d (empty if no points)
+	 */
+	public Point2d[] resample(int n) {
+		if (points.length == 0)
+			return new Point2d[0];
+		n = Math.max(n, 2);
+		return resampleAt(getLength() / (n - 1), n);
+	}
+
+	/**
+	 * Resample the curve with points spaced a fixed distance apart along its length.
+	 * The first and last points are always included, so the last spacing may be shorter.
+	 * @param step distance between points along the curve
+	 * @return new array of Point2d (empty if no points)
+	 */
+	public Point2d[] resampleByStep(double step) {
+		if (points.length == 0)
+			return new Point2d[0];
+		double length = getLength();
+		if ((step <= 0.0) || (length == 0.0))
+			return resample(2);
+		int n = (int) Math.ceil(length / step - STEP_TOLERANCE) + 1;
+		return resampleAt(step, Math.max(n, 2));
+	}
+
+	/**
+	 * Make n points spaced step apart along the curve, with the last at the end of the curve.
+	 * @param step distance between points along the curve
+	 * @param n number of points
+	 * @return new array of Point2d
+	 */
+	private Point2d[] resampleAt(double step, int n) {
+		double[] cum = getCumLength();
+		Point2d[] pts = new Point2d[n];
+		int i = 1;
+		for (int k = 0; k < n - 1; k++) {		// walk along the curve just once
+			double s = k * step;
+			while ((i < cum.length - 1) && (cum[i] < s)) {
+				i++;
+			}
+			pts[k] = interpolate(i, s, cum);
 		}
-		return length;
+		pts[n-1] = new Point2d(points[points.length - 1]);
+		return pts;
+	}
+
+	/**
+	 * Interpolate between points[i-1] and points[i] at a given distance along the curve
+	 * @param i index of the point at the end of the segment (1 or more)
+	 * @param s distance along the curve
+	 * @param cum cumulative length table
+	 * @return new Point2d
+	 */
+	private Point2d interpolate(int i, double s, double[] cum) {
+		Point2d p0 = points[i-1];
+		Point2d p1 = points[i];
+		double segLength = cum[i] - cum[i-1];
+		double t = (segLength > 0.0) ? Math.max(0.0, Math.min(1.0, (s - cum[i-1]) / segLength)) : 0.0;
+		return new Point2d(p0.x + t * (p1.x - p0.x), p0.y + t * (p1.y - p0.y));
 	}
 }
@@ -0,0 +1,172 @@
+package billooms.penchuck.drawables;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.vecmath.Point2d;
+
+/**
+ * Find the places where curves (i.e. pen passes) cross each other.
+ * Overlapping passes are where ink pools and paper tears, so these are worth marking.
+ * All the segments of all the curves go into one SegmentSweep,
+ * so only segments which are close to each other are ever compared.
+ * @author Bill Ooms. Copyright 2010 Studio of Bill Ooms. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class CurveIntersections {
+
+	/**
+	 * A place where two curves cross
+	 */
+	public static class Crossing {
+		public final Point2d pt;		// crossing point in inches
+		public final int curve1;		// index of the first curve in the list
+		public final int seg1;			// segment of the first curve (from point seg1 to seg1+1, or to 0 if it closes the curve)
+		public final int curve2;		// index of the second curve in the list (curve2 >= curve1)
+		public final int seg2;			// segment of the second curve
+
+		Crossing(Point2d pt, int curve1, int seg1, int curve2, int seg2) {
+			this.pt = pt;
+			this.curve1 = curve1;
+			this.seg1 = seg1;
+			this.curve2 = curve2;
+			this.seg2 = seg2;
+		}
+	}
+
+	private final List<? extends Polyline> curves;
+	private final ArrayList<Crossing> crossings = new ArrayList<Crossing>();
+
+	/**
+	 * Find all the crossings between the given curves.
+	 * @param curves list of curves (such as Curve and CurveWidth)
+	 * @param self true to also find places where a curve crosses itself
+	 */
+	public CurveIntersections(List<? extends Polyline> curves, final boolean self) {
+		this.curves = curves;
+		int nSeg = 0;
+		final int[] closedSeg = new int[curves.size()];	// last segment of each closed curve (-1 if open)
+		for (int ic = 0; ic < curves.size(); ic++) {
+			Polyline c = curves.get(ic);
+			int n = c.getSize();
+			closedSeg[ic] = -1;
+			if ((c instanceof BufferedCurve) && ((BufferedCurve) c).isClosed() && (n > 2)) {
+				closedSeg[ic] = n - 1;		// the last point connects back to the first
+			} else if ((n > 3) && (c.getX(0) == c.getX(n - 1)) && (c.getY(0) == c.getY(n - 1))) {
+				closedSeg[ic] = n - 2;		// the first point is repeated at the end
+			}
+			nSeg += Math.max(0, n - 1) + ((closedSeg[ic] == n - 1) ? 1 : 0);
+		}
+		final SegmentSweep sweep = new SegmentSweep(nSeg);
+		for (int ic = 0; ic < curves.size(); ic++) {
+			Polyline c = curves.get(ic);
+			int n = c.getSize();
+			for (int i = 0; i < n - 1; i++) {
+				sweep.add(c.getX(i), c.getY(i), c.getX(i + 1), c.getY(i + 1), ic, i);
+			}
+			if (closedSeg[ic] == n - 1) {
+				sweep.add(c.getX(n - 1), c.getY(n - 1), c.getX(0), c.getY(0), ic, n - 1);
+			}
+		}
+		sweep.sweep(new SegmentSweep.Visitor() {
+			@Override
+			public void crossing(int a, int b, double x, double y) {
+				int ca = sweep.getCurve(a), cb = sweep.getCurve(b);
+				int ia = sweep.getIndex(a), ib = sweep.getIndex(b);
+				if (ca == cb) {
+					if (!self || (Math.abs(ia - ib) <= 1)) {
+						return;		// neighboring segments always touch
+					}
+					if ((Math.min(ia, ib) == 0) && (Math.max(ia, ib) == closedSeg[ca])) {
+						return;		// the end of a closed curve joins the start
+					}
+				}
+				if ((ca > cb) || ((ca == cb) && (ia > ib))) {
+					crossings.add(new Crossing(new Point2d(x, y), cb, ib, ca, ia));
+				} else {
+					crossings.add(new Crossing(new Point2d(x, y), ca, ia, cb, ib));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Find all the crossings between different curves.
+	 * @param curves list of curves (such as Curve and CurveWidth)
+	 */
+	public CurveIntersections(List<? extends Polyline> curves) {
+		this(curves, false);
+	}
+
+	/**
+	 * Get the curves that were checked
+	 * @return list of curves
+	 */
+	public List<? extends Polyline> getCurves() {
+		return curves;
+	}
+
+	/**
+	 * Get all the crossings (in no particular order)
+	 * @return list of Crossing
+	 */
+	public List<Crossing> getCrossings() {
+		return crossings;
+	}
+
+	/**
+	 * Get the number of crossings
+	 * @return number of crossings
+	 */
+	public int getSize() {
+		return crossings.size();
+	}
+
+	/**
+	 * Get the crossing points
+	 * @return array of Point2d
+	 */
+	public Point2d[] getPoints() {
+		Point2d[] pts = new Point2d[crossings.size()];
+		for (int i = 0; i < pts.length; i++) {
+			pts[i] = crossings.get(i).pt;
+		}
+		return pts;
+	}
+
+	/**
+	 * Get each pair of curves which cross at least once
+	 * @return array of {curve1, curve2} sorted by curve1 then curve2
+	 */
+	public int[][] getPairs() {
+		long[] keys = new long[crossings.size()];
+		for (int i = 0; i < keys.length; i++) {
+			Crossing c = crossings.get(i);
+			keys[i] = ((long) c.curve1 << 32) | c.curve2;
+		}
+		Arrays.sort(keys);
+		int n = 0;
+		for (int i = 0; i < keys.length; i++) {		// remove duplicates in place
+			if ((i == 0) || (keys[i] != keys[i - 1])) {
+				keys[n++] = keys[i];
+			}
+		}
+		int[][] pairs = new int[n][];
+		for (int i = 0; i < n; i++) {
+			pairs[i] = new int[] {(int) (keys[i] >>> 32), (int) keys[i]};
+		}
+		return pairs;
+	}
+}
@@ -0,0 +1,246 @@
+package billooms.penchuck.drawables;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import javax.vecmath.Point2d;
+
+/**
+ * Offset a curve by a given amount (for cutter or pen-tip compensation).
+ * Each point is moved along the normal to the chord between its neighbors.
+ * The normal is found directly from the chord (no trig functions).
+ * On tight concave sections the offset points cross over each other and make small loops,
+ * so the loops are found with a SegmentSweep and cut out at the crossing point.
+ * Loops which are already in the curve (e.g. from a geared pass) are kept.
+ * @author Bill Ooms. Copyright 2010 Studio of Bill Ooms. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class CurveOffset {
+	private final static double EPSILON = 0.001;	// a point is equal if x & y within EPSILON
+
+	private CurveOffset() {
+	}
+
+	/**
+	 * Return an array of points which are offset from the given points by the specified amount,
+	 * with any loops caused by the offset removed.
+	 * This assumes cutting on the inside (use negative value for cutting outside)
+	 * @param pts array of Point2d defining the curve
+	 * @param cut offset amount
+	 * @param closed true if the last point connects back to the first point
+	 * @return new array of Point2d representing the points on a new curve
+	 */
+	public static Point2d[] offset(Point2d[] pts, double cut, boolean closed) {
+		if (pts.length <= 1) {	// no offset for one point
+			return pts;
+		}
+		boolean repeatFirst = closed && (pts.length > 2) && aboutEqual(pts[0], pts[pts.length - 1]);
+		if (repeatFirst) {		// work without the duplicate end point and put it back at the end
+			pts = Arrays.copyOf(pts, pts.length - 1);
+		}
+		Point2d[] newPts = removeLoops(offsetNoTrim(pts, cut, closed), pts, closed);
+		if (repeatFirst) {
+			newPts = Arrays.copyOf(newPts, newPts.length + 1);
+			newPts[newPts.length - 1] = new Point2d(newPts[0]);
+		}
+		return newPts;
+	}
+
+	/**
+	 * Return an array of points which are offset from the given points by the specified amount.
+	 * Loops are not removed.
+	 * @param pts array of Point2d defining the curve
+	 * @param cut offset amount
+	 * @param closed true if the last point connects back to the first point
+	 * @return new array of Point2d (same length as pts)
+	 */
+	public static Point2d[] offsetNoTrim(Point2d[] pts, double cut, boolean closed) {
+		int n = pts.length;
+		Point2d[] newPts = new Point2d[n];
+		for (int i = 0; i < n; i++) {
+			int im1, ip1;
+			if (closed) {
+				im1 = (i == 0) ? n - 1 : i - 1;
+				ip1 = (i == n - 1) ? 0 : i + 1;
+			} else {
+				im1 = Math.max(i - 1, 0);
+				ip1 = Math.min(i + 1, n - 1);
+			}
+			double dx = pts[ip1].x - pts[im1].x;
+			double dy = pts[ip1].y - pts[im1].y;
+			double len = Math.sqrt(dx * dx + dy * dy);
+			if (len == 0.0) {		// no direction, so don't move it
+				newPts[i] = new Point2d(pts[i]);
+			} else {
+				double k = cut / len;	// unit normal is (dy, -dx)/len
+				newPts[i] = new Point2d(pts[i].x + k * dy, pts[i].y - k * dx);
+			}
+		}
+		return newPts;
+	}
+
+	/**
+	 * Remove the loops where a curve crosses over itself.
+	 * Each loop is replaced by the crossing point. Loops inside of a bigger loop go with the bigger loop.
+	 * For a closed curve the shorter side of the crossing is taken to be the loop.
+	 * A loop must contain less than half of the points to be removed.
+	 * @param pts array of Point2d defining the curve
+	 * @param closed true if the last point connects back to the first point
+	 * @return new array of Point2d without the loops (pts if there are no loops)
+	 */
+	public static Point2d[] removeLoops(Point2d[] pts, boolean closed) {
+		return removeLoops(pts, null, closed);
+	}
+
+	/**
+	 * Remove only the loops which an offset made.
+	 * A loop is kept if the same points of the source curve go around the same way, as they do where the source
+	 * has a loop of its own (e.g. a geared pass). A loop going around backwards is a swallowtail made by the offset.
+	 * Otherwise this is the same as removeLoops(pts, closed).
+	 * @param pts array of Point2d defining the offset curve
+	 * @param source array of Point2d that pts was offset from (same length as pts), or null to remove all loops
+	 * @param closed true if the last point connects back to the first point
+	 * @return new array of Point2d without the loops (pts if there are no loops)
+	 */
+	public static Point2d[] removeLoops(final Point2d[] pts, final Point2d[] source, final boolean closed) {
+		final int n = pts.length;
+		final int nSeg = closed ? n : n - 1;
+		if (nSeg < 3) {
+			return pts;
+		}
+
+		SegmentSweep sweep = new SegmentSweep(nSeg);
+		for (int i = 0; i < nSeg; i++) {
+			Point2d p0 = pts[i];
+			Point2d p1 = pts[(i + 1) % n];
+			sweep.add(p0.x, p0.y, p1.x, p1.y, 0, i);
+		}
+		final ArrayList<Loop> loops = new ArrayList<Loop>();
+		sweep.sweep(new SegmentSweep.Visitor() {
+			@Override
+			public void crossing(int a, int b, double x, double y) {
+				int i = Math.min(a, b);
+				int j = Math.max(a, b);
+				if ((j == i + 1) || (closed && (i == 0) && (j == nSeg - 1))) {
+					return;		// neighbors always touch
+				}
+				Loop loop = new Loop(i, j, nSeg, closed, new Point2d(x, y));
+				if ((2 * loop.span < nSeg)		// only local loops (not the ends of an open curve meeting)
+						&& ((source == null) || !inSource(pts, source, loop))) {
+					loops.add(loop);
+				}
+			}
+		});
+		if (loops.isEmpty()) {
+			return pts;
+		}
+
+		Loop[] sorted = loops.toArray(new Loop[loops.size()]);
+		Arrays.sort(sorted, new Comparator<Loop>() {
+			@Override
+			public int compare(Loop a, Loop b) {
+				return b.span - a.span;		// biggest loops first
+			}
+		});
+		boolean[] keep = new boolean[n];
+		Arrays.fill(keep, true);
+		Point2d[] insertAfter = new Point2d[n];	// crossing point to put after a given point
+		int nKeep = n;
+		for (Loop loop : sorted) {
+			int last = loop.wrap ? loop.j : loop.i;		// last point kept before the crossing
+			int first = (last + loop.span + 1) % n;		// first point kept after the crossing
+			boolean ok = keep[last] && keep[first];
+			for (int k = 1; ok && (k <= loop.span); k++) {
+				ok = keep[(last + k) % n];
+			}
+			if (!ok) {
+				continue;		// overlaps a loop that is already gone
+			}
+			for (int k = 1; k <= loop.span; k++) {
+				keep[(last + k) % n] = false;
+			}
+			nKeep -= loop.span;
+			insertAfter[last] = loop.pt;
+		}
+
+		ArrayList<Point2d> newPts = new ArrayList<Point2d>(nKeep + loops.size());
+		for (int k = 0; k < n; k++) {
+			if (keep[k]) {
+				newPts.add(pts[k]);
+				if (insertAfter[k] != null) {
+					newPts.add(insertAfter[k]);
+				}
+			}
+		}
+		return newPts.toArray(new Point2d[newPts.size()]);
+	}
+
+	/**
+	 * Check if a loop of the offset curve is also in the source curve.
+	 * The same points of the source must go around the same way (the signed areas have the same sign).
+	 * A swallowtail made by offsetting a tight concave section goes around backwards.
+	 * @param pts offset points
+	 * @param source source points
+	 * @param loop loop in the offset curve
+	 * @return true if the loop is in the source
+	 */
+	private static boolean inSource(Point2d[] pts, Point2d[] source, Loop loop) {
+		int n = source.length;
+		int last = loop.wrap ? loop.j : loop.i;		// last point before the crossing
+		double aOff = 0.0, aSrc = 0.0;				// twice the signed areas of the loops
+		Point2d p0 = loop.pt, s0 = loop.pt;
+		for (int k = 1; k <= loop.span + 1; k++) {
+			int m = (last + k) % n;
+			Point2d p1 = (k <= loop.span) ? pts[m] : loop.pt;
+			Point2d s1 = (k <= loop.span) ? source[m] : loop.pt;
+			aOff += p0.x * p1.y - p1.x * p0.y;
+			aSrc += s0.x * s1.y - s1.x * s0.y;
+			p0 = p1;
+			s0 = s1;
+		}
+		return aOff * aSrc > 0.0;
+	}
+
+	/**
+	 * Compare two points to see if they are about equal (i.e. within EPSILON)
+	 * @param p0 First point
+	 * @param p1 Second point
+	 * @return true if both x and y are within EPSILON of each other
+	 */
+	private static boolean aboutEqual(Point2d p0, Point2d p1) {
+		return ((Math.abs(p0.x - p1.x) <= EPSILON) && (Math.abs(p0.y - p1.y) <= EPSILON));
+	}
+
+	/**
+	 * A loop between a crossing of segment i and segment j (i < j)
+	 */
+	private static class Loop {
+		int i, j;			// segments that cross
+		int span;			// number of points inside the loop
+		boolean wrap;		// true if the loop goes around the end of a closed curve
+		Point2d pt;			// crossing point
+
+		Loop(int i, int j, int nSeg, boolean closed, Point2d pt) {
+			this.i = i;
+			this.j = j;
+			this.pt = pt;
+			span = j - i;							// points i+1 to j
+			if (closed && (nSeg - span < span)) {	// points j+1 around to i
+				span = nSeg - span;
+				wrap = true;
+			}
+		}
+	}
+}
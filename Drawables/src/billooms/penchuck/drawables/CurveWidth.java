@@ -24,7 +24,7 @@ import javax.vecmath.Point2d;
  * You should have received a copy of the GNU General Public License
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
-public class CurveWidth extends Shape {
+public class CurveWidth extends Shape implements Polyline {
 	private Point2d[] points;
 	private int[] widths;
 
@@ -56,8 +56,7 @@ public class CurveWidth extends Shape {
 			g2d.setColor(color);
 			Point p, pm1;
 			for (int i = 1; i < points.length; i++) {
-				stroke = new BasicStroke(widths[i], BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
-				g2d.setStroke(stroke);
+				g2d.setStroke(new BasicStroke(widths[i], BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
 				p = scaleInchToPix(points[i], dpi, zPix);
 				pm1 = scaleInchToPix(points[i-1], dpi, zPix);
 				g2d.drawLine(pm1.x, pm1.y, p.x, p.y);
@@ -69,10 +68,59 @@ public class CurveWidth extends Shape {
 	 * Get the number of points in the curve
 	 * @return the number of points
 	 */
+	@Override
 	public int getSize() {
 		return points.length;
 	}
 
+	/**
+	 * Get the width of a point
+	 * @param i index of the point
+	 * @return width in pixels
+	 */
+	public int getWidth(int i) {
+		return widths[i];
+	}
+
+	/**
+	 * Get the x-coordinate of a point
+	 * @param i index of the point
+	 * @return x in inches
+	 */
+	@Override
+	public double getX(int i) {
+		return points[i].x;
+	}
+
+	/**
+	 * Get the y-coordinate of a point
+	 * @param i index of the point
+	 * @return y in inches
+	 */
+	@Override
+	public double getY(int i) {
+		return points[i].y;
+	}
+
+	/**
+	 * Get the bounding box for the points defining this curve
+	 * @return bounding box (which might not include 0.0, 0.0)
+	 */
+	@Override
+	public BoundingBox getBoundingBox() {
+		if (points.length == 0) {
+			return new BoundingBox(0.0, 0.0, 0.0, 0.0);
+		}
+		double minX = points[0].x, maxX = minX, minY = points[0].y, maxY = minY;
+		for (Point2d p : points) {
+			minX = Math.min(minX, p.x);
+			maxX = Math.max(maxX, p.x);
+			minY = Math.min(minY, p.y);
+			maxY = Math.max(maxY, p.y);
+		}
+		return new BoundingBox(minX, minY, maxX, maxY);
+	}
+
 	/**
 	 * Get the array of Point2d that defines the curve
 	 * @return array of Point2d
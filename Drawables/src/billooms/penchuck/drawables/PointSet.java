@@ -0,0 +1,273 @@
+package billooms.penchuck.drawables;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.GeneralPath;
+import java.util.Arrays;
+import javax.vecmath.Point2d;
+
+/**
+ * A drawable set of points that all have the same color, size and marker.
+ * Use this instead of many Pt (or Plus) objects when there are thousands of markers
+ * (such as index marks, sample points or intersections).
+ * The coordinates are kept in arrays and all the markers are painted as one path.
+ * @author Bill Ooms. Copyright 2010 Studio of Bill Ooms. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class PointSet implements Drawable {
+	public final static Color POINTSET_COLOR = Color.RED;
+
+	/**
+	 * This defines the shape drawn at each point
+	 */
+	public enum Marker {
+		DOT,		// 1 pixel dot (like Pt)
+		PLUS		// plus sign (like Plus)
+	}
+
+	private double[] xs, ys;			// positions in inches
+	private int size = 0;
+	private Color color;
+	private Marker marker;
+	private boolean visible = true;		// always visible unless specifically changed
+	private int ptSize = Pt.PT_SIZE;	// size of the markers in pixels
+
+	/**
+	 * An empty drawable set of points
+	 * @param c Color
+	 * @param m Marker
+	 */
+	public PointSet(Color c, Marker m) {
+		this.color = c;
+		this.marker = m;
+		xs = new double[16];
+		ys = new double[16];
+	}
+
+	/**
+	 * A drawable set of points
+	 * @param pts array of Point2d
+	 * @param c Color
+	 * @param m Marker
+	 */
+	public PointSet(Point2d[] pts, Color c, Marker m) {
+		this(c, m);
+		ensureCapacity(pts.length);
+		for (Point2d p : pts) {
+			add(p.x, p.y);
+		}
+	}
+
+	/**
+	 * A drawable set of plus markers (default color)
+	 * @param pts array of Point2d
+	 */
+	public PointSet(Point2d[] pts) {
+		this(pts, POINTSET_COLOR, Marker.PLUS);
+	}
+
+    /**
+     * Paint all the points with a single color and stroke
+     * @param g Graphics g
+	 * @param dpi pixels per inch
+	 * @param zPix zero location in pixels
+     */
+	@Override
+	public void paint(Graphics g, int dpi, Point zPix) {
+		if (!visible || (size == 0)) {
+			return;
+		}
+		int half = ptSize / 2;
+		Rectangle clip = g.getClipBounds();
+		GeneralPath path = new GeneralPath(GeneralPath.WIND_NON_ZERO, (marker == Marker.PLUS) ? 4 * size : 2 * size);
+		for (int i = 0; i < size; i++) {
+			int px = zPix.x + (int) (xs[i] * dpi);
+			int py = zPix.y - (int) (ys[i] * dpi);
+			if ((clip != null) && ((px + half < clip.x) || (px - half > clip.x + clip.width)
+					|| (py + half < clip.y) || (py - half > clip.y + clip.height))) {
+				continue;		// off the screen
+			}
+			switch (marker) {
+				case PLUS:
+					path.moveTo(px, py + half);
+					path.lineTo(px, py - half);
+					path.moveTo(px + half, py);
+					path.lineTo(px - half, py);
+					break;
+				case DOT:
+				default:
+					path.moveTo(px, py);
+					path.lineTo(px, py);
+					break;
+			}
+		}
+		Graphics2D g2d = (Graphics2D) g;
+		g2d.setColor(color);
+		g2d.setStroke(SOLID_LINE);
+		g2d.draw(path);
+	}
+
+    /**
+     * Set the color of all the points
+     * @param c Color c
+     */
+	@Override
+	public void setColor(Color c) {
+		this.color = c;
+	}
+
+	/**
+	 * Set the visibility of the object
+	 * @param v true=visible; false=not drawn
+	 */
+	@Override
+	public void setVisible(boolean v) {
+		visible = v;
+	}
+
+	/**
+	 * Get the color
+	 * @return Color
+	 */
+	public Color getColor() {
+		return color;
+	}
+
+	/**
+	 * Find out if the object is drawn
+	 * @return true=visible; false=not drawn
+	 */
+	public boolean isVisible() {
+		return visible;
+	}
+
+    /**
+     * Set the size of all the markers in pixels
+     * @param s Size in pixels
+     */
+	public void setMarkerSize(int s) {
+		this.ptSize = s;
+	}
+
+	/**
+	 * Set the marker drawn at each point
+	 * @param m Marker
+	 */
+	public void setMarker(Marker m) {
+		this.marker = m;
+	}
+
+	/**
+	 * Get the marker drawn at each point
+	 * @return Marker
+	 */
+	public Marker getMarker() {
+		return marker;
+	}
+
+	/**
+	 * Get the size of the markers
+	 * @return size in pixels
+	 */
+	public int getMarkerSize() {
+		return ptSize;
+	}
+
+	/**
+	 * Add a point
+	 * @param x x in inches
+	 * @param y y in inches
+	 */
+	public void add(double x, double y) {
+		ensureCapacity(size + 1);
+		xs[size] = x;
+		ys[size] = y;
+		size++;
+	}
+
+	/**
+	 * Add a point
+	 * @param p point in inches
+	 */
+	public void add(Point2d p) {
+		add(p.x, p.y);
+	}
+
+	/**
+	 * Remove all the points
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Get the number of points
+	 * @return the number of points
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Get the x-coordinate of a point
+	 * @param i index of the point
+	 * @return x in inches
+	 */
+	public double getX(int i) {
+		return xs[i];
+	}
+
+	/**
+	 * Get the y-coordinate of a point
+	 * @param i index of the point
+	 * @return y in inches
+	 */
+	public double getY(int i) {
+		return ys[i];
+	}
+
+	/**
+	 * Get the bounding box for the points
+	 * @return bounding box (which might not include 0.0, 0.0)
+	 */
+	public BoundingBox getBoundingBox() {
+		if (size == 0) {
+			return new BoundingBox(0.0, 0.0, 0.0, 0.0);
+		}
+		double minX = xs[0], maxX = xs[0], minY = ys[0], maxY = ys[0];
+		for (int i = 1; i < size; i++) {
+			minX = Math.min(minX, xs[i]);
+			maxX = Math.max(maxX, xs[i]);
+			minY = Math.min(minY, ys[i]);
+			maxY = Math.max(maxY, ys[i]);
+		}
+		return new BoundingBox(minX, minY, maxX, maxY);
+	}
+
+	/**
+	 * Make sure there is room for the given number of points
+	 * @param n number of points
+	 */
+	private void ensureCapacity(int n) {
+		if (n > xs.length) {
+			int len = Math.max(n, 2 * xs.length);
+			xs = Arrays.copyOf(xs, len);
+			ys = Arrays.copyOf(ys, len);
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package billooms.penchuck.drawables;
+
+import billooms.penchuck.drawables.Drawable.BoundingBox;
+
+/**
+ * Interface for drawables that are defined by an ordered list of points
+ * (so that their points can be read without knowing how they are stored).
+ * @author Bill Ooms. Copyright 2010 Studio of Bill Ooms. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public interface Polyline {
+
+	/**
+	 * Get the number of points
+	 * @return the number of points
+	 */
+	public int getSize();
+
+	/**
+	 * Get the x-coordinate of a point
+	 * @param i index of the point
+	 * @return x in inches
+	 */
+	public double getX(int i);
+
+	/**
+	 * Get the y-coordinate of a point
+	 * @param i index of the point
+	 * @return y in inches
+	 */
+	public double getY(int i);
+
+	/**
+	 * Get the bounding box for the points
+	 * @return bounding box (which might not include 0.0, 0.0)
+	 */
+	public BoundingBox getBoundingBox();
+}
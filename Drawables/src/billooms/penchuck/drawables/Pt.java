@@ -85,6 +85,30 @@ public abstract class Pt implements Drawable {
         this.ptSize = s;
     }
 
+	/**
+	 * Get the point size (diameter)
+	 * @return size in pixels
+	 */
+	public int getSize() {
+		return ptSize;
+	}
+
+	/**
+	 * Get the color
+	 * @return Color
+	 */
+	public Color getColor() {
+		return color;
+	}
+
+	/**
+	 * Find out if the object is drawn
+	 * @return true=visible; false=not drawn
+	 */
+	public boolean isVisible() {
+		return visible;
+	}
+
 	/**
 	 * Get the point position in pixels (screen coordinates)
 	 * @param dpi pixels per inch
@@ -0,0 +1,167 @@
+package billooms.penchuck.drawables;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+/**
+ * An image of the oldest drawables in a list, so that a long list can be painted quickly.
+ * The newest drawables are left out of the image and painted as vectors: at most a given number of them,
+ * and fewer if they have more than a given number of points. The rest are painted onto the image once,
+ * as they become old enough, so the cost of painting doesn't grow with the length of the list.
+ * <p>
+ * Each drawable has a key (any object which stays the same for as long as the drawable is in the list)
+ * so the image can tell if the list has changed underneath it. If drawables in the image are removed
+ * (e.g. by an undo), or the size, dpi or origin changes, the image is painted again the next time it is used.
+ * @author Bill Ooms. Copyright 2010 Studio of Bill Ooms. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class RasterLayer {
+	public final static int DEFAULT_KEEP = 16;				// newest drawables painted as vectors
+	public final static long DEFAULT_MAX_POINTS = 200000L;	// limit on the points painted as vectors
+
+	private final int keep;
+	private final long maxPoints;
+	private BufferedImage image = null;
+	private int dpi;
+	private Point zero = new Point();
+	private int size = 0;			// number of drawables in the image
+	private Object lastKey = null;	// key of the last drawable in the image
+
+	/**
+	 * A layer with limits on the drawables that are painted as vectors
+	 * @param keep number of the newest drawables that are painted as vectors
+	 * @param max limit on their points (older drawables go into the image to stay within this)
+	 */
+	public RasterLayer(int keep, long max) {
+		this.keep = Math.max(keep, 1);
+		this.maxPoints = max;
+	}
+
+	/**
+	 * A layer with the default limits
+	 */
+	public RasterLayer() {
+		this(DEFAULT_KEEP, DEFAULT_MAX_POINTS);
+	}
+
+	/**
+	 * Bring the image up to date with a list, painting any drawables which are now old enough onto it.
+	 * Only the drawables which are painted onto the image and the ones which are newer are looked at.
+	 * @param list drawables in the order they are painted
+	 * @param keys key of each drawable
+	 * @param w width of the image in pixels
+	 * @param h height of the image in pixels
+	 * @param dpi dots per inch
+	 * @param zPix pixel location of 0.0, 0.0
+	 * @return index of the first drawable which is not in the image (the rest must be painted after the image)
+	 */
+	public int update(List<? extends Drawable> list, List<?> keys, int w, int h, int dpi, Point zPix) {
+		int n = list.size();
+		if ((w <= 0) || (h <= 0)) {
+			return 0;
+		}
+		if ((image == null) || (image.getWidth() != w) || (image.getHeight() != h)
+				|| (dpi != this.dpi) || !zPix.equals(zero)
+				|| (size > n) || ((size > 0) && (keys.get(size - 1) != lastKey))) {
+			if ((image == null) || (image.getWidth() != w) || (image.getHeight() != h)) {
+				image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+			} else {
+				erase();
+			}
+			this.dpi = dpi;
+			this.zero = new Point(zPix);
+			size = 0;
+			lastKey = null;
+		}
+		int base = Math.max(n - keep, size);
+		long pts = 0;
+		for (int i = n - 1; i > base; i--) {	// the newest always stays a vector
+			pts += points(list.get(i));
+			if (pts > maxPoints) {
+				base = Math.min(i + 1, n - 1);	// i doesn't fit, so it goes in the image too
+				break;
+			}
+		}
+		if (base > size) {
+			Graphics2D g2 = image.createGraphics();
+			try {
+				for (int i = size; i < base; i++) {
+					list.get(i).paint(g2, dpi, zero);
+				}
+			} finally {
+				g2.dispose();
+			}
+			size = base;
+			lastKey = keys.get(size - 1);
+		}
+		return size;
+	}
+
+	/**
+	 * Paint the image
+	 * @param g Graphics
+	 */
+	public void paint(Graphics g) {
+		if ((image != null) && (size > 0)) {
+			g.drawImage(image, 0, 0, null);
+		}
+	}
+
+	/**
+	 * Get the number of drawables in the image
+	 * @return number of drawables
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Forget the image (it is painted again the next time it is updated)
+	 */
+	public void clear() {
+		image = null;
+		size = 0;
+		lastKey = null;
+	}
+
+	/**
+	 * Make the image transparent again
+	 */
+	private void erase() {
+		Graphics2D g2 = image.createGraphics();
+		try {
+			g2.setComposite(AlphaComposite.Clear);
+			g2.fillRect(0, 0, image.getWidth(), image.getHeight());
+		} finally {
+			g2.dispose();
+		}
+	}
+
+	/**
+	 * Get the number of points that painting a drawable costs
+	 * @param d drawable
+	 * @return number of points
+	 */
+	private static long points(Drawable d) {
+		if (d instanceof Polyline) {
+			return ((Polyline) d).getSize();
+		}
+		return 1;
+	}
+}
@@ -0,0 +1,213 @@
+package billooms.penchuck.drawables;
+
+import java.util.Arrays;
+
+/**
+ * A sweep-line that finds crossings among a set of line segments.
+ * Segments are visited in order of increasing minimum x. The set of active segments
+ * (those which still overlap the sweep line) is kept in horizontal bands so that
+ * a new segment is only compared to active segments which are near it in y.
+ * Each segment remembers the curve it came from and its index along that curve
+ * so that the caller can ignore crossings between neighboring segments.
+ * @author Bill Ooms. Copyright 2010 Studio of Bill Ooms. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+class SegmentSweep {
+	private final static int MAX_BANDS = 4096;		// limit on the number of horizontal bands
+	private final static double PARALLEL = 1.0e-12;	// segments are parallel if the cross product is smaller
+
+	private double[] x0, y0, x1, y1;	// segment end points
+	private int[] curve;				// which curve each segment came from
+	private int[] index;				// index of each segment along its curve
+	private int size = 0;
+
+	/**
+	 * Receives the crossings found by a sweep
+	 */
+	interface Visitor {
+		/**
+		 * Called once for each pair of segments that cross (or touch).
+		 * A segment includes its start point but not its end point,
+		 * so a crossing at a point shared by two segments in a row is only found once.
+		 * @param a first segment number
+		 * @param b second segment number
+		 * @param x x-coordinate of the crossing
+		 * @param y y-coordinate of the crossing
+		 */
+		public void crossing(int a, int b, double x, double y);
+	}
+
+	/**
+	 * A set of line segments
+	 * @param capacity expected number of segments
+	 */
+	SegmentSweep(int capacity) {
+		capacity = Math.max(capacity, 4);
+		x0 = new double[capacity];
+		y0 = new double[capacity];
+		x1 = new double[capacity];
+		y1 = new double[capacity];
+		curve = new int[capacity];
+		index = new int[capacity];
+	}
+
+	/**
+	 * Add a segment
+	 * @param ax x of the first end
+	 * @param ay y of the first end
+	 * @param bx x of the second end
+	 * @param by y of the second end
+	 * @param c curve the segment came from
+	 * @param i index of the segment along the curve
+	 * @return the segment number
+	 */
+	int add(double ax, double ay, double bx, double by, int c, int i) {
+		if (size == x0.length) {
+			int n = 2 * size;
+			x0 = Arrays.copyOf(x0, n);
+			y0 = Arrays.copyOf(y0, n);
+			x1 = Arrays.copyOf(x1, n);
+			y1 = Arrays.copyOf(y1, n);
+			curve = Arrays.copyOf(curve, n);
+			index = Arrays.copyOf(index, n);
+		}
+		x0[size] = ax;
+		y0[size] = ay;
+		x1[size] = bx;
+		y1[size] = by;
+		curve[size] = c;
+		index[size] = i;
+		return size++;
+	}
+
+	/**
+	 * Get the number of segments
+	 * @return number of segments
+	 */
+	int getSize() {
+		return size;
+	}
+
+	/**
+	 * Get the curve that a segment came from
+	 * @param s segment number
+	 * @return curve number given when the segment was added
+	 */
+	int getCurve(int s) {
+		return curve[s];
+	}
+
+	/**
+	 * Get the index of a segment along its curve
+	 * @param s segment number
+	 * @return index given when the segment was added
+	 */
+	int getIndex(int s) {
+		return index[s];
+	}
+
+	/**
+	 * Sweep across all segments and report every pair that crosses.
+	 * Collinear overlapping segments are not reported.
+	 * @param v Visitor to receive the crossings
+	 */
+	void sweep(Visitor v) {
+		if (size < 2) {
+			return;
+		}
+		double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE, sumH = 0.0;
+		long[] order = new long[size];		// sortable float of min x in the high word, segment number in the low word
+		float[] key = new float[size];
+		for (int s = 0; s < size; s++) {
+			float k = (float) Math.min(x0[s], x1[s]);
+			if (k > Math.min(x0[s], x1[s])) {
+				k = Math.nextAfter(k, Double.NEGATIVE_INFINITY);	// round down so the key never exceeds min x
+			}
+			key[s] = k;
+			int bits = Float.floatToIntBits(k);
+			bits ^= (bits >> 31) & 0x7fffffff;
+			order[s] = ((long) bits << 32) | s;
+			minY = Math.min(minY, Math.min(y0[s], y1[s]));
+			maxY = Math.max(maxY, Math.max(y0[s], y1[s]));
+			sumH += Math.abs(y1[s] - y0[s]);
+		}
+		Arrays.sort(order);
+
+		int nBands = 1;
+		double avgH = sumH / size;
+		if ((maxY > minY) && (avgH > 0.0)) {
+			nBands = (int) Math.max(1.0, Math.min(MAX_BANDS, (maxY - minY) / (2.0 * avgH)));
+		}
+		double bandScale = (maxY > minY) ? nBands / (maxY - minY) : 0.0;
+		int[][] bands = new int[nBands][];
+		int[] bandSize = new int[nBands];
+		int[] loBand = new int[size];
+
+		for (int k = 0; k < size; k++) {
+			int s = (int) order[k];
+			double sMinY = Math.min(y0[s], y1[s]);
+			double sMaxY = Math.max(y0[s], y1[s]);
+			int lo = Math.min(nBands - 1, (int) ((sMinY - minY) * bandScale));
+			int hi = Math.min(nBands - 1, (int) ((sMaxY - minY) * bandScale));
+			loBand[s] = lo;
+			for (int b = lo; b <= hi; b++) {
+				int[] list = bands[b];
+				int n = bandSize[b];
+				int i = 0;
+				while (i < n) {
+					int e = list[i];
+					if (Math.max(x0[e], x1[e]) < key[s]) {	// e is behind the sweep line, so drop it
+						list[i] = list[--n];
+						continue;
+					}
+					if ((Math.max(lo, loBand[e]) == b)		// only test a pair in the first band they share
+							&& (Math.max(y0[e], y1[e]) >= sMinY) && (Math.min(y0[e], y1[e]) <= sMaxY)) {
+						intersect(e, s, v);
+					}
+					i++;
+				}
+				if (list == null) {
+					list = new int[8];
+				} else if (n == list.length) {
+					list = Arrays.copyOf(list, 2 * n);
+				}
+				list[n++] = s;
+				bands[b] = list;
+				bandSize[b] = n;
+			}
+		}
+	}
+
+	/**
+	 * Test two segments and report them if they cross
+	 * @param a first segment number
+	 * @param b second segment number
+	 * @param v Visitor to receive the crossing
+	 */
+	private void intersect(int a, int b, Visitor v) {
+		double rx = x1[a] - x0[a], ry = y1[a] - y0[a];
+		double sx = x1[b] - x0[b], sy = y1[b] - y0[b];
+		double denom = rx * sy - ry * sx;
+		if (Math.abs(denom) <= PARALLEL * (Math.abs(rx * sy) + Math.abs(ry * sx))) {
+			return;		// parallel or collinear
+		}
+		double qx = x0[b] - x0[a], qy = y0[b] - y0[a];
+		double t = (qx * sy - qy * sx) / denom;
+		double u = (qx * ry - qy * rx) / denom;
+		if ((t >= 0.0) && (t < 1.0) && (u >= 0.0) && (u < 1.0)) {	// half-open, so a shared point is only found once
+			v.crossing(a, b, x0[a] + t * rx, y0[a] + t * ry);
+		}
+	}
+}
@@ -82,6 +82,22 @@ public abstract class Shape implements Drawable {
 		visible = v;
 	}
 
+	/**
+	 * Get the color
+	 * @return Color
+	 */
+	public Color getColor() {
+		return color;
+	}
+
+	/**
+	 * Find out if the object is drawn
+	 * @return true=visible; false=not drawn
+	 */
+	public boolean isVisible() {
+		return visible;
+	}
+
 	/**
 	 * Set the stroke for the shape
 	 * @param s BasicStroke
@@ -90,6 +106,14 @@ public abstract class Shape implements Drawable {
 		stroke = s;
 	}
 
+	/**
+	 * Get the stroke for the shape
+	 * @return BasicStroke (might be null)
+	 */
+	public BasicStroke getStroke() {
+		return stroke;
+	}
+
 	/**
 	 * Convert the inch location to a pixel location
 	 * @param inch location in inches
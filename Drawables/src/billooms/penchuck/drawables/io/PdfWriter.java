@@ -0,0 +1,206 @@
+package billooms.penchuck.drawables.io;
+
+import java.awt.Color;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes drawables to a one page PDF file as they are given.
+ * The page content is compressed as it is written, and its length is written at the end
+ * as a separate object, so nothing has to be kept in memory.
+ * Coordinates in the content are whole thousandths of an inch.
+ * @author Bill Ooms. Copyright 2010 Studio of Bill Ooms. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class PdfWriter extends VectorWriter {
+	private final static double POINTS_PER_INCH = 72.0;
+	private final static int N_OBJECTS = 5;		// catalog, pages, page, content, content length
+
+	private final CountingStream file;
+	private final long[] offsets = new long[N_OBJECTS + 1];	// byte offset of each object (by number)
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);	// path data compresses well even at this level
+	private final long contentStart;	// byte offset of the content stream
+	private final Writer out;			// compressed page content
+	private Color lastColor = null;
+	private int lastWidth = -1;
+
+	/**
+	 * Start a PDF file
+	 * @param os stream for the file (closed by close())
+	 * @param w width of the page in inches
+	 * @param h height of the page in inches
+	 * @param dpi pixels per inch for converting pixel widths to inches
+	 * @throws IOException if the header can't be written
+	 */
+	public PdfWriter(OutputStream os, double w, double h, int dpi) throws IOException {
+		super(w, h, dpi);
+		file = new CountingStream(new BufferedOutputStream(os, 1 << 16));
+		double pw = w * POINTS_PER_INCH;
+		double ph = h * POINTS_PER_INCH;
+		ascii("%PDF-1.4\n");
+		startObject(1);
+		ascii("<< /Type /Catalog /Pages 2 0 R >>\nendobj\n");
+		startObject(2);
+		ascii("<< /Type /Pages /Kids [3 0 R] /Count 1 >>\nendobj\n");
+		startObject(3);
+		ascii("<< /Type /Page /Parent 2 0 R /MediaBox [0 0 " + format(pw) + " " + format(ph) + "] /Contents 4 0 R >>\nendobj\n");
+		startObject(4);
+		ascii("<< /Length 5 0 R /Filter /FlateDecode >>\nstream\n");
+		contentStart = file.count;
+		out = new BufferedWriter(new OutputStreamWriter(new DeflaterOutputStream(new NonClosing(file), deflater, 1 << 16), "US-ASCII"), 1 << 16);
+		double scale = POINTS_PER_INCH / GRID;
+		out.write(scale + " 0 0 " + scale + " " + format(pw / 2) + " " + format(ph / 2) + " cm\n");	// origin in the center
+		out.write("1 J 1 j\n");		// round caps and joins
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			out.close();		// finishes the compressed content, but leaves the file open
+			long length = file.count - contentStart;
+			ascii("\nendstream\nendobj\n");
+			startObject(5);
+			ascii(length + "\nendobj\n");
+			long xref = file.count;
+			StringBuilder sb = new StringBuilder();
+			sb.append("xref\n0 ").append(N_OBJECTS + 1).append("\n0000000000 65535 f \n");
+			for (int i = 1; i <= N_OBJECTS; i++) {
+				String s = Long.toString(offsets[i]);
+				for (int k = s.length(); k < 10; k++) {
+					sb.append('0');
+				}
+				sb.append(s).append(" 00000 n \n");
+			}
+			sb.append("trailer\n<< /Size ").append(N_OBJECTS + 1).append(" /Root 1 0 R >>\nstartxref\n");
+			sb.append(xref).append("\n%%EOF\n");
+			ascii(sb.toString());
+		} finally {
+			deflater.end();
+			file.close();
+		}
+	}
+
+	@Override
+	protected void startPath(Color c, int w) throws IOException {
+		if (!c.equals(lastColor)) {
+			out.write(component(c.getRed()) + " " + component(c.getGreen()) + " " + component(c.getBlue()) + " RG\n");
+			lastColor = c;
+		}
+		if (w != lastWidth) {
+			out.write(Integer.toString(w));
+			out.write(" w\n");
+			lastWidth = w;
+		}
+	}
+
+	@Override
+	protected void moveTo(int x, int y) throws IOException {
+		out.write(Integer.toString(x));
+		out.write(' ');
+		out.write(Integer.toString(y));
+		out.write(" m\n");
+	}
+
+	@Override
+	protected void lineTo(int x, int y) throws IOException {
+		out.write(Integer.toString(x));
+		out.write(' ');
+		out.write(Integer.toString(y));
+		out.write(" l\n");
+	}
+
+	@Override
+	protected void endPath(boolean closed) throws IOException {
+		out.write(closed ? "s\n" : "S\n");
+	}
+
+	/**
+	 * Format a color component for PDF
+	 * @param v component from 0 to 255
+	 * @return value from 0 to 1
+	 */
+	private static String component(int v) {
+		return format(v / 255.0);
+	}
+
+	/**
+	 * Record the position of an object and write its header
+	 * @param n object number
+	 * @throws IOException if it can't be written
+	 */
+	private void startObject(int n) throws IOException {
+		offsets[n] = file.count;
+		ascii(n + " 0 obj\n");
+	}
+
+	/**
+	 * Write ASCII text directly to the file
+	 * @param s text
+	 * @throws IOException if it can't be written
+	 */
+	private void ascii(String s) throws IOException {
+		file.write(s.getBytes("US-ASCII"));
+	}
+
+	/**
+	 * Counts the bytes written, for the byte offsets that PDF needs
+	 */
+	private static class CountingStream extends FilterOutputStream {
+		private long count = 0;
+
+		CountingStream(OutputStream os) {
+			super(os);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+	/**
+	 * Keeps the compressed content stream from closing the file
+	 */
+	private static class NonClosing extends FilterOutputStream {
+
+		NonClosing(OutputStream os) {
+			super(os);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package billooms.penchuck.drawables.io;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes an RGB PNG image a few rows at a time, so the whole image never has to be in memory.
+ * Rows must be written in order from the top, and close() must be called after the last row.
+ * @author Bill Ooms. Copyright 2010 Studio of Bill Ooms. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class PngWriter {
+	private final static byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+	private final static int CHUNK_SIZE = 1 << 16;		// size of each IDAT chunk
+
+	private final DataOutputStream out;
+	private final int width, height;
+	private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+	private final CRC32 crc = new CRC32();
+	private final byte[] row;				// filter byte + RGB for one row
+	private final byte[] chunk = new byte[CHUNK_SIZE];
+	private int chunkLen = 0;
+	private int rowsWritten = 0;
+
+	/**
+	 * Start a PNG image
+	 * @param os stream for the image (closed by close())
+	 * @param w width in pixels
+	 * @param h height in pixels
+	 * @throws IOException if the header can't be written
+	 */
+	public PngWriter(OutputStream os, int w, int h) throws IOException {
+		if ((w <= 0) || (h <= 0)) {
+			throw new IllegalArgumentException("Bad image size " + w + "x" + h);
+		}
+		this.out = new DataOutputStream(os);
+		this.width = w;
+		this.height = h;
+		this.row = new byte[1 + 3 * w];
+		out.write(SIGNATURE);
+		byte[] ihdr = new byte[13];
+		putInt(ihdr, 0, w);
+		putInt(ihdr, 4, h);
+		ihdr[8] = 8;		// bit depth
+		ihdr[9] = 2;		// color type RGB
+		ihdr[10] = 0;		// deflate
+		ihdr[11] = 0;		// adaptive filtering
+		ihdr[12] = 0;		// no interlace
+		writeChunk("IHDR", ihdr, ihdr.length);
+	}
+
+	/**
+	 * Write rows of pixels
+	 * @param rgb pixels as from BufferedImage.getRGB (alpha is ignored)
+	 * @param offset index of the first pixel of the first row
+	 * @param scan distance between rows in the array
+	 * @param nRows number of rows
+	 * @throws IOException if the rows can't be written
+	 */
+	public void writeRows(int[] rgb, int offset, int scan, int nRows) throws IOException {
+		if (rowsWritten + nRows > height) {
+			throw new IllegalStateException("Too many rows for the image");
+		}
+		for (int r = 0; r < nRows; r++) {
+			row[0] = 0;			// no filter
+			int k = 1;
+			int p = offset + r * scan;
+			for (int x = 0; x < width; x++) {
+				int c = rgb[p++];
+				row[k++] = (byte) (c >> 16);
+				row[k++] = (byte) (c >> 8);
+				row[k++] = (byte) c;
+			}
+			deflater.setInput(row, 0, row.length);
+			while (!deflater.needsInput()) {
+				deflate();
+			}
+		}
+		rowsWritten += nRows;
+	}
+
+	/**
+	 * Finish the image and close the stream
+	 * @throws IOException if the image can't be finished, or not all the rows were written
+	 */
+	public void close() throws IOException {
+		try {
+			if (rowsWritten != height) {
+				throw new IOException("Only " + rowsWritten + " of " + height + " rows were written");
+			}
+			deflater.finish();
+			while (!deflater.finished()) {
+				deflate();
+			}
+			if (chunkLen > 0) {
+				writeChunk("IDAT", chunk, chunkLen);
+			}
+			writeChunk("IEND", chunk, 0);
+		} finally {
+			deflater.end();
+			out.close();
+		}
+	}
+
+	/**
+	 * Give up on the image (after an error) and close the stream.
+	 * The image is left incomplete.
+	 * @throws IOException if the stream can't be closed
+	 */
+	public void abort() throws IOException {
+		deflater.end();
+		out.close();
+	}
+
+	/**
+	 * Move compressed data into the IDAT chunk, writing the chunk when it is full
+	 * @throws IOException if the chunk can't be written
+	 */
+	private void deflate() throws IOException {
+		chunkLen += deflater.deflate(chunk, chunkLen, CHUNK_SIZE - chunkLen);
+		if (chunkLen == CHUNK_SIZE) {
+			writeChunk("IDAT", chunk, chunkLen);
+			chunkLen = 0;
+		}
+	}
+
+	/**
+	 * Write a PNG chunk
+	 * @param type 4 character chunk type
+	 * @param data chunk data
+	 * @param len length of the data
+	 * @throws IOException if the chunk can't be written
+	 */
+	private void writeChunk(String type, byte[] data, int len) throws IOException {
+		byte[] t = type.getBytes("US-ASCII");
+		out.writeInt(len);
+		out.write(t);
+		out.write(data, 0, len);
+		crc.reset();
+		crc.update(t);
+		crc.update(data, 0, len);
+		out.writeInt((int) crc.getValue());
+	}
+
+	/**
+	 * Put a big-endian int in a byte array
+	 * @param b byte array
+	 * @param off offset
+	 * @param v value
+	 */
+	private static void putInt(byte[] b, int off, int v) {
+		b[off] = (byte) (v >>> 24);
+		b[off + 1] = (byte) (v >>> 16);
+		b[off + 2] = (byte) (v >>> 8);
+		b[off + 3] = (byte) v;
+	}
+}
@@ -0,0 +1,137 @@
+package billooms.penchuck.drawables.io;
+
+import java.awt.Color;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes drawables to an SVG file as they are given.
+ * Each path is written with relative moves in thousandths of an inch, which keeps the file small.
+ * @author Bill Ooms. Copyright 2010 Studio of Bill Ooms. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class SvgWriter extends VectorWriter {
+	private final static int PTS_PER_LINE = 16;		// points on each line of path data
+
+	private final Writer out;
+	private int lastX, lastY;		// current point (SVG coordinates)
+	private int onLine;				// points on the current line of path data
+	private boolean started;		// true after the first point of a path
+	private boolean lineCmd;		// true if the last command written was a relative line
+
+	/**
+	 * Start an SVG file
+	 * @param os stream for the file (closed by close())
+	 * @param w width of the page in inches
+	 * @param h height of the page in inches
+	 * @param dpi pixels per inch for converting pixel widths to inches
+	 * @throws IOException if the header can't be written
+	 */
+	public SvgWriter(OutputStream os, double w, double h, int dpi) throws IOException {
+		super(w, h, dpi);
+		this.out = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"), 1 << 16);
+		int gw = (int) Math.ceil(w * GRID);
+		int gh = (int) Math.ceil(h * GRID);
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" version=\"1.1\" width=\"" + format(w) + "in\" height=\"" + format(h) + "in\""
+				+ " viewBox=\"" + (-gw / 2) + " " + (-gh / 2) + " " + gw + " " + gh + "\">\n");
+		out.write("<g fill=\"none\" stroke-linecap=\"round\" stroke-linejoin=\"round\">\n");
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			out.write("</g>\n</svg>\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	@Override
+	protected void startPath(Color c, int w) throws IOException {
+		out.write("<path stroke=\"#");
+		String hex = Integer.toHexString((c.getRGB() & 0xffffff) | 0x1000000);
+		out.write(hex, 1, 6);
+		out.write("\" stroke-width=\"");
+		out.write(Integer.toString(w));
+		out.write("\" d=\"");
+		onLine = 0;
+		lineCmd = false;
+		started = false;
+	}
+
+	@Override
+	protected void moveTo(int x, int y) throws IOException {
+		y = -y;		// SVG has y down
+		if (!started) {
+			out.write('M');		// absolute for the first point
+			out.write(Integer.toString(x));
+			number(y);
+			started = true;
+		} else {
+			out.write('m');
+			out.write(Integer.toString(x - lastX));
+			number(y - lastY);
+		}
+		lastX = x;
+		lastY = y;
+		lineCmd = false;
+		onLine++;
+	}
+
+	@Override
+	protected void lineTo(int x, int y) throws IOException {
+		y = -y;
+		if (onLine >= PTS_PER_LINE) {
+			out.write('\n');
+			onLine = 0;
+			lineCmd = false;
+		}
+		if (lineCmd) {
+			number(x - lastX);		// the l is implied
+		} else {
+			out.write('l');
+			out.write(Integer.toString(x - lastX));
+			lineCmd = true;
+		}
+		number(y - lastY);
+		lastX = x;
+		lastY = y;
+		onLine++;
+	}
+
+	@Override
+	protected void endPath(boolean closed) throws IOException {
+		if (closed) {
+			out.write('z');
+		}
+		out.write("\"/>\n");
+	}
+
+	/**
+	 * Write a number following another (a minus sign is enough to separate them)
+	 * @param v value
+	 * @throws IOException if it can't be written
+	 */
+	private void number(int v) throws IOException {
+		if (v >= 0) {
+			out.write(' ');
+		}
+		out.write(Integer.toString(v));
+	}
+}
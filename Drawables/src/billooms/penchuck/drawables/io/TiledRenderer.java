@@ -0,0 +1,231 @@
+package billooms.penchuck.drawables.io;
+
+import billooms.penchuck.drawables.BufferedCurve;
+import billooms.penchuck.drawables.Curve;
+import billooms.penchuck.drawables.Drawable;
+import billooms.penchuck.drawables.Drawable.BoundingBox;
+import billooms.penchuck.drawables.Polyline;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Renders drawables to a very large image, one square tile at a time.
+ * The tiles of a band (a row of tiles) are painted in parallel, and each tile only paints the drawables
+ * whose bounding box reaches it. Each tile is painted a little larger than it is (by half the widest line)
+ * so that curves broken at the edge of the clip look the same as they do in one big image. The finished bands are written to a PngWriter from the top down
+ * while the next band is being painted, so only two bands and one tile per thread are in memory at once,
+ * no matter how big the image is.
+ * The drawables must not be changed while they are being rendered.
+ * @author Bill Ooms. Copyright 2010 Studio of Bill Ooms. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class TiledRenderer {
+	public final static int DEFAULT_TILE_SIZE = 512;	// pixels on a side
+	private final static int MARGIN = 2;				// extra pixels around a bounding box for rounding
+	private final static int MAX_OVERLAP = 64;			// limit on the extra pixels painted around a tile
+
+	private final int width, height;
+	private final int tileSize;
+	private Color background = Color.WHITE;
+
+	/**
+	 * A renderer for an image of the given size
+	 * @param w width in pixels
+	 * @param h height in pixels
+	 * @param tile size of the tiles in pixels
+	 */
+	public TiledRenderer(int w, int h, int tile) {
+		if ((w <= 0) || (h <= 0) || (tile <= 0)) {
+			throw new IllegalArgumentException("Bad image or tile size");
+		}
+		this.width = w;
+		this.height = h;
+		this.tileSize = tile;
+	}
+
+	/**
+	 * A renderer for an image of the given size with the default tile size
+	 * @param w width in pixels
+	 * @param h height in pixels
+	 */
+	public TiledRenderer(int w, int h) {
+		this(w, h, DEFAULT_TILE_SIZE);
+	}
+
+	/**
+	 * Set the background color
+	 * @param c color
+	 */
+	public void setBackground(Color c) {
+		this.background = c;
+	}
+
+	/**
+	 * Render the drawables and write the image
+	 * @param list drawables (painted in order)
+	 * @param dpi pixels per inch
+	 * @param zPix zero location in pixels
+	 * @param png writer for an image of the same size as this renderer (it is not closed)
+	 * @param nThreads number of threads for painting tiles
+	 * @throws IOException if the image can't be written or a tile fails
+	 * @throws InterruptedException if interrupted while waiting for the tiles
+	 */
+	public void render(List<? extends Drawable> list, int dpi, Point zPix, PngWriter png, int nThreads)
+			throws IOException, InterruptedException {
+		final Drawable[] drawables = list.toArray(new Drawable[list.size()]);
+		final Rectangle[] bounds = new Rectangle[drawables.length];
+		int overlap = MARGIN;
+		for (int i = 0; i < drawables.length; i++) {
+			bounds[i] = pixelBounds(drawables[i], dpi, zPix);
+			overlap = Math.max(overlap, halfWidth(drawables[i]) + MARGIN);
+		}
+		overlap = Math.min(overlap, MAX_OVERLAP);
+		int nBands = (height + tileSize - 1) / tileSize;
+		int[][] buffers = {new int[width * Math.min(tileSize, height)], null};	// band being written, band being painted
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(nThreads, 1));
+		try {
+			List<Future<Object>> painting = submitBand(pool, 0, buffers[0], drawables, bounds, overlap, dpi, zPix);
+			for (int b = 0; b < nBands; b++) {
+				List<Future<Object>> current = painting;
+				int[] band = buffers[b % 2];
+				if (b + 1 < nBands) {		// start on the next band while this one is finished and written
+					if (buffers[(b + 1) % 2] == null) {
+						buffers[(b + 1) % 2] = new int[band.length];
+					}
+					painting = submitBand(pool, b + 1, buffers[(b + 1) % 2], drawables, bounds, overlap, dpi, zPix);
+				}
+				for (Future<Object> f : current) {
+					try {
+						f.get();
+					} catch (ExecutionException e) {
+						IOException ex = new IOException("Tile failed: " + e.getCause().getMessage());
+						ex.initCause(e.getCause());		// keep the stack trace of the painting thread
+						throw ex;
+					}
+				}
+				png.writeRows(band, 0, width, Math.min(tileSize, height - b * tileSize));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Submit the tiles of a band for painting
+	 * @param pool thread pool
+	 * @param b band number (0 at the top)
+	 * @param band pixels for the band
+	 * @param drawables drawables
+	 * @param bounds pixel bounds of the drawables (null to always paint)
+	 * @param overlap extra pixels to paint around each tile
+	 * @param dpi pixels per inch
+	 * @param zPix zero location in pixels
+	 * @return one Future for each tile
+	 */
+	private List<Future<Object>> submitBand(ExecutorService pool, int b, final int[] band,
+			final Drawable[] drawables, final Rectangle[] bounds, final int overlap, final int dpi, final Point zPix) {
+		ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>();
+		final int y0 = b * tileSize;
+		final int th = Math.min(tileSize, height - y0);
+		for (int x = 0; x < width; x += tileSize) {
+			final int x0 = x;
+			final int tw = Math.min(tileSize, width - x0);
+			futures.add(pool.submit(new Callable<Object>() {
+				@Override
+				public Object call() {
+					paintTile(new Rectangle(x0, y0, tw, th), band, drawables, bounds, overlap, dpi, zPix);
+					return null;
+				}
+			}));
+		}
+		return futures;
+	}
+
+	/**
+	 * Paint one tile and copy it into its band
+	 * @param tile tile location in pixels
+	 * @param band pixels for the band containing the tile
+	 * @param drawables drawables
+	 * @param bounds pixel bounds of the drawables (null to always paint)
+	 * @param overlap extra pixels to paint around the tile
+	 * @param dpi pixels per inch
+	 * @param zPix zero location in pixels
+	 */
+	private void paintTile(Rectangle tile, int[] band, Drawable[] drawables, Rectangle[] bounds, int overlap, int dpi, Point zPix) {
+		Rectangle area = new Rectangle(tile);		// the area painted
+		area.grow(overlap, overlap);
+		BufferedImage img = new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2d = img.createGraphics();
+		g2d.setColor(background);
+		g2d.fillRect(0, 0, area.width, area.height);
+		g2d.translate(-area.x, -area.y);
+		g2d.setClip(area);
+		for (int i = 0; i < drawables.length; i++) {
+			if ((bounds[i] == null) || bounds[i].intersects(area)) {
+				drawables[i].paint(g2d, dpi, zPix);
+			}
+		}
+		g2d.dispose();
+		img.getRGB(overlap, overlap, tile.width, tile.height, band, tile.x, width);
+	}
+
+	/**
+	 * Find the pixels that a drawable might paint
+	 * @param d drawable
+	 * @param dpi pixels per inch
+	 * @param zPix zero location in pixels
+	 * @return rectangle in pixels, or null if it isn't known
+	 */
+	private static Rectangle pixelBounds(Drawable d, int dpi, Point zPix) {
+		int half = halfWidth(d);
+		if (half < 0) {
+			return null;
+		}
+		if (((Polyline) d).getSize() == 0) {
+			return new Rectangle();		// nothing to paint
+		}
+		BoundingBox bb = ((Polyline) d).getBoundingBox();
+		int x0 = zPix.x + (int) Math.floor(bb.min.x * dpi) - half - MARGIN;
+		int x1 = zPix.x + (int) Math.ceil(bb.max.x * dpi) + half + MARGIN;
+		int y0 = zPix.y - (int) Math.ceil(bb.max.y * dpi) - half - MARGIN;
+		int y1 = zPix.y - (int) Math.floor(bb.min.y * dpi) + half + MARGIN;
+		return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+	}
+
+	/**
+	 * Find half the width of the widest line of a drawable
+	 * @param d drawable
+	 * @return half width in pixels, or -1 if it isn't known
+	 */
+	private static int halfWidth(Drawable d) {
+		if (d instanceof BufferedCurve) {
+			return (((BufferedCurve) d).getMaxWidth() + 1) / 2;
+		} else if ((d instanceof Curve) && (((Curve) d).getStroke() != null)) {
+			return (int) Math.ceil(((Curve) d).getStroke().getLineWidth() / 2);
+		}
+		return -1;		// e.g. CurveWidth has no limit on its widths
+	}
+}
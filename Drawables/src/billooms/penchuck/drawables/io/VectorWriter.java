@@ -0,0 +1,377 @@
+package billooms.penchuck.drawables.io;
+
+import billooms.penchuck.drawables.BufferedCurve;
+import billooms.penchuck.drawables.Curve;
+import billooms.penchuck.drawables.CurveWidth;
+import billooms.penchuck.drawables.Drawable;
+import billooms.penchuck.drawables.Plus;
+import billooms.penchuck.drawables.PointSet;
+import billooms.penchuck.drawables.Pt;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes drawables to a vector file (see SvgWriter and PdfWriter) one at a time, so a design of
+ * any size can be written in constant memory. Positions are rounded to a grid of GRID units per inch
+ * and widths in pixels are converted to inches with the dpi given to the constructor.
+ * The origin is in the center of the page and y is up, the same as the drawables.
+ * <p>
+ * With a tolerance, points that are within the tolerance of a straight line are left out.
+ * This is done as the points are written (a Reumann-Witkam corridor), so it needs no extra memory.
+ * The simplified path stays within about twice the tolerance of the original points.
+ * @author Bill Ooms. Copyright 2010 Studio of Bill Ooms. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public abstract class VectorWriter {
+	public final static int GRID = 1000;		// units per inch in the file
+
+	protected final double pageWidth, pageHeight;	// inches
+	private final double pixelSize;		// inches per pixel for widths
+	private double tolerance = 0.0;		// grid units
+
+	// state of the path being written
+	private int nPts;					// points given to the path
+	private int ax, ay;					// anchor: the last point that was written
+	private int dx, dy;					// direction of the corridor from the anchor
+	private int lx, ly;					// last point given (not written yet)
+
+	/**
+	 * A writer for a page of the given size
+	 * @param w width in inches
+	 * @param h height in inches
+	 * @param dpi pixels per inch for converting pixel widths to inches
+	 */
+	protected VectorWriter(double w, double h, int dpi) {
+		this.pageWidth = w;
+		this.pageHeight = h;
+		this.pixelSize = 1.0 / Math.max(dpi, 1);
+	}
+
+	/**
+	 * Set the tolerance for leaving out points
+	 * @param t tolerance in inches (0 to keep every point)
+	 */
+	public void setTolerance(double t) {
+		this.tolerance = Math.max(t, 0.0) * GRID;
+	}
+
+	/**
+	 * Write a list of drawables
+	 * @param list drawables (in the order they are drawn)
+	 * @throws IOException if they can't be written
+	 */
+	public void write(List<? extends Drawable> list) throws IOException {
+		for (Drawable d : list) {
+			write(d);
+		}
+	}
+
+	/**
+	 * Write a drawable. BufferedCurve, Curve, CurveWidth, Pt and PointSet are understood;
+	 * anything else is skipped.
+	 * @param d drawable
+	 * @throws IOException if it can't be written
+	 */
+	public void write(Drawable d) throws IOException {
+		if (d instanceof BufferedCurve) {
+			writeCurve((BufferedCurve) d);
+		} else if (d instanceof Curve) {
+			writeCurve((Curve) d);
+		} else if (d instanceof CurveWidth) {
+			writeCurve((CurveWidth) d);
+		} else if (d instanceof Pt) {
+			writePt((Pt) d);
+		} else if (d instanceof PointSet) {
+			writePoints((PointSet) d);
+		}
+	}
+
+	/**
+	 * Finish the file and close the stream
+	 * @throws IOException if the file can't be finished
+	 */
+	public abstract void close() throws IOException;
+
+	/**
+	 * Start a path
+	 * @param c color
+	 * @param w width in grid units
+	 * @throws IOException if it can't be written
+	 */
+	protected abstract void startPath(Color c, int w) throws IOException;
+
+	/**
+	 * Move to a point without drawing (start a subpath)
+	 * @param x x in grid units
+	 * @param y y in grid units
+	 * @throws IOException if it can't be written
+	 */
+	protected abstract void moveTo(int x, int y) throws IOException;
+
+	/**
+	 * Draw a line to a point
+	 * @param x x in grid units
+	 * @param y y in grid units
+	 * @throws IOException if it can't be written
+	 */
+	protected abstract void lineTo(int x, int y) throws IOException;
+
+	/**
+	 * Finish a path
+	 * @param closed true if the last subpath connects back to its start
+	 * @throws IOException if it can't be written
+	 */
+	protected abstract void endPath(boolean closed) throws IOException;
+
+	/**
+	 * Write a curve with a width at each point. A new path is started whenever the width changes.
+	 * The width of a segment is the width of its end point, as BufferedCurve paints it
+	 * (so the segment that closes a closed curve has the width of the first point).
+	 * @param c curve
+	 * @throws IOException if it can't be written
+	 */
+	private void writeCurve(BufferedCurve c) throws IOException {
+		int n = c.getSize();
+		if (!c.isVisible() || (n < 2)) {
+			return;
+		}
+		boolean oneWidth = true;
+		int lastW = c.getWidth(1);		// the width of the first segment
+		beginPath(c.getColor(), lastW);
+		point(c.getX(0), c.getY(0));
+		for (int i = 1; i < n; i++) {
+			int w = c.getWidth(i);
+			if (w != lastW) {
+				finishPath(false);
+				beginPath(c.getColor(), w);
+				point(c.getX(i - 1), c.getY(i - 1));
+				lastW = w;
+				oneWidth = false;
+			}
+			point(c.getX(i), c.getY(i));
+		}
+		if (!c.isClosed()) {
+			finishPath(false);
+		} else if (oneWidth && (c.getWidth(0) == lastW)) {
+			finishPath(true);
+		} else {
+			if (c.getWidth(0) != lastW) {
+				finishPath(false);
+				beginPath(c.getColor(), c.getWidth(0));
+				point(c.getX(n - 1), c.getY(n - 1));
+			}
+			point(c.getX(0), c.getY(0));
+			finishPath(false);
+		}
+	}
+
+	/**
+	 * Write a curve with one stroke
+	 * @param c curve
+	 * @throws IOException if it can't be written
+	 */
+	private void writeCurve(Curve c) throws IOException {
+		int n = c.getSize();
+		if (!c.isVisible() || (n < 2)) {
+			return;
+		}
+		BasicStroke s = c.getStroke();
+		beginPath(c.getColor(), (s == null) ? 1.0 : s.getLineWidth());
+		for (int i = 0; i < n; i++) {
+			point(c.getX(i), c.getY(i));
+		}
+		finishPath(false);
+	}
+
+	/**
+	 * Write a curve with a width at each point. A new path is started whenever the width changes.
+	 * @param c curve
+	 * @throws IOException if it can't be written
+	 */
+	private void writeCurve(CurveWidth c) throws IOException {
+		int n = c.getSize();
+		if (!c.isVisible() || (n < 2)) {
+			return;
+		}
+		int lastW = c.getWidth(1);		// the width of a segment is the width of its end point
+		beginPath(c.getColor(), lastW);
+		point(c.getX(0), c.getY(0));
+		for (int i = 1; i < n; i++) {
+			int w = c.getWidth(i);
+			if (w != lastW) {
+				finishPath(false);
+				beginPath(c.getColor(), w);
+				point(c.getX(i - 1), c.getY(i - 1));
+				lastW = w;
+			}
+			point(c.getX(i), c.getY(i));
+		}
+		finishPath(false);
+	}
+
+	/**
+	 * Write a point: a plus sign for Plus, otherwise a dot
+	 * @param p point
+	 * @throws IOException if it can't be written
+	 */
+	private void writePt(Pt p) throws IOException {
+		if (!p.isVisible()) {
+			return;
+		}
+		beginPath(p.getColor(), 1.0);
+		marker(p.getPos().x, p.getPos().y, p instanceof Plus, p.getSize());
+		endPath(false);
+	}
+
+	/**
+	 * Write a set of points as one path
+	 * @param ps points
+	 * @throws IOException if they can't be written
+	 */
+	private void writePoints(PointSet ps) throws IOException {
+		if (!ps.isVisible() || (ps.getSize() == 0)) {
+			return;
+		}
+		boolean plus = ps.getMarker() == PointSet.Marker.PLUS;
+		beginPath(ps.getColor(), 1.0);
+		for (int i = 0; i < ps.getSize(); i++) {
+			marker(ps.getX(i), ps.getY(i), plus, ps.getMarkerSize());
+		}
+		endPath(false);
+	}
+
+	/**
+	 * Write a marker as subpaths of the current path
+	 * @param x x in inches
+	 * @param y y in inches
+	 * @param plus true for a plus sign, false for a dot
+	 * @param size size of a plus sign in pixels
+	 * @throws IOException if it can't be written
+	 */
+	private void marker(double x, double y, boolean plus, int size) throws IOException {
+		int px = toGrid(x);
+		int py = toGrid(y);
+		if (plus) {
+			int half = (int) Math.round(size / 2 * pixelSize * GRID);
+			moveTo(px, py + half);
+			lineTo(px, py - half);
+			moveTo(px + half, py);
+			lineTo(px - half, py);
+		} else {
+			moveTo(px, py);
+			lineTo(px, py);		// round caps make a dot
+		}
+	}
+
+	/**
+	 * Start a path for points
+	 * @param c color
+	 * @param w width in pixels
+	 * @throws IOException if it can't be written
+	 */
+	private void beginPath(Color c, double w) throws IOException {
+		startPath(c, Math.max(1, (int) Math.round(w * pixelSize * GRID)));
+		nPts = 0;
+	}
+
+	/**
+	 * Add a point to the path, leaving it out if it is within the tolerance of a straight line
+	 * @param x x in inches
+	 * @param y y in inches
+	 * @throws IOException if it can't be written
+	 */
+	private void point(double x, double y) throws IOException {
+		int px = toGrid(x);
+		int py = toGrid(y);
+		if (nPts == 0) {
+			moveTo(px, py);
+			ax = lx = px;
+			ay = ly = py;
+			nPts = 1;
+			return;
+		}
+		if ((px == lx) && (py == ly)) {
+			return;		// same as the last point on the grid
+		}
+		if (nPts == 1) {		// the first point after the anchor sets the direction
+			dx = px - ax;
+			dy = py - ay;
+		} else if (!inCorridor(px, py)) {
+			lineTo(lx, ly);		// the last point is the new anchor
+			ax = lx;
+			ay = ly;
+			dx = px - ax;
+			dy = py - ay;
+		}
+		lx = px;
+		ly = py;
+		nPts++;
+	}
+
+	/**
+	 * Check if a point is close enough to the line from the anchor to be left out.
+	 * It must also be ahead of the last point, so that a curve that turns back is not cut short.
+	 * @param px x in grid units
+	 * @param py y in grid units
+	 * @return true if the point can be left out
+	 */
+	private boolean inCorridor(int px, int py) {
+		if (tolerance <= 0.0) {
+			return false;
+		}
+		double ex = px - ax;
+		double ey = py - ay;
+		double cross = dx * ey - dy * ex;
+		double len2 = (double) dx * dx + (double) dy * dy;
+		if (cross * cross > tolerance * tolerance * len2) {
+			return false;		// too far from the line
+		}
+		return (double) dx * (px - lx) + (double) dy * (py - ly) > 0.0;
+	}
+
+	/**
+	 * Write the last point and finish the path
+	 * @param closed true if the path connects back to its start
+	 * @throws IOException if it can't be written
+	 */
+	private void finishPath(boolean closed) throws IOException {
+		if (nPts > 1) {
+			lineTo(lx, ly);
+		} else if (nPts == 1) {
+			lineTo(ax, ay);		// a dot
+		}
+		endPath(closed);
+	}
+
+	/**
+	 * Format a number for the file, with at most 3 decimal places
+	 * @param v value
+	 * @return text
+	 */
+	protected static String format(double v) {
+		return Double.toString(Math.round(v * 1000.0) / 1000.0);
+	}
+
+	/**
+	 * Convert inches to grid units
+	 * @param v value in inches
+	 * @return grid units
+	 */
+	private static int toGrid(double v) {
+		return (int) Math.round(v * GRID);
+	}
+}
@@ -0,0 +1,140 @@
+package billooms.penchuck.drawables.machine;
+
+/**
+ * Plans the speed of the pen along a curve for a machine with the given limits.
+ * Going around a curve of radius R the sideways acceleration is v*v/R, so the speed at each point
+ * is limited to sqrt(acceleration * R), where R is the radius of the circle through the point and its neighbors.
+ * The speeds are then limited so that the pen starts and stops at rest and never changes speed
+ * faster than the acceleration (one pass forward and one backward), which gives the time to draw the curve.
+ * A planner keeps its working arrays, so one planner should be used for all the curves of a job.
+ * @author Bill Ooms. Copyright 2010 Studio of Bill Ooms. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class FeedPlanner {
+	private final MachineLimits limits;
+	private final double acc;		// inches per second per second
+	private final double vMax;		// inches per second
+	private double[] cap = new double[0];	// curvature limit at each point (inches per second)
+	private double[] v = new double[0];		// planned speed at each point (inches per second)
+	private double[] len = new double[0];	// length of the segment ending at each point (inches)
+
+	/**
+	 * A planner for a machine
+	 * @param lim machine limits
+	 */
+	public FeedPlanner(MachineLimits lim) {
+		this.limits = lim;
+		this.acc = lim.getAcceleration();
+		this.vMax = lim.getMaxFeed() / 60.0;
+	}
+
+	/**
+	 * Plan the speeds for drawing a curve
+	 * @param x x of each point in inches
+	 * @param y y of each point in inches
+	 * @param n number of points
+	 * @return time to draw the curve in seconds (not including lifting and dropping the pen)
+	 */
+	public double plan(double[] x, double[] y, int n) {
+		if (cap.length < n) {
+			cap = new double[n];
+			v = new double[n];
+			len = new double[n];
+		}
+		if (n < 2) {
+			return 0.0;
+		}
+		cap[0] = cap[n - 1] = vMax;
+		for (int i = 1; i < n - 1; i++) {
+			double ax = x[i] - x[i - 1], ay = y[i] - y[i - 1];
+			double bx = x[i + 1] - x[i], by = y[i + 1] - y[i];
+			len[i] = Math.sqrt(ax * ax + ay * ay);
+			double cross = Math.abs(ax * by - ay * bx);
+			double c = vMax;
+			if (cross > 0.0) {		// radius = |a| |b| |a+b| / (2 |a x b|)
+				double r = Math.sqrt((ax * ax + ay * ay) * (bx * bx + by * by)
+						* ((ax + bx) * (ax + bx) + (ay + by) * (ay + by))) / (2.0 * cross);
+				c = Math.min(c, Math.sqrt(acc * r));
+			}
+			cap[i] = c;
+		}
+		double dx = x[n - 1] - x[n - 2], dy = y[n - 1] - y[n - 2];
+		len[n - 1] = Math.sqrt(dx * dx + dy * dy);
+		v[0] = 0.0;			// forward: speed up no faster than the acceleration
+		for (int i = 1; i < n; i++) {
+			v[i] = Math.min(cap[i], Math.sqrt(v[i - 1] * v[i - 1] + 2.0 * acc * len[i]));
+		}
+		v[n - 1] = 0.0;		// backward: slow down no faster than the acceleration
+		double t = 0.0;
+		for (int i = n - 1; i > 0; i--) {
+			double d = len[i];
+			v[i - 1] = Math.min(v[i - 1], Math.sqrt(v[i] * v[i] + 2.0 * acc * d));
+			t += segmentTime(d, v[i - 1], v[i], Math.min(cap[i - 1], cap[i]), acc);
+		}
+		return t;
+	}
+
+	/**
+	 * Get the feed rate to command for a segment of the last curve planned.
+	 * This is the curvature limit, since the machine does its own acceleration.
+	 * @param i index of the point at the end of the segment (1 or more)
+	 * @return inches per minute
+	 */
+	public double getFeed(int i) {
+		return 60.0 * Math.min(cap[i - 1], cap[i]);
+	}
+
+	/**
+	 * Get the planned speed at a point of the last curve planned
+	 * @param i index of the point
+	 * @return inches per minute
+	 */
+	public double getSpeed(int i) {
+		return 60.0 * v[i];
+	}
+
+	/**
+	 * Time for a straight move with the pen up, from rest to rest
+	 * @param d distance in inches
+	 * @return seconds
+	 */
+	public double travelTime(double d) {
+		return segmentTime(d, 0.0, 0.0, limits.getTravelFeed() / 60.0, acc);
+	}
+
+	/**
+	 * Time for a straight move which starts and ends at given speeds, speeding up as much as possible in between
+	 * @param d distance
+	 * @param v0 speed at the start
+	 * @param v1 speed at the end
+	 * @param max maximum speed (at least v0 and v1)
+	 * @param a acceleration
+	 * @return time
+	 */
+	private static double segmentTime(double d, double v0, double v1, double max, double a) {
+		if (d <= 0.0) {
+			return 0.0;
+		}
+		max = Math.max(max, Math.max(v0, v1));
+		double peak2 = (v0 * v0 + v1 * v1) / 2.0 + a * d;	// square of the top speed with no limit
+		if (peak2 <= max * max) {
+			double peak = Math.sqrt(peak2);
+			return (2.0 * peak - v0 - v1) / a;
+		}
+		double d0 = (max * max - v0 * v0) / (2.0 * a);		// distance speeding up
+		double d1 = (max * max - v1 * v1) / (2.0 * a);		// distance slowing down
+		return (2.0 * max - v0 - v1) / a + (d - d0 - d1) / max;
+	}
+}
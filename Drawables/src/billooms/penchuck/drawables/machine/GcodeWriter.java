@@ -0,0 +1,153 @@
+package billooms.penchuck.drawables.machine;
+
+import java.awt.Color;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes G-code in inches for a CNC machine, with the pen (or cutter) lifted and dropped on the Z axis.
+ * A change of color stops the program (M0) so the pen can be changed.
+ * Unchanged axes and feed rates are left out, since they carry over from the last move.
+ * @author Bill Ooms. Copyright 2010 Studio of Bill Ooms. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class GcodeWriter extends MachineWriter {
+	public final static double DEFAULT_Z_UP = 0.1;		// inches
+	public final static double DEFAULT_Z_DOWN = 0.0;
+	private final static int PLACES = 4;		// decimal places for positions
+
+	private final Writer out;
+	private final String zUp, zDown;
+	private final String plunge;		// feed rate for dropping the pen
+	private boolean penDown = true;		// so that the pen is lifted at the start
+	private boolean pens = false;		// true after the first pen
+	private String lastX = null, lastY = null;
+	private long lastFeed = -1;
+
+	/**
+	 * Start a G-code program
+	 * @param os stream for the program (closed by close())
+	 * @param up Z for the pen up in inches
+	 * @param down Z for the pen down in inches
+	 * @param lim machine limits
+	 * @throws IOException if the start can't be written
+	 */
+	public GcodeWriter(OutputStream os, double up, double down, MachineLimits lim) throws IOException {
+		this.out = new BufferedWriter(new OutputStreamWriter(os, "US-ASCII"), 1 << 16);
+		this.zUp = format(up, PLACES);
+		this.zDown = format(down, PLACES);
+		this.plunge = Long.toString(Math.max(1, Math.round(lim.getMaxFeed())));
+		out.write("(PenChuck toolpath)\n");
+		out.write("G20 G90 G17\n");		// inches, absolute, XY plane
+		liftPen();
+	}
+
+	/**
+	 * Start a G-code program with the default pen heights
+	 * @param os stream for the program (closed by close())
+	 * @param lim machine limits
+	 * @throws IOException if the start can't be written
+	 */
+	public GcodeWriter(OutputStream os, MachineLimits lim) throws IOException {
+		this(os, DEFAULT_Z_UP, DEFAULT_Z_DOWN, lim);
+	}
+
+	@Override
+	public void setPen(Color c) throws IOException {
+		liftPen();
+		String name = (c == null) ? "" : " #" + Integer.toHexString((c.getRGB() & 0xffffff) | 0x1000000).substring(1);
+		if (pens) {
+			out.write("M0 (change to pen" + name + ")\n");
+		} else {
+			out.write("(pen" + name + ")\n");
+			pens = true;
+		}
+	}
+
+	@Override
+	public void travel(double x, double y) throws IOException {
+		liftPen();
+		move("G0", x, y, -1);
+	}
+
+	@Override
+	public void draw(double x, double y, double feed) throws IOException {
+		if (!penDown) {
+			out.write("G1 Z" + zDown + " F" + plunge + "\n");
+			penDown = true;
+			lastFeed = -1;
+		}
+		move("G1", x, y, Math.max(1, Math.round(feed)));
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			liftPen();
+			out.write("M2\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Lift the pen if it is down
+	 * @throws IOException if it can't be written
+	 */
+	private void liftPen() throws IOException {
+		if (penDown) {
+			out.write("G0 Z" + zUp + "\n");
+			penDown = false;
+		}
+	}
+
+	/**
+	 * Write a move, leaving out what hasn't changed
+	 * @param cmd G0 or G1
+	 * @param x x in inches
+	 * @param y y in inches
+	 * @param feed feed rate in inches per minute (-1 for none)
+	 * @throws IOException if it can't be written
+	 */
+	private void move(String cmd, double x, double y, long feed) throws IOException {
+		String sx = format(x, PLACES);
+		String sy = format(y, PLACES);
+		boolean newX = !sx.equals(lastX);
+		boolean newY = !sy.equals(lastY);
+		if (!newX && !newY) {
+			return;
+		}
+		out.write(cmd);
+		if (newX) {
+			out.write(" X");
+			out.write(sx);
+			lastX = sx;
+		}
+		if (newY) {
+			out.write(" Y");
+			out.write(sy);
+			lastY = sy;
+		}
+		if ((feed > 0) && (feed != lastFeed)) {
+			out.write(" F");
+			out.write(Long.toString(feed));
+			lastFeed = feed;
+		}
+		out.write('\n');
+	}
+}
@@ -0,0 +1,150 @@
+package billooms.penchuck.drawables.machine;
+
+import java.awt.Color;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+
+/**
+ * Writes HP-GL for a pen plotter. Each color gets its own pen (up to MAX_PENS, then they are reused).
+ * HP-GL plotters have one speed for the pen (VS), which can't change in the middle of a PD command,
+ * so the speed is only changed when the planned feed rate changes by more than SPEED_STEP.
+ * @author Bill Ooms. Copyright 2010 Studio of Bill Ooms. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class HpglWriter extends MachineWriter {
+	public final static double UNITS_PER_INCH = 1016.0;	// plotter units are 0.025 mm
+	public final static int MAX_PENS = 8;
+	public final static double SPEED_STEP = 0.1;		// fraction the speed must change by to write VS
+	private final static double CM_PER_S = 2.54 / 60.0;	// cm/s for one inch per minute
+
+	private final Writer out;
+	private final double offsetX, offsetY;		// added to every point (inches)
+	private final ArrayList<Color> pens = new ArrayList<Color>();
+	private boolean penDown = false;
+	private boolean inPd = false;		// true while a PD command is open
+	private double speed = -1.0;		// last VS in cm/s
+	private long lastX, lastY;
+
+	/**
+	 * Start an HP-GL file
+	 * @param os stream for the file (closed by close())
+	 * @param x offset added to x in inches (the origin of most plotters is at the lower left)
+	 * @param y offset added to y in inches
+	 * @throws IOException if the start can't be written
+	 */
+	public HpglWriter(OutputStream os, double x, double y) throws IOException {
+		this.out = new BufferedWriter(new OutputStreamWriter(os, "US-ASCII"), 1 << 16);
+		this.offsetX = x;
+		this.offsetY = y;
+		out.write("IN;\n");
+	}
+
+	@Override
+	public void setPen(Color c) throws IOException {
+		liftPen();
+		int n = pens.indexOf(c);
+		if (n < 0) {
+			pens.add(c);
+			n = pens.size() - 1;
+		}
+		out.write("SP" + (n % MAX_PENS + 1) + ";\n");
+		speed = -1.0;		// a new pen has its own speed
+	}
+
+	@Override
+	public void travel(double x, double y) throws IOException {
+		liftPen();
+		long px = toUnits(x + offsetX);
+		long py = toUnits(y + offsetY);
+		if ((px != lastX) || (py != lastY)) {
+			out.write("PU" + px + "," + py + ";\n");
+			lastX = px;
+			lastY = py;
+		}
+	}
+
+	@Override
+	public void draw(double x, double y, double feed) throws IOException {
+		long px = toUnits(x + offsetX);
+		long py = toUnits(y + offsetY);
+		if (penDown && (px == lastX) && (py == lastY)) {
+			return;
+		}
+		double s = feed * CM_PER_S;
+		if ((speed < 0.0) || (Math.abs(s - speed) > SPEED_STEP * speed)) {
+			endPd();
+			out.write("VS" + format(s, 2) + ";\n");
+			speed = s;
+		}
+		if (inPd) {
+			out.write(',');
+		} else {
+			out.write("PD");
+			inPd = true;
+		}
+		out.write(Long.toString(px));
+		out.write(',');
+		out.write(Long.toString(py));
+		penDown = true;
+		lastX = px;
+		lastY = py;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			liftPen();
+			out.write("SP0;\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Finish a PD command if one is open
+	 * @throws IOException if it can't be written
+	 */
+	private void endPd() throws IOException {
+		if (inPd) {
+			out.write(";\n");
+			inPd = false;
+		}
+	}
+
+	/**
+	 * Lift the pen if it is down
+	 * @throws IOException if it can't be written
+	 */
+	private void liftPen() throws IOException {
+		endPd();
+		if (penDown) {
+			out.write("PU;\n");
+			penDown = false;
+		}
+	}
+
+	/**
+	 * Convert inches to plotter units
+	 * @param v inches
+	 * @return plotter units
+	 */
+	private static long toUnits(double v) {
+		return Math.round(v * UNITS_PER_INCH);
+	}
+}
@@ -0,0 +1,87 @@
+package billooms.penchuck.drawables.machine;
+
+/**
+ * The limits of a pen plotter or CNC machine, used for planning feed rates and estimating job times.
+ * @author Bill Ooms. Copyright 2010 Studio of Bill Ooms. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class MachineLimits {
+	public final static double DEFAULT_MAX_FEED = 100.0;		// inches per minute while drawing
+	public final static double DEFAULT_TRAVEL_FEED = 200.0;		// inches per minute with the pen up
+	public final static double DEFAULT_ACCELERATION = 10.0;		// inches per second per second
+	public final static double DEFAULT_PEN_LIFT_TIME = 0.2;		// seconds to lift or drop the pen
+
+	private final double maxFeed;
+	private final double travelFeed;
+	private final double acceleration;
+	private final double penLiftTime;
+
+	/**
+	 * Limits with default values
+	 */
+	public MachineLimits() {
+		this(DEFAULT_MAX_FEED, DEFAULT_TRAVEL_FEED, DEFAULT_ACCELERATION, DEFAULT_PEN_LIFT_TIME);
+	}
+
+	/**
+	 * Limits with the given values
+	 * @param feed maximum feed rate while drawing in inches per minute
+	 * @param travel feed rate with the pen up in inches per minute
+	 * @param acc maximum acceleration in inches per second per second (also used as the limit going around curves)
+	 * @param lift time to lift or drop the pen in seconds
+	 * @throws IllegalArgumentException if a feed rate or the acceleration is not positive, or the lift time is negative
+	 */
+	public MachineLimits(double feed, double travel, double acc, double lift) {
+		if ((feed <= 0.0) || (travel <= 0.0) || (acc <= 0.0) || (lift < 0.0)) {
+			throw new IllegalArgumentException("Bad machine limits");
+		}
+		this.maxFeed = feed;
+		this.travelFeed = travel;
+		this.acceleration = acc;
+		this.penLiftTime = lift;
+	}
+
+	/**
+	 * Get the maximum feed rate while drawing
+	 * @return inches per minute
+	 */
+	public double getMaxFeed() {
+		return maxFeed;
+	}
+
+	/**
+	 * Get the feed rate with the pen up
+	 * @return inches per minute
+	 */
+	public double getTravelFeed() {
+		return travelFeed;
+	}
+
+	/**
+	 * Get the maximum acceleration
+	 * @return inches per second per second
+	 */
+	public double getAcceleration() {
+		return acceleration;
+	}
+
+	/**
+	 * Get the time to lift or drop the pen
+	 * @return seconds
+	 */
+	public double getPenLiftTime() {
+		return penLiftTime;
+	}
+}
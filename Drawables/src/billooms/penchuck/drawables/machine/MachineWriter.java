@@ -0,0 +1,86 @@
+package billooms.penchuck.drawables.machine;
+
+import java.awt.Color;
+import java.io.IOException;
+
+/**
+ * Writes the motion of a machine (see Toolpath.write) to a file for a CNC machine or pen plotter.
+ * The writer keeps track of whether the pen is up or down.
+ * @author Bill Ooms. Copyright 2010 Studio of Bill Ooms. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public abstract class MachineWriter {
+
+	/**
+	 * Change to the pen for a color (the pen is lifted first)
+	 * @param c color, or null if not known
+	 * @throws IOException if it can't be written
+	 */
+	public abstract void setPen(Color c) throws IOException;
+
+	/**
+	 * Move with the pen up (it is lifted first if it is down)
+	 * @param x x in inches
+	 * @param y y in inches
+	 * @throws IOException if it can't be written
+	 */
+	public abstract void travel(double x, double y) throws IOException;
+
+	/**
+	 * Draw a straight line with the pen down (it is dropped first if it is up)
+	 * @param x x in inches
+	 * @param y y in inches
+	 * @param feed feed rate in inches per minute
+	 * @throws IOException if it can't be written
+	 */
+	public abstract void draw(double x, double y, double feed) throws IOException;
+
+	/**
+	 * Lift the pen, finish the file and close the stream
+	 * @throws IOException if the file can't be finished
+	 */
+	public abstract void close() throws IOException;
+
+	/**
+	 * Format a number with at most the given number of decimal places (no trailing zeros)
+	 * @param v value
+	 * @param places decimal places (1 to 9)
+	 * @return text
+	 */
+	protected static String format(double v, int places) {
+		long scale = 1;
+		for (int i = 0; i < places; i++) {
+			scale *= 10;
+		}
+		long n = Math.round(v * scale);
+		StringBuilder sb = new StringBuilder(16);
+		if (n < 0) {
+			sb.append('-');
+			n = -n;
+		}
+		sb.append(n / scale);
+		long frac = n % scale;
+		if (frac != 0) {
+			sb.append('.');
+			String f = Long.toString(frac + scale).substring(1);	// with leading zeros
+			int end = f.length();
+			while (f.charAt(end - 1) == '0') {
+				end--;
+			}
+			sb.append(f, 0, end);
+		}
+		return sb.toString();
+	}
+}
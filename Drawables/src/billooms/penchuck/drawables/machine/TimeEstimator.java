@@ -0,0 +1,297 @@
+package billooms.penchuck.drawables.machine;
+
+import billooms.penchuck.drawables.BufferedCurve;
+import billooms.penchuck.drawables.Drawable;
+import billooms.penchuck.drawables.Polyline;
+import java.util.List;
+
+/**
+ * Estimates how long a machine takes to draw a job, with the speeds planned by a FeedPlanner:
+ * for each pass, the pen-up move from the end of the last pass, dropping the pen, drawing the curve
+ * with acceleration-limited speeds, and lifting the pen. Changing pens is not included.
+ * <p>
+ * The drawing time of each curve is remembered, so when the same curves are estimated again
+ * with a few added or removed at the end (as the user draws and undoes passes), only the new ones
+ * are planned. Curves must not be changed after they have been estimated.
+ * Passes can also be given a key (e.g. the object the curve was made from), in which case only the key
+ * and the ends of each curve are remembered, and curves are only looked at if their key is new.
+ * @author Bill Ooms. Copyright 2010 Studio of Bill Ooms. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class TimeEstimator {
+	private final MachineLimits limits;
+	private final FeedPlanner planner;
+	private double[] x = new double[0], y = new double[0];	// points of the curve being planned
+
+	// the last estimate, by pass
+	private int size = 0;
+	private Object[] keys = new Object[0];			// key of each pass (null if not a curve)
+	private int[] counts = new int[0];				// number of points when it was planned
+	private double[] ends = new double[0];			// x, y of the start and x, y of the end of each pass
+	private double[] drawTimes = new double[0];		// seconds with the pen down
+	private double[] passTimes = new double[0];		// seconds for the whole pass
+	private double total = 0.0;
+
+	/**
+	 * An estimator for a machine
+	 * @param lim machine limits
+	 */
+	public TimeEstimator(MachineLimits lim) {
+		this.limits = lim;
+		this.planner = new FeedPlanner(lim);
+	}
+
+	/**
+	 * Get the machine limits
+	 * @return limits
+	 */
+	public MachineLimits getLimits() {
+		return limits;
+	}
+
+	/**
+	 * Estimate the time for drawing a list of passes in the order given, with the pen starting at 0.0, 0.0.
+	 * Anything in the list which isn't a Polyline (e.g. a Pt) takes no time.
+	 * @param list drawables (one for each pass)
+	 * @return total time in seconds
+	 */
+	public double estimate(List<? extends Drawable> list) {
+		return estimate(list, list);
+	}
+
+	/**
+	 * Estimate the time for drawing a list of passes in the order given, with the pen starting at 0.0, 0.0.
+	 * Anything in the list which isn't a Polyline (e.g. a Pt) takes no time.
+	 * A drawable is only looked at if its key is not the one it had in the last estimate,
+	 * and the drawables are not kept, so they can be made when they are asked for.
+	 * @param list drawables (one for each pass)
+	 * @param keyList key for each pass, which stays the same as long as its drawable does
+	 * @return total time in seconds
+	 */
+	public double estimate(List<? extends Drawable> list, List<?> keyList) {
+		int n = list.size();
+		grow(n);
+		double px = 0.0, py = 0.0;		// where the pen is
+		total = 0.0;
+		for (int i = 0; i < n; i++) {
+			Object key = keyList.get(i);
+			boolean known = (i < size) && (key != null) && (keys[i] == key);
+			if (known && (key instanceof Polyline)) {		// the curve is its own key, so check it is the same length
+				known = counts[i] == count((Polyline) key);
+			}
+			if (!known) {
+				plan(i, list.get(i), key);
+			}
+			if (keys[i] == null) {
+				passTimes[i] = 0.0;		// nothing to draw
+				continue;
+			}
+			passTimes[i] = passTime(Math.hypot(ends[4 * i] - px, ends[4 * i + 1] - py), drawTimes[i]);
+			total += passTimes[i];
+			px = ends[4 * i + 2];
+			py = ends[4 * i + 3];
+		}
+		for (int i = n; i < size; i++) {
+			keys[i] = null;		// don't hold on to curves which were removed
+		}
+		size = n;
+		return total;
+	}
+
+	/**
+	 * Estimate the time for a toolpath, in its order and directions (the passes are always planned)
+	 * @param tp toolpath
+	 * @return total time in seconds
+	 */
+	public double estimate(Toolpath tp) {
+		int n = tp.getSize();
+		grow(n);
+		double px = 0.0, py = 0.0;
+		total = 0.0;
+		for (int i = 0; i < n; i++) {
+			int count = tp.getPointCount(i);
+			fit(count);
+			tp.getPoints(i, x, y);
+			keys[i] = null;		// the direction may differ next time
+			drawTimes[i] = planner.plan(x, y, count);
+			passTimes[i] = passTime(Math.hypot(x[0] - px, y[0] - py), drawTimes[i]);
+			total += passTimes[i];
+			px = x[count - 1];
+			py = y[count - 1];
+		}
+		for (int i = n; i < size; i++) {
+			keys[i] = null;
+		}
+		size = n;
+		return total;
+	}
+
+	/**
+	 * Get the number of passes in the last estimate
+	 * @return number of passes
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Get the total time of the last estimate
+	 * @return seconds
+	 */
+	public double getTotal() {
+		return total;
+	}
+
+	/**
+	 * Get the time for one pass of the last estimate
+	 * (moving to it, dropping the pen, drawing, and lifting the pen)
+	 * @param i index of the pass
+	 * @return seconds
+	 */
+	public double getPassTime(int i) {
+		checkIndex(i);
+		return passTimes[i];
+	}
+
+	/**
+	 * Get the time with the pen down for one pass of the last estimate
+	 * @param i index of the pass
+	 * @return seconds
+	 */
+	public double getDrawTime(int i) {
+		checkIndex(i);
+		return drawTimes[i];
+	}
+
+	/**
+	 * Forget the remembered drawing times (e.g. if a curve has been changed)
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			keys[i] = null;
+		}
+		size = 0;
+		total = 0.0;
+	}
+
+	/**
+	 * Time for one pass
+	 * @param travel pen-up distance to the start of the pass in inches
+	 * @param draw time with the pen down in seconds
+	 * @return seconds
+	 */
+	private double passTime(double travel, double draw) {
+		return planner.travelTime(travel) + 2.0 * limits.getPenLiftTime() + draw;
+	}
+
+	/**
+	 * Plan one pass and remember its key, the ends of its curve, and its drawing time
+	 * @param i index of the pass
+	 * @param d drawable
+	 * @param key key of the pass
+	 */
+	private void plan(int i, Drawable d, Object key) {
+		if (!(d instanceof Polyline) || (((Polyline) d).getSize() == 0) || (key == null)) {
+			keys[i] = null;
+			drawTimes[i] = 0.0;
+			return;
+		}
+		Polyline p = (Polyline) d;
+		int count = count(p);
+		int last = (count > p.getSize()) ? 0 : p.getSize() - 1;	// a closed curve ends where it starts
+		drawTimes[i] = drawTime(p, count);
+		keys[i] = key;
+		counts[i] = count;
+		ends[4 * i] = p.getX(0);
+		ends[4 * i + 1] = p.getY(0);
+		ends[4 * i + 2] = p.getX(last);
+		ends[4 * i + 3] = p.getY(last);
+	}
+
+	/**
+	 * Get the number of points which are drawn for a curve
+	 * @param p curve
+	 * @return number of points (one more than the size for a closed curve)
+	 */
+	private static int count(Polyline p) {
+		boolean closed = (p instanceof BufferedCurve) && ((BufferedCurve) p).isClosed();
+		return p.getSize() + (closed ? 1 : 0);
+	}
+
+	/**
+	 * Plan the drawing of a curve
+	 * @param p curve
+	 * @param count number of points drawn (one more than the size for a closed curve)
+	 * @return seconds with the pen down
+	 */
+	private double drawTime(Polyline p, int count) {
+		fit(count);
+		int n = p.getSize();
+		for (int k = 0; k < n; k++) {
+			x[k] = p.getX(k);
+			y[k] = p.getY(k);
+		}
+		if (count > n) {		// closed
+			x[n] = x[0];
+			y[n] = y[0];
+		}
+		return planner.plan(x, y, count);
+	}
+
+	/**
+	 * Make sure the arrays for the points are long enough
+	 * @param n number of points
+	 */
+	private void fit(int n) {
+		if (x.length < n) {
+			x = new double[n];
+			y = new double[n];
+		}
+	}
+
+	/**
+	 * Make sure the arrays for the passes are long enough, keeping what they have
+	 * @param n number of passes
+	 */
+	private void grow(int n) {
+		if (keys.length < n) {
+			int m = Math.max(n, 2 * keys.length);
+			Object[] o = new Object[m];
+			System.arraycopy(keys, 0, o, 0, size);
+			keys = o;
+			int[] k = new int[m];
+			System.arraycopy(counts, 0, k, 0, size);
+			counts = k;
+			double[] e = new double[4 * m];
+			System.arraycopy(ends, 0, e, 0, 4 * size);
+			ends = e;
+			double[] d = new double[m];
+			System.arraycopy(drawTimes, 0, d, 0, size);
+			drawTimes = d;
+			passTimes = new double[m];
+		}
+	}
+
+	/**
+	 * Check the index of a pass
+	 * @param i index
+	 * @throws IndexOutOfBoundsException if it isn't a pass of the last estimate
+	 */
+	private void checkIndex(int i) {
+		if ((i < 0) || (i >= size)) {
+			throw new IndexOutOfBoundsException("Pass " + i + " of " + size);
+		}
+	}
+}
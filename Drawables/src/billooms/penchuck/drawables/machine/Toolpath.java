@@ -0,0 +1,472 @@
+package billooms.penchuck.drawables.machine;
+
+import billooms.penchuck.drawables.BufferedCurve;
+import billooms.penchuck.drawables.Polyline;
+import billooms.penchuck.drawables.Shape;
+import java.awt.Color;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The curves of a job in the order that a machine draws them, chosen to keep the pen-up travel short.
+ * The curves are ordered greedily (always go to the nearest end of a curve that hasn't been drawn,
+ * found with a grid of the ends), and the order is then improved with 2-opt: a run of curves is reversed
+ * (each curve drawn backward, in the opposite order) whenever that makes the travel shorter.
+ * 2-opt only looks a limited number of curves ahead, so it stays fast with many curves.
+ * <p>
+ * Curves of different colors need a change of pen, so the curves are only reordered within each run
+ * of consecutive curves with the same color, and those runs stay in the order they were given.
+ * @author Bill Ooms. Copyright 2010 Studio of Bill Ooms. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class Toolpath {
+	public final static int WINDOW = 100;		// how far ahead 2-opt looks
+	public final static int MAX_SWEEPS = 10;	// limit on the 2-opt passes over the curves
+
+	private final Polyline[] paths;		// in drawing order
+	private final boolean[] reversed;	// true if the path is drawn from its last point to its first
+	private final double startX, startY;	// where the pen starts
+	private final double travel;		// pen-up distance in inches
+
+	/**
+	 * Order curves for drawing. Curves with no points are left out.
+	 * @param list curves (BufferedCurve can be closed, and Shapes have a color)
+	 * @param x x where the pen starts in inches
+	 * @param y y where the pen starts in inches
+	 */
+	public Toolpath(List<? extends Polyline> list, double x, double y) {
+		ArrayList<Polyline> kept = new ArrayList<Polyline>(list.size());
+		for (Polyline p : list) {
+			if (p.getSize() > 0) {
+				kept.add(p);
+			}
+		}
+		int n = kept.size();
+		this.paths = new Polyline[n];
+		this.reversed = new boolean[n];
+		this.startX = x;
+		this.startY = y;
+		double px = x, py = y;		// where the pen is
+		int done = 0;
+		for (int from = 0; from < n; ) {
+			int to = from + 1;		// a run of the same color
+			while ((to < n) && sameColor(kept.get(to), kept.get(from))) {
+				to++;
+			}
+			Run run = new Run(kept.subList(from, to), px, py);
+			run.nearestNeighbor();
+			run.twoOpt();
+			for (int i = 0; i < run.m; i++) {
+				paths[done] = run.paths[run.seq[i]];
+				reversed[done] = run.rev[i];
+				done++;
+			}
+			if (run.m > 0) {
+				px = run.endX(run.m - 1);
+				py = run.endY(run.m - 1);
+			}
+			from = to;
+		}
+		this.travel = measureTravel();
+	}
+
+	/**
+	 * Order curves for drawing, with the pen starting at 0.0, 0.0
+	 * @param list curves
+	 */
+	public Toolpath(List<? extends Polyline> list) {
+		this(list, 0.0, 0.0);
+	}
+
+	/**
+	 * Get the number of curves
+	 * @return number of curves
+	 */
+	public int getSize() {
+		return paths.length;
+	}
+
+	/**
+	 * Get a curve
+	 * @param i index in drawing order
+	 * @return curve
+	 */
+	public Polyline getPath(int i) {
+		return paths[i];
+	}
+
+	/**
+	 * Find out if a curve is drawn backward
+	 * @param i index in drawing order
+	 * @return true if drawn from its last point to its first
+	 */
+	public boolean isReversed(int i) {
+		return reversed[i];
+	}
+
+	/**
+	 * Get the color of a curve
+	 * @param i index in drawing order
+	 * @return color, or null if the curve doesn't have one
+	 */
+	public Color getColor(int i) {
+		return (paths[i] instanceof Shape) ? ((Shape) paths[i]).getColor() : null;
+	}
+
+	/**
+	 * Get the total distance moved with the pen up
+	 * @return inches (including the move from the starting point to the first curve)
+	 */
+	public double getTravel() {
+		return travel;
+	}
+
+	/**
+	 * Get the number of points drawn for a curve (a closed curve goes back to its first point)
+	 * @param i index in drawing order
+	 * @return number of points
+	 */
+	public int getPointCount(int i) {
+		return paths[i].getSize() + (isClosed(paths[i]) ? 1 : 0);
+	}
+
+	/**
+	 * Get the points of a curve in the order they are drawn
+	 * @param i index in drawing order
+	 * @param x array for x in inches (at least getPointCount(i) long)
+	 * @param y array for y in inches (at least getPointCount(i) long)
+	 * @return number of points
+	 */
+	public int getPoints(int i, double[] x, double[] y) {
+		Polyline p = paths[i];
+		int n = p.getSize();
+		boolean closed = isClosed(p);
+		for (int k = 0; k < n; k++) {
+			int j = k;
+			if (reversed[i]) {		// a closed curve still starts and ends at its first point
+				j = closed ? (n - k) % n : n - 1 - k;
+			}
+			x[k] = p.getX(j);
+			y[k] = p.getY(j);
+		}
+		if (closed) {
+			x[n] = x[0];
+			y[n] = y[0];
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Write the job to a machine, with feed rates planned for the machine
+	 * @param w writer (it is not closed)
+	 * @param lim machine limits
+	 * @throws IOException if the job can't be written
+	 */
+	public void write(MachineWriter w, MachineLimits lim) throws IOException {
+		FeedPlanner planner = new FeedPlanner(lim);
+		double[] x = new double[0], y = new double[0];
+		boolean first = true;
+		Color last = null;
+		for (int i = 0; i < paths.length; i++) {
+			int n = getPointCount(i);
+			if (x.length < n) {
+				x = new double[n];
+				y = new double[n];
+			}
+			getPoints(i, x, y);
+			Color c = getColor(i);
+			if (first || ((c != null) && !c.equals(last))) {
+				w.setPen(c);
+				last = c;
+				first = false;
+			}
+			w.travel(x[0], y[0]);
+			if (n == 1) {
+				w.draw(x[0], y[0], lim.getMaxFeed());		// a dot
+				continue;
+			}
+			planner.plan(x, y, n);
+			for (int k = 1; k < n; k++) {
+				w.draw(x[k], y[k], planner.getFeed(k));
+			}
+		}
+	}
+
+	/**
+	 * Add up the pen-up travel
+	 * @return inches
+	 */
+	private double measureTravel() {
+		double t = 0.0;
+		double px = startX, py = startY;
+		for (int i = 0; i < paths.length; i++) {
+			Polyline p = paths[i];
+			boolean closed = isClosed(p);
+			int first = (reversed[i] && !closed) ? p.getSize() - 1 : 0;
+			int last = closed ? first : p.getSize() - 1 - first;
+			t += Math.hypot(p.getX(first) - px, p.getY(first) - py);
+			px = p.getX(last);
+			py = p.getY(last);
+		}
+		return t;
+	}
+
+	/**
+	 * Check if a curve is closed
+	 * @param p curve
+	 * @return true if the last point connects back to the first
+	 */
+	private static boolean isClosed(Polyline p) {
+		return (p instanceof BufferedCurve) && ((BufferedCurve) p).isClosed();
+	}
+
+	/**
+	 * Check if two curves have the same color (curves with no color match anything)
+	 * @param a first curve
+	 * @param b second curve
+	 * @return true if they can be drawn with the same pen
+	 */
+	private static boolean sameColor(Polyline a, Polyline b) {
+		if (!(a instanceof Shape) || !(b instanceof Shape)) {
+			return true;
+		}
+		Color ca = ((Shape) a).getColor();
+		Color cb = ((Shape) b).getColor();
+		return (ca == null) ? (cb == null) : ca.equals(cb);
+	}
+
+	/**
+	 * Ordering of a run of curves with the same color
+	 */
+	private static class Run {
+		final Polyline[] paths;
+		final int m;
+		final double[] sx, sy, ex, ey;	// first and last point of each curve (the same for a closed curve)
+		final boolean[] closed;
+		final double px, py;			// where the pen is before the run
+		final int[] seq;				// curves in drawing order
+		final boolean[] rev;			// true if seq[i] is drawn backward
+		// grid of the ends, only while ordering
+		private int g;					// cells on a side
+		private double gridX, gridY, cell;
+		private int[] head, next;		// first end in each cell, and the next end in the same cell
+		private boolean[] used;
+		private int best;				// nearest end found so far
+		private double bestD;
+
+		Run(List<? extends Polyline> list, double x, double y) {
+			m = list.size();
+			paths = list.toArray(new Polyline[m]);
+			sx = new double[m];
+			sy = new double[m];
+			ex = new double[m];
+			ey = new double[m];
+			closed = new boolean[m];
+			for (int k = 0; k < m; k++) {
+				Polyline p = paths[k];
+				closed[k] = isClosed(p);
+				int last = closed[k] ? 0 : p.getSize() - 1;
+				sx[k] = p.getX(0);
+				sy[k] = p.getY(0);
+				ex[k] = p.getX(last);
+				ey[k] = p.getY(last);
+			}
+			px = x;
+			py = y;
+			seq = new int[m];
+			rev = new boolean[m];
+		}
+
+		double startX(int i) {
+			return rev[i] ? ex[seq[i]] : sx[seq[i]];
+		}
+
+		double startY(int i) {
+			return rev[i] ? ey[seq[i]] : sy[seq[i]];
+		}
+
+		double endX(int i) {
+			return rev[i] ? sx[seq[i]] : ex[seq[i]];
+		}
+
+		double endY(int i) {
+			return rev[i] ? sy[seq[i]] : ey[seq[i]];
+		}
+
+		/**
+		 * Greedy order: go to the nearest unused end each time.
+		 * The ends are kept in a grid of about one end per cell, in linked lists,
+		 * and the grid is searched in rings around the pen until nothing closer can be found.
+		 */
+		void nearestNeighbor() {
+			if (m == 0) {
+				return;
+			}
+			double minX = px, maxX = px, minY = py, maxY = py;
+			for (int k = 0; k < m; k++) {
+				minX = Math.min(minX, Math.min(sx[k], ex[k]));
+				maxX = Math.max(maxX, Math.max(sx[k], ex[k]));
+				minY = Math.min(minY, Math.min(sy[k], ey[k]));
+				maxY = Math.max(maxY, Math.max(sy[k], ey[k]));
+			}
+			g = Math.max(1, (int) Math.sqrt(m));
+			gridX = minX;
+			gridY = minY;
+			cell = Math.max(Math.max(maxX - minX, maxY - minY) / g, 1e-9);
+			head = new int[g * g];
+			next = new int[2 * m];
+			Arrays.fill(head, -1);
+			for (int e = 2 * m - 1; e >= 0; e--) {
+				if (closed[e / 2] && (e % 2 == 1)) {
+					continue;		// a closed curve only needs one end
+				}
+				int c = cellOf(endPtX(e), gridX) + g * cellOf(endPtY(e), gridY);
+				next[e] = head[c];
+				head[c] = e;
+			}
+			used = new boolean[m];
+			double x = px, y = py;
+			for (int i = 0; i < m; i++) {
+				int cx = cellOf(x, gridX);
+				int cy = cellOf(y, gridY);
+				best = -1;
+				bestD = Double.MAX_VALUE;
+				for (int r = 0; r < g; r++) {
+					for (int j = Math.max(cy - r, 0); j <= Math.min(cy + r, g - 1); j++) {
+						if ((j == cy - r) || (j == cy + r)) {		// top or bottom of the ring
+							for (int k = Math.max(cx - r, 0); k <= Math.min(cx + r, g - 1); k++) {
+								scan(k + g * j, x, y);
+							}
+						} else {		// sides of the ring
+							if (cx - r >= 0) {
+								scan(cx - r + g * j, x, y);
+							}
+							if (cx + r < g) {
+								scan(cx + r + g * j, x, y);
+							}
+						}
+					}
+					if ((best >= 0) && (bestD <= r * cell)) {
+						break;		// nothing in the next ring can be closer
+					}
+				}
+				int k = best / 2;
+				used[k] = true;
+				seq[i] = k;
+				rev[i] = (best % 2 == 1);
+				x = endX(i);
+				y = endY(i);
+			}
+			head = next = null;
+			used = null;
+		}
+
+		/**
+		 * Look for a nearer end in a cell of the grid
+		 * @param c cell index
+		 * @param x x of the pen
+		 * @param y y of the pen
+		 */
+		private void scan(int c, double x, double y) {
+			int prev = -1;
+			for (int e = head[c]; e >= 0; e = next[e]) {
+				if (used[e / 2]) {		// unlink ends of curves that are done
+					if (prev < 0) {
+						head[c] = next[e];
+					} else {
+						next[prev] = next[e];
+					}
+					continue;
+				}
+				double d = Math.hypot(endPtX(e) - x, endPtY(e) - y);
+				if (d < bestD) {
+					bestD = d;
+					best = e;
+				}
+				prev = e;
+			}
+		}
+
+		private double endPtX(int e) {
+			return (e % 2 == 0) ? sx[e / 2] : ex[e / 2];
+		}
+
+		private double endPtY(int e) {
+			return (e % 2 == 0) ? sy[e / 2] : ey[e / 2];
+		}
+
+		/**
+		 * Improve the order with 2-opt: reverse a run of curves whenever that shortens the travel
+		 */
+		void twoOpt() {
+			for (int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+				boolean better = false;
+				for (int i = 0; i < m; i++) {
+					double ax = (i == 0) ? px : endX(i - 1);
+					double ay = (i == 0) ? py : endY(i - 1);
+					for (int j = i; j < Math.min(m, i + WINDOW); j++) {
+						// reversing i..j replaces the moves a->start(i) and end(j)->start(j+1)
+						// with a->end(j) and start(i)->start(j+1)
+						double before = Math.hypot(startX(i) - ax, startY(i) - ay);
+						double after = Math.hypot(endX(j) - ax, endY(j) - ay);
+						if (j + 1 < m) {
+							before += Math.hypot(startX(j + 1) - endX(j), startY(j + 1) - endY(j));
+							after += Math.hypot(startX(j + 1) - startX(i), startY(j + 1) - startY(i));
+						}
+						if (after < before - 1e-9) {
+							reverse(i, j);
+							better = true;
+						}
+					}
+				}
+				if (!better) {
+					break;
+				}
+			}
+		}
+
+		/**
+		 * Reverse the order of curves i..j, and the direction of each one
+		 * @param i first index
+		 * @param j last index
+		 */
+		void reverse(int i, int j) {
+			for (; i < j; i++, j--) {
+				int t = seq[i];
+				seq[i] = seq[j];
+				seq[j] = t;
+				boolean b = rev[i];
+				rev[i] = !rev[j];
+				rev[j] = !b;
+			}
+			if (i == j) {
+				rev[i] = !rev[i];
+			}
+		}
+
+		/**
+		 * Find the grid cell of a coordinate
+		 * @param v coordinate
+		 * @param min coordinate of the edge of the grid
+		 * @return cell index from 0 to g-1
+		 */
+		private int cellOf(double v, double min) {
+			return Math.min(Math.max((int) ((v - min) / cell), 0), g - 1);
+		}
+	}
+}
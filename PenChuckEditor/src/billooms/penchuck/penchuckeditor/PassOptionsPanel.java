@@ -0,0 +1,169 @@
+package billooms.penchuck.penchuckeditor;
+
+import java.awt.FlowLayout;
+import javax.swing.BorderFactory;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
+import org.openide.util.NbBundle;
+
+/**
+ * Options for a pen pass beyond the pen position and width.
+ * These are values that are normally left alone, so they are kept out of the main controls.
+ * @author Bill Ooms Copyright (c) 2010 Studio of Bill Ooms all rights reserved
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+class PassOptionsPanel extends JPanel {
+	private final static int MAX_TURNS = 1000;
+	private final static int MAX_SPIRAL_TURNS = 10000;
+	private final static double MAX_POSITION_CHANGE = 6.0;
+	private final static int MAX_WIDTH_CHANGE = 50;
+	private final static double MAX_ADVANCE = 3600.0;
+	private final static double MAX_OFFSET = 3.0;
+
+	private JSpinner rosetteTurnsSpinner;
+	private JSpinner spindleTurnsSpinner;
+	private JSpinner spiralTurnsSpinner;
+	private JSpinner positionChangeSpinner;
+	private JSpinner widthChangeSpinner;
+	private JSpinner advanceSpinner;
+	private JSpinner offsetXSpinner;
+	private JSpinner offsetYSpinner;
+	private JSpinner penAngleSpinner;
+
+	PassOptionsPanel() {
+		setLayout(new FlowLayout(FlowLayout.LEADING));
+
+		JPanel gearPanel = new JPanel(new FlowLayout(FlowLayout.LEADING));
+		gearPanel.setBorder(BorderFactory.createTitledBorder(NbBundle.getMessage(PassOptionsPanel.class, "PassOptionsPanel.gearPanel.border.title")));
+		rosetteTurnsSpinner = new JSpinner(new SpinnerNumberModel(1, 1, MAX_TURNS, 1));
+		rosetteTurnsSpinner.setToolTipText(NbBundle.getMessage(PassOptionsPanel.class, "PassOptionsPanel.rosetteTurnsSpinner.toolTipText"));
+		spindleTurnsSpinner = new JSpinner(new SpinnerNumberModel(1, 1, MAX_TURNS, 1));
+		spindleTurnsSpinner.setToolTipText(NbBundle.getMessage(PassOptionsPanel.class, "PassOptionsPanel.spindleTurnsSpinner.toolTipText"));
+		gearPanel.add(rosetteTurnsSpinner);
+		gearPanel.add(new JLabel(NbBundle.getMessage(PassOptionsPanel.class, "PassOptionsPanel.gearLabel.text")));
+		gearPanel.add(spindleTurnsSpinner);
+		add(gearPanel);
+
+		JPanel spiralPanel = new JPanel(new FlowLayout(FlowLayout.LEADING));
+		spiralPanel.setBorder(BorderFactory.createTitledBorder(NbBundle.getMessage(PassOptionsPanel.class, "PassOptionsPanel.spiralPanel.border.title")));
+		spiralTurnsSpinner = new JSpinner(new SpinnerNumberModel(0, 0, MAX_SPIRAL_TURNS, 1));
+		spiralTurnsSpinner.setToolTipText(NbBundle.getMessage(PassOptionsPanel.class, "PassOptionsPanel.spiralTurnsSpinner.toolTipText"));
+		positionChangeSpinner = new JSpinner(new SpinnerNumberModel(0.0, -MAX_POSITION_CHANGE, MAX_POSITION_CHANGE, 0.01));
+		positionChangeSpinner.setToolTipText(NbBundle.getMessage(PassOptionsPanel.class, "PassOptionsPanel.positionChangeSpinner.toolTipText"));
+		widthChangeSpinner = new JSpinner(new SpinnerNumberModel(0, -MAX_WIDTH_CHANGE, MAX_WIDTH_CHANGE, 1));
+		widthChangeSpinner.setToolTipText(NbBundle.getMessage(PassOptionsPanel.class, "PassOptionsPanel.widthChangeSpinner.toolTipText"));
+		advanceSpinner = new JSpinner(new SpinnerNumberModel(0.0, -MAX_ADVANCE, MAX_ADVANCE, 1.0));
+		advanceSpinner.setToolTipText(NbBundle.getMessage(PassOptionsPanel.class, "PassOptionsPanel.advanceSpinner.toolTipText"));
+		spiralPanel.add(new JLabel(NbBundle.getMessage(PassOptionsPanel.class, "PassOptionsPanel.spiralTurnsLabel.text")));
+		spiralPanel.add(spiralTurnsSpinner);
+		spiralPanel.add(new JLabel(NbBundle.getMessage(PassOptionsPanel.class, "PassOptionsPanel.positionChangeLabel.text")));
+		spiralPanel.add(positionChangeSpinner);
+		spiralPanel.add(new JLabel(NbBundle.getMessage(PassOptionsPanel.class, "PassOptionsPanel.widthChangeLabel.text")));
+		spiralPanel.add(widthChangeSpinner);
+		spiralPanel.add(new JLabel(NbBundle.getMessage(PassOptionsPanel.class, "PassOptionsPanel.advanceLabel.text")));
+		spiralPanel.add(advanceSpinner);
+		add(spiralPanel);
+
+		JPanel eccentricPanel = new JPanel(new FlowLayout(FlowLayout.LEADING));
+		eccentricPanel.setBorder(BorderFactory.createTitledBorder(NbBundle.getMessage(PassOptionsPanel.class, "PassOptionsPanel.eccentricPanel.border.title")));
+		offsetXSpinner = new JSpinner(new SpinnerNumberModel(0.0, -MAX_OFFSET, MAX_OFFSET, 0.01));
+		offsetXSpinner.setToolTipText(NbBundle.getMessage(PassOptionsPanel.class, "PassOptionsPanel.offsetXSpinner.toolTipText"));
+		offsetYSpinner = new JSpinner(new SpinnerNumberModel(0.0, -MAX_OFFSET, MAX_OFFSET, 0.01));
+		offsetYSpinner.setToolTipText(NbBundle.getMessage(PassOptionsPanel.class, "PassOptionsPanel.offsetYSpinner.toolTipText"));
+		penAngleSpinner = new JSpinner(new SpinnerNumberModel(0.0, -360.0, 360.0, 1.0));
+		penAngleSpinner.setToolTipText(NbBundle.getMessage(PassOptionsPanel.class, "PassOptionsPanel.penAngleSpinner.toolTipText"));
+		eccentricPanel.add(new JLabel(NbBundle.getMessage(PassOptionsPanel.class, "PassOptionsPanel.offsetXLabel.text")));
+		eccentricPanel.add(offsetXSpinner);
+		eccentricPanel.add(new JLabel(NbBundle.getMessage(PassOptionsPanel.class, "PassOptionsPanel.offsetYLabel.text")));
+		eccentricPanel.add(offsetYSpinner);
+		eccentricPanel.add(new JLabel(NbBundle.getMessage(PassOptionsPanel.class, "PassOptionsPanel.penAngleLabel.text")));
+		eccentricPanel.add(penAngleSpinner);
+		add(eccentricPanel);
+	}
+
+	/**
+	 * Get the number of rosette turns for the gear ratio
+	 * @return rosette turns (p in the ratio p/q)
+	 */
+	int getRosetteTurns() {
+		return ((Number) rosetteTurnsSpinner.getValue()).intValue();
+	}
+
+	/**
+	 * Get the number of spindle (pen) turns for the gear ratio
+	 * @return spindle turns (q in the ratio p/q)
+	 */
+	int getSpindleTurns() {
+		return ((Number) spindleTurnsSpinner.getValue()).intValue();
+	}
+
+	/**
+	 * Get the number of spindle turns for a spiral pass
+	 * @return spindle turns (0 for a normal pass which stops when the curve closes)
+	 */
+	int getSpiralTurns() {
+		return ((Number) spiralTurnsSpinner.getValue()).intValue();
+	}
+
+	/**
+	 * Get the change in pen position over a spiral pass
+	 * @return change in inches from the start to the end of the pass
+	 */
+	double getPositionChange() {
+		return ((Number) positionChangeSpinner.getValue()).doubleValue();
+	}
+
+	/**
+	 * Get the change in pen width over a spiral pass
+	 * @return change in pixels from the start to the end of the pass
+	 */
+	int getWidthChange() {
+		return ((Number) widthChangeSpinner.getValue()).intValue();
+	}
+
+	/**
+	 * Get the extra rotation of the rosette (i.e. a change of phase) over a spiral pass
+	 * @return rotation in degrees of the rosette from the start to the end of the pass
+	 */
+	double getRosetteAdvance() {
+		return ((Number) advanceSpinner.getValue()).doubleValue();
+	}
+
+	/**
+	 * Get the x offset of the spindle center from the center of the work (eccentric chuck)
+	 * @return offset in inches
+	 */
+	double getOffsetX() {
+		return ((Number) offsetXSpinner.getValue()).doubleValue();
+	}
+
+	/**
+	 * Get the y offset of the spindle center from the center of the work (eccentric chuck)
+	 * @return offset in inches
+	 */
+	double getOffsetY() {
+		return ((Number) offsetYSpinner.getValue()).doubleValue();
+	}
+
+	/**
+	 * Get the angle of the pen relative to the spindle's zero
+	 * @return angle in degrees (+ is in the direction the pass is drawn)
+	 */
+	double getPenAngle() {
+		return ((Number) penAngleSpinner.getValue()).doubleValue();
+	}
+}
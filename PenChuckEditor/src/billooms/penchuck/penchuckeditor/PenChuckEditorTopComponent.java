@@ -1,20 +1,28 @@
 
 package billooms.penchuck.penchuckeditor;
 
-import billooms.penchuck.drawables.CurveWidth;
-import billooms.penchuck.drawables.Drawable;
+import billooms.penchuck.drawables.RasterLayer;
+import billooms.penchuck.drawables.machine.MachineLimits;
+import billooms.penchuck.drawables.machine.TimeEstimator;
 import billooms.penchuck.rosettemodel.api.Rosette;
+import billooms.penchuck.rosettemodel.engine.Design;
+import billooms.penchuck.rosettemodel.engine.DesignFile;
+import billooms.penchuck.rosettemodel.engine.PassHistory;
+import billooms.penchuck.rosettemodel.engine.PenPass;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Point;
-import java.util.ArrayList;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.io.IOException;
 import java.util.Hashtable;
 import java.util.logging.Logger;
 import javax.swing.JColorChooser;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
-import javax.vecmath.Point2d;
+import org.openide.util.Lookup;
 import org.openide.util.NbBundle;
 import org.openide.windows.TopComponent;
 import org.openide.windows.WindowManager;
@@ -23,7 +31,7 @@ import org.netbeans.api.settings.ConvertAsProperties;
 
 /**
  * This TopComponent models a Pen Chuck on a rose engine.
- * The rosette is obtained via lookup from the RosetteEditorTopComponent.
+ * The rosette and the history of passes are obtained via lookup from the RosetteEditorTopComponent.
  * @author Bill Ooms Copyright (c) 2010 Studio of Bill Ooms all rights reserved
  * 
  * This program is free software: you can redistribute it and/or modify
@@ -46,6 +54,8 @@ public final class PenChuckEditorTopComponent extends TopComponent {
 	/** path to the icon used by the component and its open action */
 //    static final String ICON_PATH = "SET/PATH/TO/ICON/HERE";
 	private static final String PREFERRED_ID = "PenChuckEditorTopComponent";
+	private static final String DESIGN_DIR = "config/PenChuck";	// in the user directory
+	private static final String DESIGN_PREFIX = "penchuck";		// a new file each time (the last one may still be mapped)
 
     private final static double POSITION_SCALE = 3.0;
     private final static int POSITION_RANGE = 60;
@@ -59,13 +69,17 @@ public final class PenChuckEditorTopComponent extends TopComponent {
 	private int penWidth = WIDTH_INIT;
 	private Color penColor = DEFAULT_PEN_COLOR;
 	private PlotPanel plotPanel;
+	private PassOptionsPanel passPanel;
 	private Rosette rosette;
+	private PassHistory history;		// passes and rosette edits, for undo and redo
 
 	public PenChuckEditorTopComponent() {
 		initComponents();
 
 		plotPanel = new PlotPanel();
 		add(plotPanel, BorderLayout.CENTER);
+		passPanel = new PassOptionsPanel();
+		add(passPanel, BorderLayout.NORTH);
 
 		Hashtable labelTable = new Hashtable();		// labels for positionSlider
 		labelTable.put(-60, new JLabel("3"));
@@ -83,7 +97,16 @@ public final class PenChuckEditorTopComponent extends TopComponent {
 		setToolTipText(NbBundle.getMessage(PenChuckEditorTopComponent.class, "HINT_PenChuckEditorTopComponent"));
 //        setIcon(ImageUtilities.loadImage(ICON_PATH, true));
 
-		rosette = WindowManager.getDefault().findTopComponent("RosetteEditorTopComponent").getLookup().lookup(Rosette.class);
+		Lookup lookup = WindowManager.getDefault().findTopComponent("RosetteEditorTopComponent").getLookup();
+		rosette = lookup.lookup(Rosette.class);
+		history = lookup.lookup(PassHistory.class);		// made with the rosette, so restoring the rosette isn't an edit
+		history.addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				plotPanel.historyChanged();
+			}
+		});
+		plotPanel.historyChanged();
 	}
 
 	/** This method is called from within the constructor to
@@ -103,6 +126,7 @@ public final class PenChuckEditorTopComponent extends TopComponent {
         widthSlider = new javax.swing.JSlider();
         clearButton = new javax.swing.JButton();
         undoButton = new javax.swing.JButton();
+        redoButton = new javax.swing.JButton();
         drawButton = new javax.swing.JButton();
         colorButton = new javax.swing.JButton();
 
@@ -213,6 +237,14 @@ public final class PenChuckEditorTopComponent extends TopComponent {
             }
         });
 
+        org.openide.awt.Mnemonics.setLocalizedText(redoButton, org.openide.util.NbBundle.getMessage(PenChuckEditorTopComponent.class, "PenChuckEditorTopComponent.redoButton.text")); // NOI18N
+        redoButton.setToolTipText(org.openide.util.NbBundle.getMessage(PenChuckEditorTopComponent.class, "PenChuckEditorTopComponent.redoButton.toolTipText")); // NOI18N
+        redoButton.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                doRedo(evt);
+            }
+        });
+
         org.openide.awt.Mnemonics.setLocalizedText(drawButton, org.openide.util.NbBundle.getMessage(PenChuckEditorTopComponent.class, "PenChuckEditorTopComponent.drawButton.text")); // NOI18N
         drawButton.setToolTipText(org.openide.util.NbBundle.getMessage(PenChuckEditorTopComponent.class, "PenChuckEditorTopComponent.drawButton.toolTipText")); // NOI18N
         drawButton.addActionListener(new java.awt.event.ActionListener() {
@@ -242,6 +274,7 @@ public final class PenChuckEditorTopComponent extends TopComponent {
                     .add(org.jdesktop.layout.GroupLayout.TRAILING, colorButton)
                     .add(org.jdesktop.layout.GroupLayout.TRAILING, drawButton)
                     .add(org.jdesktop.layout.GroupLayout.TRAILING, undoButton)
+                    .add(org.jdesktop.layout.GroupLayout.TRAILING, redoButton)
                     .add(org.jdesktop.layout.GroupLayout.TRAILING, clearButton))
                 .addContainerGap(117, Short.MAX_VALUE))
         );
@@ -259,6 +292,8 @@ public final class PenChuckEditorTopComponent extends TopComponent {
                 .addPreferredGap(org.jdesktop.layout.LayoutStyle.RELATED)
                 .add(undoButton)
                 .addPreferredGap(org.jdesktop.layout.LayoutStyle.RELATED)
+                .add(redoButton)
+                .addPreferredGap(org.jdesktop.layout.LayoutStyle.RELATED)
                 .add(clearButton))
         );
 
@@ -304,6 +339,10 @@ public final class PenChuckEditorTopComponent extends TopComponent {
 		plotPanel.doUndo();
 }//GEN-LAST:event_doUndo
 
+	private void doRedo(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_doRedo
+		plotPanel.doRedo();
+}//GEN-LAST:event_doRedo
+
 	private void doDraw(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_doDraw
 		plotPanel.doDraw();
 }//GEN-LAST:event_doDraw
@@ -324,6 +363,7 @@ public final class PenChuckEditorTopComponent extends TopComponent {
     private javax.swing.JPanel jPanel3;
     private javax.swing.JFormattedTextField positionField;
     private javax.swing.JSlider positionSlider;
+    private javax.swing.JButton redoButton;
     private javax.swing.JButton undoButton;
     private javax.swing.JFormattedTextField widthField;
     private javax.swing.JSlider widthSlider;
@@ -377,8 +417,13 @@ public final class PenChuckEditorTopComponent extends TopComponent {
 	void writeProperties(java.util.Properties p) {
 		// better to version settings since initial version as advocated at
 		// http://wiki.apidesign.org/wiki/PropertyFiles
-		p.setProperty("version", "1.0");
-		// TODO store your settings
+		p.setProperty("version", "1.1");
+		try {
+			File f = plotPanel.save(getDesignDir());
+			p.setProperty("design", f.getPath());
+		} catch (IOException e) {
+			Logger.getLogger(PenChuckEditorTopComponent.class.getName()).warning("Can't save the passes: " + e.getMessage());
+		}
 	}
 
 	Object readProperties(java.util.Properties p) {
@@ -391,7 +436,22 @@ public final class PenChuckEditorTopComponent extends TopComponent {
 
 	private void readPropertiesImpl(java.util.Properties p) {
 		String version = p.getProperty("version");
-		// TODO read your settings according to their version
+		String design = p.getProperty("design");
+		if ("1.1".equals(version) && (design != null) && new File(design).exists()) {
+			try {
+				plotPanel.load(new File(design));
+			} catch (IOException e) {
+				Logger.getLogger(PenChuckEditorTopComponent.class.getName()).warning("Can't restore the passes: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Get the directory for saving the passes between sessions
+	 * @return directory in the user directory
+	 */
+	private static File getDesignDir() {
+		return new File(System.getProperty("netbeans.user", System.getProperty("user.home")), DESIGN_DIR);
 	}
 
 	@Override
@@ -406,66 +466,129 @@ public final class PenChuckEditorTopComponent extends TopComponent {
      */
     public class PlotPanel extends JPanel {
 		private final Color BACKGROUND_COLOR = Color.WHITE;
-		private final static double WINDOW_PERCENT = 0.9;		// use 90% of the window for the drawing
-		private final static double MAX_RADIUS = 3.0;
+		private final Color TIME_COLOR = Color.GRAY;
         
-        private ArrayList<Drawable> drawList;		// a list of things to draw
+		private TimeEstimator estimator = new TimeEstimator(new MachineLimits());
+		private RasterLayer oldPasses = new RasterLayer();	// image of all but the newest passes
+		private String timeText = "";				// estimated machine time for the passes
 
         public PlotPanel() {
             setBackground(BACKGROUND_COLOR);
-            drawList = new ArrayList<Drawable>();
         }	// end constructor
 
         @Override
         public void paintComponent(Graphics g) {
             super.paintComponent(g);
-			int dpi = (int) Math.min(WINDOW_PERCENT*this.getWidth()/(2*MAX_RADIUS),
-									 WINDOW_PERCENT*this.getHeight()/(2*MAX_RADIUS));
+			int dpi = Design.getDpi(this.getWidth(), this.getHeight());
 			Point zeroPix = new Point(this.getWidth()/2, this.getHeight()/2);
-            for (Drawable item : drawList) {		// paint everything in the drawlist
-                item.paint(g, dpi, zeroPix);
+			int first = oldPasses.update(history.getCurves(), history.getPasses(), this.getWidth(), this.getHeight(), dpi, zeroPix);
+			oldPasses.paint(g);
+            for (int i = first; i < history.getSize(); i++) {		// paint the newest passes as vectors
+                history.getCurve(i).paint(g, dpi, zeroPix);
             }
+			g.setColor(TIME_COLOR);
+			g.drawString(timeText, 5, this.getHeight() - 5);
         }
 
 		/**
-		 * Clear the list of things to be drawn
+		 * Show the passes and the state of the buttons after the history changes
+		 */
+		private void historyChanged() {
+			undoButton.setEnabled(history.canUndo());
+			redoButton.setEnabled(history.canRedo());
+			updateTime();
+			repaint();
+		}
+
+		/**
+		 * Update the estimated time for a machine to draw all the passes.
+		 * Only passes which were added since the last estimate are planned (and only their curves are needed),
+		 * so this is quick.
+		 */
+		private void updateTime() {
+			if (history.getSize() == 0) {
+				estimator.clear();
+				timeText = "";
+				return;
+			}
+			double total = estimator.estimate(history.getCurves(), history.getPasses());
+			double last = estimator.getPassTime(history.getSize() - 1);
+			timeText = NbBundle.getMessage(PenChuckEditorTopComponent.class, "PenChuckEditorTopComponent.timeEstimate",
+					formatTime(total), formatTime(last));
+		}
+
+		/**
+		 * Clear all the passes (this can be undone)
 		 */
         private void doClear() {
-            drawList.clear();				// clear out the old drawlist
-            repaint();
+			history.clear();
         }
 
 		/**
-		 * Remove the last item added to the draw list
+		 * Undo the last pass, clear, or change of the rosette
 		 */
         private void doUndo() {
-            if (drawList.size() > 0) {
-                drawList.remove(drawList.size() - 1);	// take out the last addition
-                repaint();					// Redraw without the curve that has been removed.
-            }
+			history.undo();
+        }
+
+		/**
+		 * Redo the last thing that was undone
+		 */
+        private void doRedo() {
+			history.redo();
         }
 
 		/**
-		 * Create the graphics for the pen at the given position
-		 * and add it to the list of things to be drawn
+		 * Add a pass of the pen at the given position to the history.
+		 * The curve itself is calculated by a PenPass when it is painted.
 		 */
         private void doDraw() {
-            int nPts = 360;						// a point every degree
-            Point2d[] pts = new Point2d[nPts];	// an array of points to make the drawable line
-			int[] wids = new int[nPts];			// an array of widths in pixels
-            double dAngle = 360.0 / nPts;
-            for (int i = 0; i < nPts; i++) {
-                double ampl = rosette.getAmplitudeAt(i * dAngle);
-                double x = -(penPosition - ampl) * Math.cos(i * dAngle * Math.PI / 180.0);	// negative: 0 degrees is at 9pm
-                double y = (penPosition - ampl) * Math.sin(i * dAngle * Math.PI / 180.0);
-                pts[i] = new Point2d(x, y);
-				wids[i] = penWidth;
-            }
-            CurveWidth curve = new CurveWidth(pts, wids, penColor);
-            drawList.add(curve);
-            repaint();
+			PenPass pass = new PenPass(penPosition, penWidth, penColor);
+			pass.setGearing(passPanel.getRosetteTurns(), passPanel.getSpindleTurns());
+			pass.setSpiralTurns(passPanel.getSpiralTurns());
+			pass.setPositionChange(passPanel.getPositionChange());
+			pass.setWidthChange(passPanel.getWidthChange());
+			pass.setRosetteAdvance(passPanel.getRosetteAdvance());
+			pass.setOffset(passPanel.getOffsetX(), passPanel.getOffsetY());
+			pass.setPenAngle(passPanel.getPenAngle());
+			history.addPass(pass);
         }
+
+		/**
+		 * Save the passes, and the curves so they don't have to be calculated again.
+		 * A new file is written, because the file the passes were loaded from may still be mapped.
+		 * @param dir directory
+		 * @return the file that was written
+		 * @throws IOException if it can't be written
+		 */
+		private File save(File dir) throws IOException {
+			return DesignFile.writeNew(dir, DESIGN_PREFIX, history.makeDesign(rosette), history.peekCurves());	// one at a time, not kept
+		}
+
+		/**
+		 * Replace the passes with those saved in a file, starting a new history.
+		 * The saved curves are used if there are any, otherwise the curves are calculated with the saved rosette.
+		 * @param f file
+		 * @throws IOException if it can't be read
+		 */
+		private void load(File f) throws IOException {
+			DesignFile df = new DesignFile(f);
+			history.reset(df.getDesign(), df.hasGeometry() ? df.getCurves() : null);	// read when they are needed
+		}
     }	// end nested class PlotPanel
 
+	/**
+	 * Format a time for display
+	 * @param seconds time in seconds
+	 * @return hours:minutes:seconds, or minutes:seconds if less than an hour
+	 */
+	private static String formatTime(double seconds) {
+		long s = Math.round(seconds);
+		if (s < 3600) {
+			return String.format("%d:%02d", s / 60, s % 60);
+		}
+		return String.format("%d:%02d:%02d", s / 3600, (s / 60) % 60, s % 60);
+	}
+
 
 }
@@ -1,7 +1,10 @@
 
 package billooms.penchuck.rosetteeditor;
 
+import billooms.penchuck.rosettemodel.RosetteImpl;
 import billooms.penchuck.rosettemodel.api.Rosette;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.util.Hashtable;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
@@ -24,9 +27,10 @@ import javax.swing.JPanel;
  * You should have received a copy of the GNU General Public License
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
-public class RosetteEditorPanel extends JPanel {
+public class RosetteEditorPanel extends JPanel implements PropertyChangeListener {
 
 	private Rosette rosette;
+	private boolean updating = false;	// true while the form and the rosette are being made the same
 
     /** Creates new form RosetteEditorPanel */
     public RosetteEditorPanel(Rosette rosette) {
@@ -41,30 +45,74 @@ public class RosetteEditorPanel extends JPanel {
 		labelTable.put(75, new JLabel("0.75"));
 		labelTable.put(100, new JLabel("1.0"));
 		ampSlider.setLabelTable(labelTable);
-		for (int i = 1; i < Rosette.Styles.values().length; i++) {	// Don't use Styles.NONE
-            styleCombo.addItem(Rosette.Styles.values()[i].text);
-		}
 
 		updateForm();
+		rosette.addPropertyChangeListener(this);
     }
 
+	/**
+	 * Show the values of the rosette when it is changed by someone else (e.g. undo)
+	 * @param evt event from the rosette
+	 */
+	@Override
+	public void propertyChange(PropertyChangeEvent evt) {
+		if (!updating) {
+			updateForm();
+		}
+	}
+
 	private void updateRosette() {
-		rosette.setPToP(((Number)ampField.getValue()).doubleValue());
-		ampSlider.setValue((int)(100.0*rosette.getPToP()));
-		rosette.setPhase(((Number)phaseField.getValue()).doubleValue());
-		phaseSlider.setValue((int)rosette.getPhase());
-		rosette.setRepeat(((Number) repeatSpinner.getValue()).intValue());
-		rosette.setStyle(styleCombo.getSelectedIndex()+1);
+		if (updating) {
+			return;		// the form is being set from the rosette
+		}
+		updating = true;
+		try {
+			rosette.setPToP(((Number)ampField.getValue()).doubleValue());
+			ampSlider.setValue((int)(100.0*rosette.getPToP()));
+			rosette.setPhase(((Number)phaseField.getValue()).doubleValue());
+			phaseSlider.setValue((int)rosette.getPhase());
+			rosette.setRepeat(((Number) repeatSpinner.getValue()).intValue());
+			if (styleCombo.getSelectedIndex() >= 0) {
+				rosette.setStyle(styleCombo.getSelectedIndex()+1);
+			}
+		} finally {
+			updating = false;
+		}
 		updateForm();		// in case rosette limits some parameter (like repeat)
 	}
 
 	private void updateForm() {
-		ampField.setValue(rosette.getPToP());
-		ampSlider.setValue((int)(100.0*rosette.getPToP()));
-		phaseField.setValue(rosette.getPhase());
-		phaseSlider.setValue((int)rosette.getPhase());
-		repeatSpinner.setValue(rosette.getRepeat());
-		styleCombo.setSelectedIndex(rosette.getStyle().ordinal()-1);
+		boolean was = updating;
+		updating = true;		// so the events from the controls don't change the rosette
+		try {
+			ampSlider.setValue((int)(100.0*rosette.getPToP()));
+			ampField.setValue(rosette.getPToP());		// after the slider, which rounds it
+			phaseSlider.setValue((int)rosette.getPhase());
+			phaseField.setValue(rosette.getPhase());
+			repeatSpinner.setValue(rosette.getRepeat());
+			fillStyles();
+			int i = rosette.getStyle().ordinal()-1;
+			styleCombo.setSelectedIndex((i < styleCombo.getItemCount()) ? i : -1);	// none shown for CUSTOM without a profile
+		} finally {
+			updating = was;
+		}
+	}
+
+	/**
+	 * Put the styles in the combo box. Styles.NONE is never used, and Styles.CUSTOM
+	 * (the last style) is only used when a measured profile has been loaded,
+	 * so item i is always style i+1.
+	 */
+	private void fillStyles() {
+		boolean custom = (rosette instanceof RosetteImpl) && (((RosetteImpl) rosette).getProfile() != null);
+		int n = Rosette.Styles.values().length - (custom ? 1 : 2);
+		if (styleCombo.getItemCount() == n) {
+			return;
+		}
+		styleCombo.removeAllItems();
+		for (int i = 1; i <= n; i++) {
+            styleCombo.addItem(Rosette.Styles.values()[i].text);
+		}
 	}
 
     /** This method is called from within the constructor to
@@ -3,8 +3,16 @@ package billooms.penchuck.rosetteeditor;
 
 import billooms.penchuck.rosettemodel.RosetteImpl;
 import billooms.penchuck.rosettemodel.api.Rosette;
+import billooms.penchuck.rosettemodel.engine.Design;
+import billooms.penchuck.rosettemodel.engine.DesignFile;
+import billooms.penchuck.rosettemodel.engine.PassHistory;
+import billooms.penchuck.rosettemodel.engine.RosetteState;
 import java.awt.BorderLayout;
+import java.io.File;
+import java.io.IOException;
 import java.util.logging.Logger;
+import javax.swing.JScrollPane;
+import javax.swing.JTabbedPane;
 import org.openide.util.NbBundle;
 import org.openide.windows.TopComponent;
 import org.openide.windows.WindowManager;
@@ -39,10 +47,14 @@ public final class RosetteEditorTopComponent extends TopComponent {
 	/** path to the icon used by the component and its open action */
 //    static final String ICON_PATH = "SET/PATH/TO/ICON/HERE";
 	private static final String PREFERRED_ID = "RosetteEditorTopComponent";
+	private static final String DESIGN_DIR = "config/PenChuck";	// in the user directory
+	private static final String DESIGN_PREFIX = "rosette";		// a new file each time (the last one may still be mapped)
 
 	private RosetteEditorPanel rosetteEditor;
 	private RosetteDisplayPanel rosetteDisplay;
+	private RosetteGalleryPanel rosetteGallery;
 	public Rosette rosette = new RosetteImpl();
+	public PassHistory history = new PassHistory(rosette);	// edits of the rosette and the passes drawn with it
 
 	public RosetteEditorTopComponent() {
 		initComponents();
@@ -50,8 +62,12 @@ public final class RosetteEditorTopComponent extends TopComponent {
 		rosetteEditor = new RosetteEditorPanel(rosette);
 		add(rosetteEditor, BorderLayout.SOUTH);
 		rosetteDisplay = new RosetteDisplayPanel(rosette);
-		add(rosetteDisplay, BorderLayout.CENTER);
-		this.associateLookup(Lookups.singleton(this.rosette));
+		rosetteGallery = new RosetteGalleryPanel(rosette);
+		JTabbedPane tabs = new JTabbedPane();
+		tabs.addTab(NbBundle.getMessage(RosetteEditorTopComponent.class, "RosetteEditorTopComponent.displayTab"), rosetteDisplay);
+		tabs.addTab(NbBundle.getMessage(RosetteEditorTopComponent.class, "RosetteEditorTopComponent.galleryTab"), new JScrollPane(rosetteGallery));
+		add(tabs, BorderLayout.CENTER);
+		this.associateLookup(Lookups.fixed(this.rosette, this.history));
 
 		setName(NbBundle.getMessage(RosetteEditorTopComponent.class, "CTL_RosetteEditorTopComponent"));
 		setToolTipText(NbBundle.getMessage(RosetteEditorTopComponent.class, "HINT_RosetteEditorTopComponent"));
@@ -114,14 +130,19 @@ public final class RosetteEditorTopComponent extends TopComponent {
 
 	@Override
 	public void componentClosed() {
-		// TODO add custom code on component closing
+		rosetteGallery.dispose();		// stop making thumbnails
 	}
 
 	void writeProperties(java.util.Properties p) {
 		// better to version settings since initial version as advocated at
 		// http://wiki.apidesign.org/wiki/PropertyFiles
-		p.setProperty("version", "1.0");
-		// TODO store your settings
+		p.setProperty("version", "1.1");
+		try {
+			File f = DesignFile.writeNew(getDesignDir(), DESIGN_PREFIX, new Design(rosette), null);	// just the rosette
+			p.setProperty("design", f.getPath());
+		} catch (IOException e) {
+			Logger.getLogger(RosetteEditorTopComponent.class.getName()).warning("Can't save the rosette: " + e.getMessage());
+		}
 	}
 
 	Object readProperties(java.util.Properties p) {
@@ -134,7 +155,25 @@ public final class RosetteEditorTopComponent extends TopComponent {
 
 	private void readPropertiesImpl(java.util.Properties p) {
 		String version = p.getProperty("version");
-		// TODO read your settings according to their version
+		String design = p.getProperty("design");
+		if ("1.1".equals(version) && (design != null) && new File(design).exists()) {
+			try {
+				Rosette r = new DesignFile(new File(design)).getDesign().getRosette();
+				// the rosette is shared with the panels and through lookup, so change it rather than replacing it
+				// (the panels listen to it), and not as an edit that could be undone
+				history.restoreRosette(new RosetteState(r));
+			} catch (IOException e) {
+				Logger.getLogger(RosetteEditorTopComponent.class.getName()).warning("Can't restore the rosette: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Get the directory for saving the rosette between sessions
+	 * @return directory in the user directory
+	 */
+	private static File getDesignDir() {
+		return new File(System.getProperty("netbeans.user", System.getProperty("user.home")), DESIGN_DIR);
 	}
 
 	@Override
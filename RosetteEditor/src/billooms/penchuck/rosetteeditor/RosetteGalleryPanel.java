@@ -0,0 +1,348 @@
+package billooms.penchuck.rosetteeditor;
+
+import billooms.penchuck.rosettemodel.RosetteImpl;
+import billooms.penchuck.rosettemodel.api.Rosette;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.swing.JPanel;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+
+/**
+ * This JPanel shows a thumbnail of every style and repeat with the amplitude and phase of the rosette.
+ * Clicking on a thumbnail sets the style and repeat of the rosette.
+ * Thumbnails are only made for the part of the gallery that is showing. They are made on a pool of
+ * worker threads and kept in a cache of the ones used most recently, so the gallery opens at once
+ * and scrolls without waiting for them. Thumbnails which are scrolled out of sight before a worker
+ * gets to them are skipped.
+ * @author Bill Ooms Copyright (c) 2010 Studio of Bill Ooms all rights reserved
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class RosetteGalleryPanel extends JPanel implements PropertyChangeListener, Scrollable {
+	public final static int MAX_REPEAT = 24;			// repeats shown for each style
+	private final static int THUMB_SIZE = 96;			// pixels on a side
+	private final static int LABEL_HEIGHT = 16;
+	private final static int GAP = 6;
+	private final static int CELL_WIDTH = THUMB_SIZE + GAP;
+	private final static int CELL_HEIGHT = THUMB_SIZE + LABEL_HEIGHT + GAP;
+	private final static int CACHE_SIZE = 600;			// thumbnails kept in memory (about 27 MB)
+	private final static double WINDOW_PERCENT = 0.9;	// use 90% of the thumbnail for the rosette
+	private final static Color PENDING_COLOR = new Color(240, 240, 240);
+	private final static Color SELECTED_COLOR = Color.BLUE;
+
+	private final Rosette rosette;
+	private final Rosette.Styles[] styles;		// styles in the gallery (not NONE or CUSTOM)
+	private final LinkedHashMap<Key, BufferedImage> cache = new LinkedHashMap<Key, BufferedImage>(64, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, BufferedImage> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+	private final HashSet<Key> pending = new HashSet<Key>();	// thumbnails given to a worker
+	private ExecutorService pool = null;
+
+	// what is showing, for the workers to check (set by the event thread)
+	private volatile int firstShown = 0, lastShown = -1;
+	private volatile double pToP, phase;
+
+	/**
+	 * Creates a gallery for a rosette
+	 * @param rosette rosette whose style and repeat are set by clicking on a thumbnail
+	 */
+	public RosetteGalleryPanel(Rosette rosette) {
+		this.rosette = rosette;
+		ArrayList<Rosette.Styles> list = new ArrayList<Rosette.Styles>();
+		for (Rosette.Styles s : Rosette.Styles.values()) {
+			if ((s != Rosette.Styles.NONE) && (s != Rosette.Styles.CUSTOM)) {	// CUSTOM needs a measured profile
+				list.add(s);
+			}
+		}
+		styles = list.toArray(new Rosette.Styles[list.size()]);
+		setBackground(Color.WHITE);
+		rosette.addPropertyChangeListener(this);
+		addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				select(indexAt(e.getPoint()));
+			}
+		});
+	}
+
+	@Override
+	public void paintComponent(Graphics g) {
+		super.paintComponent(g);
+		Rectangle clip = g.getClipBounds();
+		if (clip == null) {
+			clip = new Rectangle(0, 0, getWidth(), getHeight());
+		}
+		int cols = getColumns();
+		int n = getCount();
+		int first = Math.max(clip.y / CELL_HEIGHT, 0) * cols;
+		int last = Math.min(((clip.y + clip.height) / CELL_HEIGHT + 1) * cols, n) - 1;
+		Rectangle view = getVisibleRect();
+		firstShown = (view.y / CELL_HEIGHT) * cols;
+		lastShown = ((view.y + view.height) / CELL_HEIGHT + 1) * cols - 1;
+		pToP = rosette.getPToP();
+		phase = rosette.getPhase();
+		FontMetrics fm = g.getFontMetrics();
+		for (int i = first; i <= last; i++) {
+			int x = (i % cols) * CELL_WIDTH + GAP / 2;
+			int y = (i / cols) * CELL_HEIGHT + GAP / 2;
+			Key key = makeKey(i);
+			BufferedImage image = cache.get(key);
+			if (image != null) {
+				g.drawImage(image, x, y, null);
+			} else {
+				g.setColor(PENDING_COLOR);
+				g.fillRect(x, y, THUMB_SIZE, THUMB_SIZE);
+				request(key, i);
+			}
+			if ((key.style == rosette.getStyle()) && (key.repeat == rosette.getRepeat())) {
+				g.setColor(SELECTED_COLOR);
+				g.drawRect(x - 1, y - 1, THUMB_SIZE + 1, THUMB_SIZE + 1);
+			}
+			String name = key.style.text + " " + key.repeat;
+			g.setColor(Color.BLACK);
+			g.drawString(name, x + (THUMB_SIZE - fm.stringWidth(name)) / 2, y + THUMB_SIZE + fm.getAscent());
+		}
+	}
+
+	@Override
+	public void propertyChange(PropertyChangeEvent evt) {
+		this.repaint();		// new thumbnails if the amplitude or phase changed, otherwise just the selection
+	}
+
+	@Override
+	public Dimension getPreferredSize() {
+		int cols = getColumns();
+		return new Dimension(cols * CELL_WIDTH, ((getCount() + cols - 1) / cols) * CELL_HEIGHT);
+	}
+
+	@Override
+	public Dimension getPreferredScrollableViewportSize() {
+		return new Dimension(4 * CELL_WIDTH, 3 * CELL_HEIGHT);
+	}
+
+	@Override
+	public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+		return (orientation == SwingConstants.VERTICAL) ? CELL_HEIGHT / 4 : CELL_WIDTH / 4;
+	}
+
+	@Override
+	public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+		if (orientation == SwingConstants.VERTICAL) {
+			return Math.max((visibleRect.height / CELL_HEIGHT) * CELL_HEIGHT, CELL_HEIGHT);
+		}
+		return Math.max(visibleRect.width - CELL_WIDTH, CELL_WIDTH);
+	}
+
+	@Override
+	public boolean getScrollableTracksViewportWidth() {
+		return true;		// wrap the thumbnails to the width
+	}
+
+	@Override
+	public boolean getScrollableTracksViewportHeight() {
+		return false;
+	}
+
+	/**
+	 * Stop the workers (they are started again if more thumbnails are needed)
+	 */
+	public void dispose() {
+		if (pool != null) {
+			pool.shutdownNow();
+			pool = null;
+		}
+		pending.clear();
+	}
+
+	/**
+	 * Get the number of thumbnails
+	 * @return styles times repeats
+	 */
+	private int getCount() {
+		return styles.length * MAX_REPEAT;
+	}
+
+	/**
+	 * Get the number of thumbnails across the panel
+	 * @return number of columns
+	 */
+	private int getColumns() {
+		int w = (getParent() != null) ? getParent().getWidth() : getWidth();
+		return Math.max(w / CELL_WIDTH, 1);
+	}
+
+	/**
+	 * Find the thumbnail at a point
+	 * @param p point on the panel
+	 * @return index of the thumbnail, or -1 if there isn't one there
+	 */
+	private int indexAt(Point p) {
+		int cols = getColumns();
+		int col = p.x / CELL_WIDTH;
+		if ((p.x < 0) || (p.y < 0) || (col >= cols)) {
+			return -1;
+		}
+		int i = (p.y / CELL_HEIGHT) * cols + col;
+		return (i < getCount()) ? i : -1;
+	}
+
+	/**
+	 * Set the style and repeat of the rosette to those of a thumbnail
+	 * @param i index of the thumbnail
+	 */
+	private void select(int i) {
+		if (i < 0) {
+			return;
+		}
+		Key key = makeKey(i);
+		rosette.setStyle(key.style);
+		rosette.setRepeat(key.repeat);
+	}
+
+	/**
+	 * Make the key for a thumbnail with the amplitude and phase of the rosette
+	 * @param i index of the thumbnail
+	 * @return key
+	 */
+	private Key makeKey(int i) {
+		return new Key(styles[i / MAX_REPEAT], i % MAX_REPEAT + 1, rosette.getPToP(), rosette.getPhase());
+	}
+
+	/**
+	 * Ask a worker to make a thumbnail (unless one has already been asked)
+	 * @param key parameters of the thumbnail
+	 * @param i index of the thumbnail
+	 */
+	private void request(final Key key, final int i) {
+		if (!pending.add(key)) {
+			return;
+		}
+		if (pool == null) {
+			pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Rosette gallery");
+					t.setDaemon(true);
+					t.setPriority(Thread.MIN_PRIORITY);		// keep the user interface responsive
+					return t;
+				}
+			});
+		}
+		pool.submit(new Runnable() {
+			@Override
+			public void run() {
+				final BufferedImage image = isWanted(key, i) ? makeThumbnail(key) : null;
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						pending.remove(key);
+						if (image != null) {
+							cache.put(key, image);
+						}
+						repaint(cellBounds(i));		// asks again if it was skipped but is showing now
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Check if a thumbnail is still needed (it may have been scrolled away, or the rosette changed)
+	 * @param key parameters of the thumbnail
+	 * @param i index of the thumbnail
+	 * @return true if it is showing
+	 */
+	private boolean isWanted(Key key, int i) {
+		return (i >= firstShown) && (i <= lastShown) && (key.pToP == pToP) && (key.phase == phase);
+	}
+
+	/**
+	 * Get the bounds of a thumbnail and its label
+	 * @param i index of the thumbnail
+	 * @return rectangle on the panel
+	 */
+	private Rectangle cellBounds(int i) {
+		int cols = getColumns();
+		return new Rectangle((i % cols) * CELL_WIDTH, (i / cols) * CELL_HEIGHT, CELL_WIDTH, CELL_HEIGHT);
+	}
+
+	/**
+	 * Draw a rosette on a thumbnail image (this is called by the workers)
+	 * @param key parameters of the rosette
+	 * @return image
+	 */
+	static BufferedImage makeThumbnail(Key key) {
+		BufferedImage image = new BufferedImage(THUMB_SIZE, THUMB_SIZE, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, THUMB_SIZE, THUMB_SIZE);
+		int dpi = (int) (WINDOW_PERCENT * THUMB_SIZE / (2 * (RosetteImpl.DEFAULT_RADIUS + Math.max(key.pToP, 0.0))));
+		new RosetteImpl(key.style, key.repeat, key.pToP, key.phase).draw(g, Math.max(dpi, 1), new Point(THUMB_SIZE / 2, THUMB_SIZE / 2));
+		return image;		// draw() disposes of the graphics
+	}
+
+	/**
+	 * The parameters of a thumbnail
+	 */
+	static class Key {
+		final Rosette.Styles style;
+		final int repeat;
+		final double pToP, phase;
+
+		Key(Rosette.Styles s, int r, double pp, double ph) {
+			this.style = s;
+			this.repeat = r;
+			this.pToP = pp;
+			this.phase = ph;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) obj;
+			return (style == k.style) && (repeat == k.repeat)
+					&& (Double.compare(pToP, k.pToP) == 0) && (Double.compare(phase, k.phase) == 0);
+		}
+
+		@Override
+		public int hashCode() {
+			long bits = Double.doubleToLongBits(pToP) * 31 + Double.doubleToLongBits(phase);
+			return ((style.ordinal() * 131 + repeat) * 31) ^ (int) (bits ^ (bits >>> 32));
+		}
+	}
+}
@@ -0,0 +1,602 @@
+package billooms.penchuck.rosettemodel;
+
+import billooms.penchuck.drawables.AngleStepper;
+import billooms.penchuck.drawables.Curve;
+import billooms.penchuck.drawables.Drawable;
+import billooms.penchuck.drawables.Plus;
+import billooms.penchuck.rosettemodel.api.Rosette;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.vecmath.Point2d;
+
+/**
+ * This describes a stack of rosette wheels on one spindle which are engaged together.
+ * Each layer has its own pattern (style and repeat), peak-to-peak and phase.
+ * The layers are either added together or multiplied together.
+ * Whenever a layer changes, the combined amplitude is sampled once into a table
+ * whose number of points is a multiple of every repeat (the least common multiple),
+ * so each layer's pattern only has to be calculated for one repeat and then copied around.
+ * After that, getAmplitudeAt() is a table lookup no matter how many layers there are.
+ * The Rosette methods (setStyle, setRepeat, setPToP, setPhase, etc.) act on the selected layer.
+ * @author Bill Ooms Copyright (c) 2010 Studio of Bill Ooms all rights reserved
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class CompoundRosette implements Rosette {
+	public final static String PROP_LAYERS = "layers";
+	public final static String PROP_COMBINE = "combine";
+	public final static String PROP_SELECTED = "selected";
+	private final static int MIN_TABLE_PTS = 3600;		// minimum number of points in the table
+	private final static int MAX_TABLE_PTS = 1 << 20;	// maximum number of points in the table
+	private final static int OUTLINE_PTS = 720;			// number of points for drawing the outline
+
+	/**
+	 * This defines how the layers are combined
+	 */
+	public enum Combine {
+		SUM("Sum"),				// add the amplitude of each layer
+		PRODUCT("Product");		// multiply the amplitude of each layer
+
+		public String text;
+
+		private Combine(String s) {
+			text = s;
+		}
+	}
+
+	/**
+	 * One rosette in the stack
+	 */
+	private static class Layer {
+		Pattern pattern;
+		double pToP;
+		double phase;
+
+		Layer(Styles st, int rep, double pp, double ph) {
+			pattern = new Pattern(st, rep);
+			pToP = pp;
+			phase = ph;
+		}
+	}
+
+	/* Information for drawing */
+    private final static BasicStroke SOLID_LINE = new BasicStroke(1.0f);
+    private final static BasicStroke DOT_LINE = new BasicStroke(1.0f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_BEVEL, 10, new float[]{3, 3}, 0);
+    private final static Color OUTLINE_COLOR = Color.BLACK;
+    private final static Color RADIUS_COLOR = Color.BLUE;
+
+	private final ArrayList<Layer> layers = new ArrayList<Layer>();
+	private int selected = 0;				// index of the layer changed by setStyle, setRepeat, etc.
+	private Combine combine = Combine.SUM;
+	private double pumpAmp = DEFAULT_PUMP_AMP;
+	private double pumpPhase = DEFAULT_PUMP_PH;
+	private SampledProfile table;			// combined amplitude around one revolution
+	private double maxAmp;					// largest value in the table
+
+    private final double nomRadius = RosetteImpl.DEFAULT_RADIUS;	// nominal (reference) radius of the rosette
+    private final Point2d center = new Point2d(0.0, 0.0);   // center of the rosette is always 0.0, 0.0
+    private ArrayList<Drawable> drawList = new ArrayList<Drawable>();
+	private PropertyChangeSupport pss = new PropertyChangeSupport(this);
+
+	/**
+	 * Define a stack of rosettes with a single layer
+	 * @param st Style
+	 * @param rep Repeat
+	 * @param pp Peak-to-Peak
+	 * @param ph Phase in degrees, where 360 means one pattern repeat
+	 */
+	public CompoundRosette(Styles st, int rep, double pp, double ph) {
+		layers.add(new Layer(st, rep, pp, angleCheck(ph)));
+		update();
+	}
+
+	/**
+	 * Define a stack of rosettes with a single layer of default values
+	 */
+	public CompoundRosette() {
+		this(DEFAULT_STYLE, DEFAULT_REPEAT, DEFAULT_PTOP, DEFAULT_PHASE);
+	}
+
+	/**
+	 * Add a layer to the stack (and select it)
+	 * @param st Style
+	 * @param rep Repeat
+	 * @param pp Peak-to-Peak
+	 * @param ph Phase in degrees, where 360 means one pattern repeat
+	 */
+	public void addLayer(Styles st, int rep, double pp, double ph) {
+		int old = layers.size();
+		layers.add(new Layer(st, rep, pp, angleCheck(ph)));
+		selected = layers.size() - 1;
+		update();
+		this.pss.firePropertyChange(PROP_LAYERS, old, layers.size());
+	}
+
+	/**
+	 * Remove a layer from the stack (there is always at least one layer)
+	 * @param i index of the layer
+	 */
+	public void removeLayer(int i) {
+		if ((layers.size() <= 1) || (i < 0) || (i >= layers.size())) {
+			return;
+		}
+		int old = layers.size();
+		layers.remove(i);
+		selected = Math.min(selected, layers.size() - 1);
+		update();
+		this.pss.firePropertyChange(PROP_LAYERS, old, layers.size());
+	}
+
+	/**
+	 * Get the number of layers
+	 * @return number of layers
+	 */
+	public int getLayerCount() {
+		return layers.size();
+	}
+
+	/**
+	 * Get the style of a layer
+	 * @param i index of the layer
+	 * @return style
+	 */
+	public Styles getLayerStyle(int i) {
+		return layers.get(i).pattern.getStyle();
+	}
+
+	/**
+	 * Get the number of repeats of a layer
+	 * @param i index of the layer
+	 * @return number of repeats
+	 */
+	public int getLayerRepeat(int i) {
+		return layers.get(i).pattern.getRepeat();
+	}
+
+	/**
+	 * Get the peak-to-peak amplitude of a layer
+	 * @param i index of the layer
+	 * @return peak-to-peak amplitude
+	 */
+	public double getLayerPToP(int i) {
+		return layers.get(i).pToP;
+	}
+
+	/**
+	 * Get the phase of a layer
+	 * @param i index of the layer
+	 * @return phase in degrees, where 360 means one pattern repeat
+	 */
+	public double getLayerPhase(int i) {
+		return layers.get(i).phase;
+	}
+
+	/**
+	 * Get the index of the layer that is changed by setStyle, setRepeat, setPToP and setPhase
+	 * @return index of the selected layer
+	 */
+	public int getSelectedLayer() {
+		return selected;
+	}
+
+	/**
+	 * Select the layer that is changed by setStyle, setRepeat, setPToP and setPhase
+	 * @param i index of the layer
+	 */
+	public void setSelectedLayer(int i) {
+		int old = selected;
+		selected = Math.max(0, Math.min(i, layers.size() - 1));
+		this.pss.firePropertyChange(PROP_SELECTED, old, selected);
+	}
+
+	/**
+	 * Get how the layers are combined
+	 * @return SUM or PRODUCT
+	 */
+	public Combine getCombine() {
+		return combine;
+	}
+
+	/**
+	 * Set how the layers are combined.
+	 * For PRODUCT, a layer with peak-to-peak of 1.0 acts as a mask on the other layers.
+	 * @param c SUM or PRODUCT
+	 */
+	public void setCombine(Combine c) {
+		Combine old = combine;
+		combine = c;
+		update();
+		this.pss.firePropertyChange(PROP_COMBINE, old, c);
+	}
+
+	/**
+	 * Get the name of the rosette (STYLE + REPEAT of each layer)
+	 * @return the name of the rosette
+	 */
+	@Override
+	public String getName() {
+		String sep = (combine == Combine.SUM) ? " + " : " * ";
+		StringBuilder name = new StringBuilder();
+		for (Layer layer : layers) {
+			if (name.length() > 0) {
+				name.append(sep);
+			}
+			name.append(layer.pattern.getName()).append(layer.pattern.getRepeat());
+		}
+		return name.toString();
+	}
+
+	/**
+	 * Get the style of the selected layer
+	 * @return style of the selected layer
+	 */
+	@Override
+	public Styles getStyle() {
+		return layers.get(selected).pattern.getStyle();
+	}
+
+	/**
+	 * Set the style of the selected layer
+	 * @param s integer number for Styles.values()[]
+	 */
+	@Override
+	public void setStyle(int s) {
+		setStyle(Styles.values()[s]);
+	}
+
+	/**
+	 * Set the style of the selected layer
+	 * @param s one of the Styles
+	 */
+	@Override
+	public void setStyle(Styles s) {
+		Layer layer = layers.get(selected);
+		Styles old = layer.pattern.getStyle();
+		layer.pattern.setStyle(s);
+		update();
+		this.pss.firePropertyChange(RosetteImpl.PROP_STYLE, old, s);
+	}
+
+	/**
+	 * Get the number of repeats of the selected layer
+	 * @return number of repeats
+	 */
+	@Override
+	public int getRepeat() {
+		return layers.get(selected).pattern.getRepeat();
+	}
+
+	/**
+	 * Get the number of identical sections around the rosette.
+	 * This is the greatest common divisor of the repeats of all the layers.
+	 * @return number of identical sections
+	 */
+	@Override
+	public int getSymmetry() {
+		long sym = 0;
+		for (Layer layer : layers) {
+			sym = gcd(sym, layer.pattern.getRepeat());
+		}
+		return (int) Math.max(sym, 1);
+	}
+
+	/**
+	 * Set the number of repeats of the selected layer
+	 * @param n number of repeats
+	 */
+	@Override
+	public void setRepeat(int n) {
+		Layer layer = layers.get(selected);
+		int old = layer.pattern.getRepeat();
+		layer.pattern.setRepeat(n);
+		update();
+		this.pss.firePropertyChange(RosetteImpl.PROP_REPEAT, old, n);
+	}
+
+	/**
+	 * Get the peak-to-peak amplitude of the selected layer
+	 * @return peak-to-peak amplitude
+	 */
+	@Override
+	public double getPToP() {
+		return layers.get(selected).pToP;
+	}
+
+	/**
+	 * Set the peak-to-peak amplitude of the selected layer
+	 * @param p peak-to-peak amplitude
+	 */
+	@Override
+	public void setPToP(double p) {
+		Layer layer = layers.get(selected);
+		double old = layer.pToP;
+		layer.pToP = p;
+		update();
+		this.pss.firePropertyChange(RosetteImpl.PROP_AMP, old, p);
+	}
+
+	/**
+	 * Get the phase of the selected layer
+	 * @return phase in degrees: 180 means 1/2 of the repeat, 90 means 1/4 of the repeat, etc.
+	 */
+	@Override
+	public double getPhase() {
+		return layers.get(selected).phase;
+	}
+
+	/**
+	 * Set the phase of the selected layer
+	 * @param ph phase in degrees: 180 means 1/2 of the repeat, 90 means 1/4 of the repeat, etc.
+	 */
+	@Override
+	public void setPhase(double ph) {
+		Layer layer = layers.get(selected);
+		double old = layer.phase;
+		layer.phase = angleCheck(ph);
+		update();
+		this.pss.firePropertyChange(RosetteImpl.PROP_PHASE, old, ph);
+	}
+
+	/**
+	 * Get the peak-to-peak amplitude of the pumping (axial) motion
+	 * @return peak-to-peak pumping amplitude
+	 */
+	@Override
+	public double getPumpAmp() {
+		return pumpAmp;
+	}
+
+	/**
+	 * Set the peak-to-peak amplitude of the pumping (axial) motion.
+	 * The pumping follows the shape of the combined rosette.
+	 * @param p peak-to-peak pumping amplitude
+	 */
+	@Override
+	public void setPumpAmp(double p) {
+		double old = this.pumpAmp;
+		this.pumpAmp = p;
+		this.pss.firePropertyChange(RosetteImpl.PROP_PUMP_AMP, old, p);
+	}
+
+	/**
+	 * Get the phase of the pumping (axial) motion, measured the same way as the phase of the first layer
+	 * @return phase in degrees relative to one repeat of the first layer
+	 */
+	@Override
+	public double getPumpPhase() {
+		return pumpPhase;
+	}
+
+	/**
+	 * Set the phase of the pumping (axial) motion, measured the same way as the phase of the first layer.
+	 * The pumping is in step with the rocking when this is the same as the phase of the first layer.
+	 * @param ph phase in degrees relative to one repeat of the first layer
+	 */
+	@Override
+	public void setPumpPhase(double ph) {
+		double old = this.pumpPhase;
+		this.pumpPhase = angleCheck(ph);
+		this.pss.firePropertyChange(RosetteImpl.PROP_PUMP_PHASE, old, ph);
+	}
+
+	/**
+	 * Get the outline of the rosette (the same as is drawn, without the reference circle), e.g. for export
+	 * @return unmodifiable list of drawables
+	 */
+	@Override
+	public List<Drawable> getDrawables() {
+		return Collections.unmodifiableList(drawList);
+	}
+
+	/**
+	 * Draw the rosette at a given DPI
+	 * @param g Graphic context
+	 * @param dpi desired dots per inch on the screen
+	 * @param zPix desired zero position on the screen
+	 */
+	@Override
+	public void draw(Graphics g, int dpi, Point zPix) {
+        Graphics2D g2d = (Graphics2D) g;
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setStroke(SOLID_LINE);
+
+        for (Drawable item : drawList) {	// paint everything in the drawlist
+            item.paint(g, dpi, zPix);
+        }
+
+        g2d.setPaint(RADIUS_COLOR);			// draw the inner reference circle
+        g2d.setStroke(DOT_LINE);
+        g2d.draw(new Ellipse2D.Double(zPix.x + (int) ((center.x - nomRadius) * dpi),
+				zPix.y - (int) ((center.y + nomRadius) * dpi),
+				2 * dpi * nomRadius, 2 * dpi * nomRadius));
+        g2d.dispose();
+	}
+
+	/**
+	 * Get the amplitude (offset from nominal radius) of the combined rosette at a given angle in degrees.
+	 * @param ang Angle in degrees around the rosette
+	 * @return amplitude (a positive number for positive peak-to-peak values)
+	 */
+	@Override
+	public double getAmplitudeAt(double ang) {
+		return table.getValue(ang);
+	}
+
+	/**
+	 * Get the rocking and pumping motion at equally spaced angles in a single pass.
+	 * @param startAng first angle in degrees
+	 * @param dAng angle between samples in degrees
+	 * @param rock array to be filled with the rocking amplitude
+	 * @param pump array to be filled with the pumping amplitude (0.0 to pumpAmp), or null if not needed
+	 */
+	@Override
+	public void getMotionAt(double startAng, double dAng, double[] rock, double[] pump) {
+		boolean pumping = (pump != null) && (pumpAmp != 0.0) && (maxAmp > 0.0);
+		Layer first = layers.get(0);
+		double pumpShift = (pumpPhase - first.phase) / first.pattern.getRepeat();	// degrees around the rosette
+		double pumpScale = pumping ? pumpAmp / maxAmp : 0.0;
+		for (int i = 0; i < rock.length; i++) {
+			double ang = startAng + i * dAng;
+			rock[i] = table.getValue(ang);
+			if (pump != null) {
+				pump[i] = pumping ? pumpScale * table.getValue(ang + pumpShift) : 0.0;
+			}
+		}
+	}
+
+	/**
+	 * Add a property change listener for the rosette
+	 * @param listener
+	 */
+	@Override
+	public void addPropertyChangeListener(PropertyChangeListener listener) {
+		this.pss.addPropertyChangeListener(listener);
+	}
+
+	/**
+	 * Remove the given property change listener
+	 * @param listener
+	 */
+	@Override
+	public void removePropertyChangeListener(PropertyChangeListener listener) {
+		this.pss.removePropertyChangeListener(listener);
+	}
+
+	/**
+	 * Sample the combined rosette into the table and remake the drawing
+	 */
+	private void update() {
+		makeTable();
+		makeDrawables();
+	}
+
+	/**
+	 * Sample the combined amplitude around one revolution.
+	 * The number of points is a multiple of every layer's repeat,
+	 * so each layer is calculated for one repeat and copied to the others.
+	 */
+	private void makeTable() {
+		long lcm = 1;
+		for (Layer layer : layers) {
+			lcm = lcm(lcm, layer.pattern.getRepeat());
+			if (lcm > MAX_TABLE_PTS) {
+				break;
+			}
+		}
+		int n;
+		if (lcm > MAX_TABLE_PTS) {
+			n = MAX_TABLE_PTS;		// repeats won't land on whole samples, but it is still close
+		} else {
+			n = (int) (lcm * ((MIN_TABLE_PTS + lcm - 1) / lcm));
+		}
+
+		double[] amp = new double[n];
+		double[] layerAmp = new double[n];
+		for (int k = 0; k < layers.size(); k++) {
+			Layer layer = layers.get(k);
+			int rpt = layer.pattern.getRepeat();
+			double ptsPerRepeat = (double) n / rpt;
+			int period = (n % rpt == 0) ? n / rpt : n;		// calculate one repeat if it lands on whole samples
+			double shift = layer.phase / 360.0;
+			for (int j = 0; j < period; j++) {
+				double x = j / ptsPerRepeat + shift;		// repeats into the pattern
+				layerAmp[j] = layer.pToP * layer.pattern.getValue(x - Math.floor(x));
+			}
+			for (int j = period; j < n; j++) {
+				layerAmp[j] = layerAmp[j - period];
+			}
+			for (int j = 0; j < n; j++) {
+				if (k == 0) {
+					amp[j] = layerAmp[j];
+				} else if (combine == Combine.SUM) {
+					amp[j] += layerAmp[j];
+				} else {
+					amp[j] *= layerAmp[j];
+				}
+			}
+		}
+		maxAmp = 0.0;
+		for (int j = 0; j < n; j++) {
+			maxAmp = Math.max(maxAmp, amp[j]);
+		}
+		table = new SampledProfile(amp);
+	}
+
+    /**
+     * Make the rosette appearance based on the combined table
+     */
+	private void makeDrawables() {
+        drawList.clear();			// clear out the old drawlist
+        drawList.add(new Plus(center, RADIUS_COLOR)); // always draw a center mark
+
+		Point2d[] pts = new Point2d[OUTLINE_PTS + 1];
+		double dAngle = 360.0 / OUTLINE_PTS;
+		AngleStepper rot = new AngleStepper(0.0, dAngle);
+		for (int i = 0; i <= OUTLINE_PTS; i++) {
+			double r = nomRadius - table.getValue(i * dAngle);
+			pts[i] = new Point2d(r * rot.cos(), r * rot.sin());
+			rot.next();
+		}
+		drawList.add(new Curve(pts, OUTLINE_COLOR));
+	}
+
+	/**
+	 * Make sure angle is in range 0.0 <= a < 360.0.
+	 * One remainder is used, so it takes the same time however many turns the angle is (e.g. a long geared pass).
+	 * @param a angle in degrees
+	 * @return angle in range 0.0 <= a < 360.0
+	 */
+	private static double angleCheck(double a) {
+		a %= 360.0;			// exact, and between -360 and 360
+		if (a < 0.0) {
+			a += 360.0;
+		}
+		return (a >= 360.0) ? 0.0 : a;	// a tiny negative angle rounds up to 360
+	}
+
+	/**
+	 * Least common multiple
+	 * @param a first number
+	 * @param b second number
+	 * @return least common multiple of a and b
+	 */
+	private static long lcm(long a, long b) {
+		return a / gcd(a, b) * b;
+	}
+
+	/**
+	 * Greatest common divisor
+	 * @param a first number
+	 * @param b second number
+	 * @return greatest common divisor of a and b
+	 */
+	private static long gcd(long a, long b) {
+		while (b != 0) {
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+}
@@ -0,0 +1,355 @@
+package billooms.penchuck.rosettemodel;
+
+import billooms.penchuck.rosettemodel.api.Rosette;
+
+/**
+ * A periodic profile (such as a rosette pattern) written as a truncated Fourier series
+ * around one revolution:
+ * f(ang) = a[0] + sum over k of a[k]*cos(k*F*ang) + b[k]*sin(k*F*ang)
+ * where F is the fundamental (number of cycles per revolution of the first harmonic).
+ * A pattern with N repeats only has harmonics that are multiples of N, so F = N.
+ * In this form, a phase shift, a change of peak-to-peak, and adding stacked rosettes
+ * are all simple operations on the coefficients,
+ * and a whole revolution can be evaluated at once with an inverse FFT.
+ * @author Bill Ooms Copyright (c) 2010 Studio of Bill Ooms all rights reserved
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class FourierSeries {
+	public final static int DEFAULT_SAMPLES = 4096;		// samples used to find the coefficients (power of 2)
+	public final static double DEFAULT_TOLERANCE = 0.001;
+
+	private final double[] a;		// cosine coefficients (a[0] is the average value)
+	private final double[] b;		// sine coefficients (b[0] is always 0.0)
+	private final int fundamental;	// cycles per revolution of harmonic 1
+
+	/**
+	 * A Fourier series with the given coefficients (the arrays are kept, not copied)
+	 * @param a cosine coefficients (a[0] is the average value)
+	 * @param b sine coefficients (same length as a)
+	 * @param fundamental cycles per revolution of harmonic 1
+	 */
+	public FourierSeries(double[] a, double[] b, int fundamental) {
+		if ((a.length == 0) || (a.length != b.length) || (fundamental < 1)) {
+			throw new IllegalArgumentException("Bad Fourier coefficients");
+		}
+		this.a = a;
+		this.b = b;
+		this.fundamental = fundamental;
+	}
+
+	/**
+	 * Make the Fourier series for a pattern (values 0.0 to 1.0 for each repeat).
+	 * This works for any style, including the composite ones like BIGSMALL and TUDOR.
+	 * @param p Pattern
+	 * @param tol maximum error allowed at the sample points
+	 * @return Fourier series with as few harmonics as meet the tolerance
+	 */
+	public static FourierSeries fromPattern(Pattern p, double tol) {
+		double[] x = new double[DEFAULT_SAMPLES];
+		for (int j = 0; j < x.length; j++) {		// one repeat of the pattern
+			x[j] = p.getValue((double) j / x.length);
+		}
+		return fromSamples(x, p.getRepeat(), tol);
+	}
+
+	/**
+	 * Make the Fourier series for the amplitude of a rosette around one revolution.
+	 * This works for any kind of rosette, including a CompoundRosette.
+	 * @param r Rosette
+	 * @param tol maximum error allowed at the sample points
+	 * @return Fourier series with as few harmonics as meet the tolerance
+	 */
+	public static FourierSeries fromRosette(Rosette r, double tol) {
+		double[] x = new double[DEFAULT_SAMPLES];
+		r.getMotionAt(0.0, 360.0 / x.length, x, null);
+		return fromSamples(x, 1, tol);
+	}
+
+	/**
+	 * Make a Fourier series from equally spaced samples of one period.
+	 * The number of harmonics is doubled until the series matches every sample within tol.
+	 * @param x samples of one period (length must be a power of 2)
+	 * @param fundamental number of periods per revolution
+	 * @param tol maximum error allowed at the sample points
+	 * @return Fourier series
+	 */
+	public static FourierSeries fromSamples(double[] x, int fundamental, double tol) {
+		int n = x.length;
+		if (Integer.bitCount(n) != 1) {
+			throw new IllegalArgumentException("Number of samples must be a power of 2");
+		}
+		double[] re = x.clone();
+		double[] im = new double[n];
+		fft(re, im, false);
+		int maxK = n / 2;
+		double[] aAll = new double[maxK + 1];
+		double[] bAll = new double[maxK + 1];
+		aAll[0] = re[0] / n;
+		for (int k = 1; k < maxK; k++) {
+			aAll[k] = 2.0 * re[k] / n;
+			bAll[k] = -2.0 * im[k] / n;
+		}
+		aAll[maxK] = re[maxK] / n;
+
+		int k = 1;
+		while (true) {		// find the fewest harmonics that meet the tolerance
+			double[] aK = new double[k + 1];
+			double[] bK = new double[k + 1];
+			System.arraycopy(aAll, 0, aK, 0, k + 1);
+			System.arraycopy(bAll, 0, bK, 0, k + 1);
+			FourierSeries fs = new FourierSeries(aK, bK, fundamental);
+			if (k >= maxK) {
+				return fs;
+			}
+			double[] y = fs.evaluatePeriod(n);
+			double err = 0.0;
+			for (int j = 0; j < n; j++) {
+				err = Math.max(err, Math.abs(y[j] - x[j]));
+			}
+			if (err <= tol) {
+				return fs;
+			}
+			k = Math.min(2 * k, maxK);
+		}
+	}
+
+	/**
+	 * Get the number of harmonics (not counting the average value)
+	 * @return number of harmonics
+	 */
+	public int getSize() {
+		return a.length - 1;
+	}
+
+	/**
+	 * Get the fundamental
+	 * @return cycles per revolution of harmonic 1
+	 */
+	public int getFundamental() {
+		return fundamental;
+	}
+
+	/**
+	 * Get a cosine coefficient
+	 * @param k harmonic number (0 is the average value)
+	 * @return coefficient
+	 */
+	public double getA(int k) {
+		return a[k];
+	}
+
+	/**
+	 * Get a sine coefficient
+	 * @param k harmonic number
+	 * @return coefficient
+	 */
+	public double getB(int k) {
+		return b[k];
+	}
+
+	/**
+	 * Get the value at a given angle.
+	 * Only one cos and sin are calculated; the harmonics come from the angle-addition formulas.
+	 * @param ang angle in degrees around the revolution
+	 * @return value
+	 */
+	public double getValue(double ang) {
+		double t = Math.toRadians(ang) * fundamental;
+		double c1 = Math.cos(t), s1 = Math.sin(t);
+		double ck = 1.0, sk = 0.0;
+		double sum = a[0];
+		for (int k = 1; k < a.length; k++) {
+			double c = ck * c1 - sk * s1;
+			sk = sk * c1 + ck * s1;
+			ck = c;
+			sum += a[k] * ck + b[k] * sk;
+		}
+		return sum;
+	}
+
+	/**
+	 * Get the values at n equally spaced angles around one revolution (starting at 0 degrees).
+	 * If n is a power of 2 and is big enough for the highest harmonic, an inverse FFT is used.
+	 * @param n number of points
+	 * @return array of values
+	 */
+	public double[] evaluate(int n) {
+		int top = getSize() * fundamental;		// highest frequency in cycles per revolution
+		if ((Integer.bitCount(n) == 1) && (n > 2 * top)) {
+			double[] re = new double[n];
+			double[] im = new double[n];
+			re[0] = a[0];
+			for (int k = 1; k < a.length; k++) {
+				re[k * fundamental] = a[k];
+				im[k * fundamental] = -b[k];
+			}
+			fft(re, im, true);
+			return re;
+		}
+		double[] y = new double[n];
+		for (int j = 0; j < n; j++) {
+			y[j] = getValue(360.0 * j / n);
+		}
+		return y;
+	}
+
+	/**
+	 * Get the values at n equally spaced points over one period (i.e. one repeat) using an inverse FFT
+	 * @param n number of points (a power of 2 and more than twice the number of harmonics)
+	 * @return array of values
+	 */
+	private double[] evaluatePeriod(int n) {
+		double[] re = new double[n];
+		double[] im = new double[n];
+		re[0] = a[0];
+		for (int k = 1; k < a.length; k++) {
+			re[k] = a[k];
+			im[k] = -b[k];
+		}
+		fft(re, im, true);
+		return re;
+	}
+
+	/**
+	 * Make a new series scaled by a constant (i.e. to change peak-to-peak)
+	 * @param s scale factor
+	 * @return new FourierSeries
+	 */
+	public FourierSeries scale(double s) {
+		double[] a2 = new double[a.length];
+		double[] b2 = new double[b.length];
+		for (int k = 0; k < a.length; k++) {
+			a2[k] = s * a[k];
+			b2[k] = s * b[k];
+		}
+		return new FourierSeries(a2, b2, fundamental);
+	}
+
+	/**
+	 * Make a new series shifted by an angle, so that the new value at ang is the old value at ang + shift.
+	 * This is the same sense as the phase of a rosette (where the shift is phase/repeat).
+	 * @param shift angle in degrees around the revolution
+	 * @return new FourierSeries
+	 */
+	public FourierSeries shift(double shift) {
+		double t = Math.toRadians(shift) * fundamental;
+		double c1 = Math.cos(t), s1 = Math.sin(t);
+		double ck = 1.0, sk = 0.0;
+		double[] a2 = new double[a.length];
+		double[] b2 = new double[b.length];
+		a2[0] = a[0];
+		for (int k = 1; k < a.length; k++) {
+			double c = ck * c1 - sk * s1;
+			sk = sk * c1 + ck * s1;
+			ck = c;
+			a2[k] = a[k] * ck + b[k] * sk;
+			b2[k] = b[k] * ck - a[k] * sk;
+		}
+		return new FourierSeries(a2, b2, fundamental);
+	}
+
+	/**
+	 * Make a new series which is the sum of this and another (i.e. stacked rosettes)
+	 * @param other another FourierSeries
+	 * @return new FourierSeries
+	 */
+	public FourierSeries add(FourierSeries other) {
+		int f = gcd(fundamental, other.fundamental);
+		int top = Math.max(getSize() * fundamental, other.getSize() * other.fundamental) / f;
+		double[] a2 = new double[top + 1];
+		double[] b2 = new double[top + 1];
+		addInto(this, a2, b2, f);
+		addInto(other, a2, b2, f);
+		return new FourierSeries(a2, b2, f);
+	}
+
+	/**
+	 * Add the coefficients of a series into arrays with a smaller fundamental
+	 * @param fs FourierSeries to add
+	 * @param a2 cosine coefficients to add to
+	 * @param b2 sine coefficients to add to
+	 * @param f fundamental of a2 and b2 (a divisor of fs.fundamental)
+	 */
+	private static void addInto(FourierSeries fs, double[] a2, double[] b2, int f) {
+		int step = fs.fundamental / f;
+		a2[0] += fs.a[0];
+		for (int k = 1; k < fs.a.length; k++) {
+			a2[k * step] += fs.a[k];
+			b2[k * step] += fs.b[k];
+		}
+	}
+
+	/**
+	 * Greatest common divisor
+	 * @param x first number
+	 * @param y second number
+	 * @return greatest common divisor of x and y
+	 */
+	private static int gcd(int x, int y) {
+		while (y != 0) {
+			int t = x % y;
+			x = y;
+			y = t;
+		}
+		return x;
+	}
+
+	/**
+	 * In-place radix-2 FFT.
+	 * The forward transform is X[k] = sum of x[j]*exp(-2*pi*i*j*k/n).
+	 * The inverse transform uses exp(+2*pi*i*j*k/n) and is not divided by n.
+	 * @param re real parts (length must be a power of 2)
+	 * @param im imaginary parts
+	 * @param inverse true for the inverse transform
+	 */
+	private static void fft(double[] re, double[] im, boolean inverse) {
+		int n = re.length;
+		for (int i = 1, j = 0; i < n; i++) {		// bit reversal permutation
+			int bit = n >> 1;
+			for (; (j & bit) != 0; bit >>= 1) {
+				j ^= bit;
+			}
+			j ^= bit;
+			if (i < j) {
+				double t = re[i];
+				re[i] = re[j];
+				re[j] = t;
+				t = im[i];
+				im[i] = im[j];
+				im[j] = t;
+			}
+		}
+		for (int len = 2; len <= n; len <<= 1) {
+			double ang = 2.0 * Math.PI / len * (inverse ? 1.0 : -1.0);
+			double wRe = Math.cos(ang), wIm = Math.sin(ang);
+			int half = len >> 1;
+			for (int i = 0; i < n; i += len) {
+				double uRe = 1.0, uIm = 0.0;
+				for (int k = 0; k < half; k++) {
+					int p = i + k, q = p + half;
+					double tRe = re[q] * uRe - im[q] * uIm;
+					double tIm = re[q] * uIm + im[q] * uRe;
+					re[q] = re[p] - tRe;
+					im[q] = im[p] - tIm;
+					re[p] += tRe;
+					im[p] += tIm;
+					double u = uRe * wRe - uIm * wIm;
+					uIm = uRe * wIm + uIm * wRe;
+					uRe = u;
+				}
+			}
+		}
+	}
+}
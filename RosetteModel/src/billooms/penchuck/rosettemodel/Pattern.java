@@ -7,6 +7,7 @@ import billooms.penchuck.rosettemodel.api.Rosette.Styles;
  * A pattern has an amplitude ranging from 0.0 to 1.0 for an input index of 0.0 to 1.0
  * Various patterns can be added, generally based on a formula description,
  * although other approaches (like table lookup and interpolation) could be used as well.
+ * Styles.CUSTOM uses a ProfileTable of measured samples.
  * @author Bill Ooms Copyright (c) 2010 Studio of Bill Ooms all rights reserved
  * 
  * This program is free software: you can redistribute it and/or modify
@@ -26,6 +27,9 @@ public class Pattern {
 
     private Styles style;	// style of the pattern
     private int repeat;     // How many times the pattern is repeated per revolution
+	private ProfileTable profile = null;	// measured profile used for Styles.CUSTOM
+	private Circles circles = null;		// circle geometry of the last repeat used (N-Sided, Flower, small BigSmall)
+	private Circles bigCircles = null;	// circle geometry of the big flower of BigSmall
 
     /**
      * The pattern style is defined by the enclosed enum.
@@ -63,6 +67,22 @@ public class Pattern {
 		setRepeat(repeat);
     }
 
+	/**
+	 * Get the measured profile used for Styles.CUSTOM
+	 * @return profile (null if none has been given)
+	 */
+	public ProfileTable getProfile() {
+		return profile;
+	}
+
+	/**
+	 * Set the measured profile used for Styles.CUSTOM
+	 * @param t profile (null for none, which gives a flat pattern)
+	 */
+	public void setProfile(ProfileTable t) {
+		profile = t;
+	}
+
 	/**
 	 * Get the number of repeats for the pattern
 	 * @return number of repeats
@@ -115,6 +135,71 @@ public class Pattern {
 		return getValue(style, repeat, n);
 	}
 
+    /**
+     * Get the values for many inputs at once (for instance a whole revolution).
+     * The result is exactly the same as calling getValue for each input, but the
+     * choice of style is made once and anything that only depends on the style and repeat
+     * (such as the circle geometry of N-Sided & Flower) is calculated once rather than for every input.
+     * @param n array of values representing the fraction of the distance into the pattern
+     * @param z array to be filled with the output values (this can be the same array as n)
+     * @param len number of values
+     */
+    public void getValues(double[] n, double[] z, int len) {
+		switch (style) {
+			case NSIDE:
+				Circles side = getCircles(repeat);
+				for (int i = 0; i < len; i++) {
+					z[i] = side.nSide(wrap(n[i]));
+				}
+				break;
+			case FLOWER:
+				Circles petal = getCircles(repeat);
+				for (int i = 0; i < len; i++) {
+					z[i] = petal.flower(wrap(n[i]));
+				}
+				break;
+			case BIGSMALL:
+			case BIGSMALL_:
+				Circles small = getCircles(repeat*3);
+				Circles big = getBigCircles(repeat*3/2);
+				boolean inverse = (style == Styles.BIGSMALL_);
+				for (int i = 0; i < len; i++) {
+					z[i] = bigSmall(wrap(n[i]), small, big, inverse);
+				}
+				break;
+			case SINE:
+				for (int i = 0; i < len; i++) {
+					z[i] = sine(wrap(n[i]));
+				}
+				break;
+			case HEART:
+				for (int i = 0; i < len; i++) {
+					z[i] = heart(wrap(n[i]));
+				}
+				break;
+			case LOTUS:
+				for (int i = 0; i < len; i++) {
+					z[i] = lotus(wrap(n[i]));
+				}
+				break;
+			case TRIANGLE:
+				for (int i = 0; i < len; i++) {
+					z[i] = triangle(wrap(n[i]));
+				}
+				break;
+			case TUDOR:
+				for (int i = 0; i < len; i++) {
+					z[i] = tudor(wrap(n[i]));
+				}
+				break;
+			default:
+				for (int i = 0; i < len; i++) {
+					z[i] = getValue(style, repeat, n[i]);
+				}
+				break;
+		}
+	}
+
     /**
      * A pattern is like an x-y plot with input x ranging from 0.0 to 1.0,
      * and output value ranging from 0.0 to 1.0.
@@ -127,13 +212,8 @@ public class Pattern {
      * @return A value from 0.0 to 1.0 representing the output value.
 	 */
     private double getValue(Styles st, int rpt, double n) {
-        double z, xx, yy, alphaRad, tanTheta, c2, maxP, p, s, rPrime, dr, minS;
-        while (n < 0.0) {		// wrap around for values outside of range 0.0 to 1.0
-            n += 1.0;
-        }
-        while (n > 1.0) {
-            n -= 1.0;
-        }
+        double z;
+        n = wrap(n);
         switch (st) {
 			case NONE:
 				z = 0.0;
@@ -145,75 +225,33 @@ public class Pattern {
 					z = 0.0;
 				}
 				break;
-            case SINE:                          // easy for a simple sine wave offset to give 0.0 to 1.0
-                z = 0.5 + 0.5 * Math.cos(n * 2.0 * Math.PI);
+            case SINE:
+                z = sine(n);
                 break;
             case HEART:
-                n = 2.0 * n;                    // make a symmetrical pattern by only defining half of it
-                if (n > 1.0) {                  // and mirroring the other half
-                    n = 2.0 - n;                // around the center point
-                }
-                z = Math.sin(n * 2 * Math.PI);	// for 0.0 to 0.25
-                if (n >= 0.75) {
-                    z = z + 1.0;				// for 0.75 to 1.0
-                } else if (n > 0.25) {          // for 0.25 to 0.75
-                    z = z + (1.0 - Math.sin(n * 2 * Math.PI)) / 2.0;
-                }
+                z = heart(n);
                 break;
             case LOTUS:
-                n = 2.0 * n;                    // make a symmetrical pattern by only defining half of it
-                if (n > 1.0) {                  // and mirroring the other half
-                    n = 2.0 - n;                // around the center point
-                }
-                z = Math.sin(n * 2 * Math.PI);	// for 0.0 to 0.25
-				z = n + 0.1*z;					// the factor 0.1 was determined by a nice appearance
+                z = lotus(n);
                 break;
-            case NSIDE:								// curve sections are based on portions of a circle of various sizes
-                alphaRad = Math.PI / rpt;
-                c2 = Math.sin(alphaRad);			// Chord/2.0
-                tanTheta = Math.tan((n * 2.0 - 1.0) * alphaRad);
-                maxP = (1.0 - Math.cos(alphaRad));  // maximum p-to-p for this repeat (The radius is normalized to 1.0)
-                xx = Math.cos(alphaRad);
-                yy = xx * tanTheta;
-                z = 1.0 - Math.sqrt(xx * xx + yy * yy); // z is the amount in from the nominal radius (normalized to radius 1.0)
-                z = z / maxP;						// normalize so always range 0 to 1 for parm1=1
+            case NSIDE:
+                z = getCircles(rpt).nSide(n);
                 break;
-            case FLOWER:							// curve sections are based on portions of a circle of various sizes
-                alphaRad = Math.PI / rpt;
-                c2 = Math.sin(alphaRad);			// Chord/2.0
-                tanTheta = Math.tan((n * 2.0 - 1.0) * alphaRad);
-                minS = (1.0 - Math.cos(alphaRad));	// minimum saggita (The radius is normalized to 1.0)
-                maxP = c2 - minS;					// maximum bump out
-                s = minS + maxP;					// saggita
-                rPrime = c2 * c2 / (2.0 * s) + s / 2.0;	// R' is radius of side
-                dr = (1.0 + maxP) - rPrime;			// dr is a positive number
-                xx = (dr + Math.sqrt(dr * dr - (1 + tanTheta * tanTheta) * (dr * dr - rPrime * rPrime))) / (1 + tanTheta * tanTheta);
-                yy = xx * tanTheta;
-                z = Math.sqrt(xx * xx + yy * yy) - 1.0; // z is the amount out from the nominal radius (normalized to radius 1.0)
-                z = 1 - z / maxP;					// invert and normalize so always range 0 to 1 for parm1=1
+            case FLOWER:
+                z = getCircles(rpt).flower(n);
                 break;
 			case BIGSMALL:
 			case BIGSMALL_:
-				if (n < 1.0/3.0) {
-					z = getValue(Styles.FLOWER, rpt*3, n*3.0);	// small Flower for 1/3
-				} else {
-					z = getValue(Styles.FLOWER, rpt*3/2, (n-1.0/3.0)*3.0/2.0);	// big flower for 2/3
-				}
-				if (st == Styles.BIGSMALL_) {	// inverse
-					z = 1.0 - z;
-				}
+				z = bigSmall(n, getCircles(rpt*3), getBigCircles(rpt*3/2), st == Styles.BIGSMALL_);
 				break;
 			case TRIANGLE:
-                n = 2.0 * n;                    // make a symmetrical pattern by only defining half of it
-                if (n > 1.0) {                  // and mirroring the other half
-                    n = 2.0 - n;                // around the center point
-                }
-				z = n;
+				z = triangle(n);
 				break;
 			case TUDOR:
-                double z1 = 0.5 + 0.5 * Math.cos(2.0*n * 2.0 * Math.PI);	// basic pattern is 2xSINE
-				double z2 = 5.0 * getValue(Styles.TRIANGLE, rpt, n);		// with a point between
-				z = Math.min(z1, z2);
+				z = tudor(n);
+				break;
+			case CUSTOM:
+				z = (profile == null) ? 0.0 : profile.getValue(n);
 				break;
             default:
                 z = 0.0;
@@ -221,4 +259,192 @@ public class Pattern {
         }
         return z;
     }
+
+	/**
+	 * Get the circle geometry for a repeat, made again only when the repeat changes
+	 * (the geometry can't be changed, so this is safe when the pattern is used on several threads)
+	 * @param rpt repeat
+	 * @return circle geometry
+	 */
+	private Circles getCircles(int rpt) {
+		Circles c = circles;
+		if ((c == null) || (c.repeat != rpt)) {
+			c = new Circles(rpt);
+			circles = c;
+		}
+		return c;
+	}
+
+	/**
+	 * Get the circle geometry for the big flower of BigSmall (kept apart from getCircles so both are kept)
+	 * @param rpt repeat
+	 * @return circle geometry
+	 */
+	private Circles getBigCircles(int rpt) {
+		Circles c = bigCircles;
+		if ((c == null) || (c.repeat != rpt)) {
+			c = new Circles(rpt);
+			bigCircles = c;
+		}
+		return c;
+	}
+
+	/**
+	 * Wrap around for values outside of range 0.0 to 1.0
+	 * @param n input value
+	 * @return value from 0.0 to 1.0
+	 */
+	private static double wrap(double n) {
+		if ((n < 0.0) || (n > 1.0)) {
+			n -= Math.floor(n);		// one step however far out of range
+		}
+		return n;
+	}
+
+	/**
+	 * Sine pattern
+	 * @param n A value from 0.0 to 1.0 representing the fraction of the distance into the pattern.
+	 * @return A value from 0.0 to 1.0 representing the output value.
+	 */
+	private static double sine(double n) {
+		return 0.5 + 0.5 * Math.cos(n * 2.0 * Math.PI);		// easy for a simple sine wave offset to give 0.0 to 1.0
+	}
+
+	/**
+	 * Heart pattern
+	 * @param n A value from 0.0 to 1.0 representing the fraction of the distance into the pattern.
+	 * @return A value from 0.0 to 1.0 representing the output value.
+	 */
+	private static double heart(double n) {
+		double z;
+        n = 2.0 * n;                    // make a symmetrical pattern by only defining half of it
+        if (n > 1.0) {                  // and mirroring the other half
+            n = 2.0 - n;                // around the center point
+        }
+        z = Math.sin(n * 2 * Math.PI);	// for 0.0 to 0.25
+        if (n >= 0.75) {
+            z = z + 1.0;				// for 0.75 to 1.0
+        } else if (n > 0.25) {          // for 0.25 to 0.75
+            z = z + (1.0 - Math.sin(n * 2 * Math.PI)) / 2.0;
+        }
+		return z;
+	}
+
+	/**
+	 * Lotus pattern
+	 * @param n A value from 0.0 to 1.0 representing the fraction of the distance into the pattern.
+	 * @return A value from 0.0 to 1.0 representing the output value.
+	 */
+	private static double lotus(double n) {
+        n = 2.0 * n;                    // make a symmetrical pattern by only defining half of it
+        if (n > 1.0) {                  // and mirroring the other half
+            n = 2.0 - n;                // around the center point
+        }
+        double z = Math.sin(n * 2 * Math.PI);	// for 0.0 to 0.25
+		return n + 0.1*z;				// the factor 0.1 was determined by a nice appearance
+	}
+
+	/**
+	 * Triangle pattern
+	 * @param n A value from 0.0 to 1.0 representing the fraction of the distance into the pattern.
+	 * @return A value from 0.0 to 1.0 representing the output value.
+	 */
+	private static double triangle(double n) {
+        n = 2.0 * n;                    // make a symmetrical pattern by only defining half of it
+        if (n > 1.0) {                  // and mirroring the other half
+            n = 2.0 - n;                // around the center point
+        }
+		return n;
+	}
+
+	/**
+	 * Tudor Rose pattern
+	 * @param n A value from 0.0 to 1.0 representing the fraction of the distance into the pattern.
+	 * @return A value from 0.0 to 1.0 representing the output value.
+	 */
+	private static double tudor(double n) {
+        double z1 = 0.5 + 0.5 * Math.cos(2.0*n * 2.0 * Math.PI);	// basic pattern is 2xSINE
+		double z2 = 5.0 * triangle(n);								// with a point between
+		return Math.min(z1, z2);
+	}
+
+	/**
+	 * BigSmall pattern made from a small Flower for 1/3 and a big flower for 2/3
+	 * @param n A value from 0.0 to 1.0 representing the fraction of the distance into the pattern.
+	 * @param small Circles for the small flower (3 times the repeat)
+	 * @param big Circles for the big flower (1.5 times the repeat)
+	 * @param inverse true for BIGSMALL_
+	 * @return A value from 0.0 to 1.0 representing the output value.
+	 */
+	private static double bigSmall(double n, Circles small, Circles big, boolean inverse) {
+		double z;
+		if (n < 1.0/3.0) {
+			z = small.flower(wrap(n*3.0));						// small Flower for 1/3
+		} else {
+			z = big.flower(wrap((n-1.0/3.0)*3.0/2.0));		// big flower for 2/3
+		}
+		if (inverse) {
+			z = 1.0 - z;
+		}
+		return z;
+	}
+
+	/**
+	 * The circle geometry for N-Sided & Flower, which only depends on the repeat.
+	 * Curve sections are based on portions of a circle of various sizes.
+	 */
+	private static class Circles {
+		private final int repeat;
+		private final double alphaRad;
+		private final double xx;		// for N-Sided
+		private final double maxPSide;	// maximum p-to-p for N-Sided (The radius is normalized to 1.0)
+		private final double maxP;		// maximum bump out for Flower
+		private final double rPrime;	// R' is radius of side for Flower
+		private final double dr;		// dr is a positive number
+		private final double dr2;		// dr * dr
+		private final double dr2MinusR2;	// dr * dr - rPrime * rPrime
+
+		Circles(int rpt) {
+			double c2, cos, minS, s;
+			repeat = rpt;
+			alphaRad = Math.PI / rpt;
+			c2 = Math.sin(alphaRad);			// Chord/2.0
+			cos = Math.cos(alphaRad);
+			maxPSide = 1.0 - cos;
+			xx = cos;
+			minS = 1.0 - cos;					// minimum saggita (The radius is normalized to 1.0)
+			maxP = c2 - minS;
+			s = minS + maxP;					// saggita
+			rPrime = c2 * c2 / (2.0 * s) + s / 2.0;
+			dr = (1.0 + maxP) - rPrime;
+			dr2 = dr * dr;
+			dr2MinusR2 = dr * dr - rPrime * rPrime;
+		}
+
+		/**
+		 * N-Sided pattern
+		 * @param n A value from 0.0 to 1.0 representing the fraction of the distance into the pattern.
+		 * @return A value from 0.0 to 1.0 representing the output value.
+		 */
+		double nSide(double n) {
+			double tanTheta = Math.tan((n * 2.0 - 1.0) * alphaRad);
+			double yy = xx * tanTheta;
+			double z = 1.0 - Math.sqrt(xx * xx + yy * yy); // z is the amount in from the nominal radius (normalized to radius 1.0)
+			return z / maxPSide;						// normalize so always range 0 to 1 for parm1=1
+		}
+
+		/**
+		 * Flower pattern
+		 * @param n A value from 0.0 to 1.0 representing the fraction of the distance into the pattern.
+		 * @return A value from 0.0 to 1.0 representing the output value.
+		 */
+		double flower(double n) {
+			double tanTheta = Math.tan((n * 2.0 - 1.0) * alphaRad);
+			double t2 = 1 + tanTheta * tanTheta;
+			double x = (dr + Math.sqrt(dr2 - t2 * dr2MinusR2)) / t2;
+			double yy = x * tanTheta;
+			double z = Math.sqrt(x * x + yy * yy) - 1.0; // z is the amount out from the nominal radius (normalized to radius 1.0)
+			return 1 - z / maxP;					// invert and normalize so always range 0 to 1 for parm1=1
+		}
+	}
 }
@@ -0,0 +1,80 @@
+package billooms.penchuck.rosettemodel;
+
+import billooms.penchuck.rosettemodel.api.Rosette.Styles;
+
+/**
+ * Measures Pattern.getValues (the batch path used for a whole revolution) against
+ * calling Pattern.getValue for every input, for each style, and checks that they give the same values.
+ * <p>
+ * Usage: java billooms.penchuck.rosettemodel.PatternBenchmark [repeat [inputs [rounds]]]
+ * (the default is a repeat of 7, 3600 inputs and 2000 rounds).
+ * @author Bill Ooms Copyright (c) 2010 Studio of Bill Ooms all rights reserved
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class PatternBenchmark {
+
+	/**
+	 * Not used
+	 */
+	private PatternBenchmark() {
+	}
+
+	/**
+	 * Run the benchmark
+	 * @param args repeat, number of inputs and number of rounds (all optional)
+	 */
+	public static void main(String[] args) {
+		int repeat = (args.length > 0) ? Integer.parseInt(args[0]) : 7;
+		int len = (args.length > 1) ? Integer.parseInt(args[1]) : 3600;
+		int rounds = (args.length > 2) ? Integer.parseInt(args[2]) : 2000;
+		double[] n = new double[len];
+		for (int i = 0; i < len; i++) {
+			n[i] = (double) i / len;
+		}
+		double[] batch = new double[len];
+		double[] scalar = new double[len];
+		System.out.println("repeat " + repeat + ", " + len + " inputs, " + rounds + " rounds");
+		for (Styles st : Styles.values()) {
+			if ((st == Styles.NONE) || (st == Styles.CUSTOM)) {
+				continue;		// nothing to calculate, or needs a measured profile
+			}
+			Pattern p = new Pattern(st, repeat);
+			for (int warm = 0; warm < 2; warm++) {		// the first time warms up the compiler
+				long t = System.nanoTime();
+				for (int r = 0; r < rounds; r++) {
+					p.getValues(n, batch, len);
+				}
+				long tBatch = System.nanoTime() - t;
+				t = System.nanoTime();
+				for (int r = 0; r < rounds; r++) {
+					for (int i = 0; i < len; i++) {
+						scalar[i] = p.getValue(n[i]);
+					}
+				}
+				long tScalar = System.nanoTime() - t;
+				if (warm == 1) {
+					double maxDiff = 0.0;
+					for (int i = 0; i < len; i++) {
+						maxDiff = Math.max(maxDiff, Math.abs(batch[i] - scalar[i]));
+					}
+					double perBatch = (double) tBatch / rounds / len;
+					double perScalar = (double) tScalar / rounds / len;
+					System.out.printf("%-10s getValues %6.1f ns, getValue %6.1f ns per input (%.2f times), max difference %.1e%n",
+							st.name(), perBatch, perScalar, perScalar / perBatch, maxDiff);
+				}
+			}
+		}
+	}
+}
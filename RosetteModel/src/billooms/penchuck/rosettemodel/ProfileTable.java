@@ -0,0 +1,309 @@
+package billooms.penchuck.rosettemodel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A rosette profile defined by a table of measured radius samples (for instance from a CMM)
+ * rather than by a formula. This is used by Pattern for Styles.CUSTOM.
+ * The samples are equally spaced and cover exactly one repeat of the pattern
+ * (the first sample is not repeated at the end).
+ * The radii are normalized like the other patterns so that the largest radius gives 0.0
+ * and the smallest radius gives 1.0 (maximum cutter movement from it's nominal position).
+ * Values between samples come from a periodic cubic spline. The spline coefficients are
+ * calculated once when the table is made so that each lookup is constant time.
+ * @author Bill Ooms Copyright (c) 2010 Studio of Bill Ooms all rights reserved
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class ProfileTable {
+	public final static int MIN_SAMPLES = 3;
+
+	private final String name;		// name of the profile (usually the file name)
+	private final int size;			// number of samples
+	private final double[] radii;	// the samples as given (for saving)
+	private final double[] coef;	// 4 spline coefficients per interval: value = c0 + t*(c1 + t*(c2 + t*c3))
+	private final double minRadius, maxRadius;
+
+	/**
+	 * A profile from an array of radius samples covering one repeat
+	 * @param radii equally spaced radius samples
+	 * @param name name of the profile
+	 */
+	public ProfileTable(double[] radii, String name) {
+		if (radii.length < MIN_SAMPLES) {
+			throw new IllegalArgumentException("A profile needs at least " + MIN_SAMPLES + " samples");
+		}
+		this.name = name;
+		this.size = radii.length;
+		this.radii = radii.clone();
+		double rMin = radii[0], rMax = radii[0];
+		for (double r : radii) {
+			rMin = Math.min(rMin, r);
+			rMax = Math.max(rMax, r);
+		}
+		this.minRadius = rMin;
+		this.maxRadius = rMax;
+		double[] y = new double[size];
+		if (rMax > rMin) {
+			double scale = 1.0 / (rMax - rMin);
+			for (int i = 0; i < size; i++) {
+				y[i] = (rMax - radii[i]) * scale;
+			}
+		}
+		this.coef = splineCoefficients(y);
+	}
+
+	/**
+	 * Load a profile from a file.
+	 * Files ending in .csv or .txt are read as text, anything else as binary.
+	 * @param f file of radius samples
+	 * @return ProfileTable
+	 * @throws IOException if the file can't be read or has too few samples
+	 */
+	public static ProfileTable load(File f) throws IOException {
+		String lower = f.getName().toLowerCase();
+		if (lower.endsWith(".csv") || lower.endsWith(".txt")) {
+			return readCsv(f);
+		}
+		return readBinary(f);
+	}
+
+	/**
+	 * Read a text file with one sample per line.
+	 * The radius is the last value on each line (separated by commas, semicolons or spaces)
+	 * so files with an angle column are fine. Blank lines, comments (#) and
+	 * header lines which don't end with a number are skipped.
+	 * The file is read a line at a time so that it is never all in memory as text.
+	 * @param f text file
+	 * @return ProfileTable
+	 * @throws IOException if the file can't be read or has too few samples
+	 */
+	public static ProfileTable readCsv(File f) throws IOException {
+		double[] radii = new double[1024];
+		int n = 0;
+		BufferedReader in = new BufferedReader(new FileReader(f));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if ((line.length() == 0) || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split("[,;\\s]+");
+				double r;
+				try {
+					r = Double.parseDouble(fields[fields.length - 1]);
+				} catch (NumberFormatException e) {
+					continue;		// must be a header line
+				}
+				if (n == radii.length) {
+					radii = Arrays.copyOf(radii, 2 * n);
+				}
+				radii[n++] = r;
+			}
+		} finally {
+			in.close();
+		}
+		return makeTable(Arrays.copyOf(radii, n), f);
+	}
+
+	/**
+	 * Read a binary file of radius samples (big-endian doubles, as written by DataOutputStream).
+	 * The file is memory-mapped rather than read through a stream.
+	 * @param f binary file
+	 * @return ProfileTable
+	 * @throws IOException if the file can't be read or has too few samples
+	 */
+	public static ProfileTable readBinary(File f) throws IOException {
+		FileInputStream in = new FileInputStream(f);
+		try {
+			FileChannel ch = in.getChannel();
+			long len = ch.size();
+			if ((len % 8 != 0) || (len / 8 > Integer.MAX_VALUE)) {
+				throw new IOException("Bad length for a file of doubles: " + f.getName());
+			}
+			DoubleBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, len).asDoubleBuffer();
+			double[] radii = new double[buf.remaining()];
+			buf.get(radii);
+			return makeTable(radii, f);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Make a table from samples read from a file
+	 * @param radii radius samples
+	 * @param f file the samples came from
+	 * @return ProfileTable
+	 * @throws IOException if there are too few samples
+	 */
+	private static ProfileTable makeTable(double[] radii, File f) throws IOException {
+		if (radii.length < MIN_SAMPLES) {
+			throw new IOException("Not enough samples in " + f.getName());
+		}
+		return new ProfileTable(radii, f.getName());
+	}
+
+	/**
+	 * Calculate the periodic cubic spline through equally spaced values.
+	 * The second derivatives come from the cyclic tridiagonal system
+	 * m[i-1] + 4*m[i] + m[i+1] = 6*(y[i+1] - 2*y[i] + y[i-1])
+	 * which is solved with the Sherman-Morrison formula.
+	 * @param y values (one period, first value not repeated)
+	 * @return 4 coefficients for each interval
+	 */
+	private static double[] splineCoefficients(double[] y) {
+		int n = y.length;
+		double[] rhs = new double[n];
+		for (int i = 0; i < n; i++) {
+			rhs[i] = 6.0 * (y[(i + 1) % n] - 2.0 * y[i] + y[(i + n - 1) % n]);
+		}
+		// A = T + u*v' where T is tridiagonal, u = (g, 0..0, 1), v = (1, 0..0, 1/g)
+		double g = -4.0;
+		double[] u = new double[n];
+		u[0] = g;
+		u[n - 1] = 1.0;
+		double[] x = solveTridiagonal(4.0 - g, 4.0 - 1.0 / g, rhs);
+		double[] z = solveTridiagonal(4.0 - g, 4.0 - 1.0 / g, u);
+		double fact = (x[0] + x[n - 1] / g) / (1.0 + z[0] + z[n - 1] / g);
+		double[] m = new double[n];
+		for (int i = 0; i < n; i++) {
+			m[i] = x[i] - fact * z[i];
+		}
+		double[] c = new double[4 * n];
+		for (int i = 0; i < n; i++) {
+			int j = (i + 1) % n;
+			c[4 * i] = y[i];
+			c[4 * i + 1] = y[j] - y[i] - (2.0 * m[i] + m[j]) / 6.0;
+			c[4 * i + 2] = m[i] / 2.0;
+			c[4 * i + 3] = (m[j] - m[i]) / 6.0;
+		}
+		return c;
+	}
+
+	/**
+	 * Solve a tridiagonal system with 1 on the off-diagonals and 4 on the diagonal
+	 * except for the first and last diagonal elements.
+	 * @param first first diagonal element
+	 * @param last last diagonal element
+	 * @param r right hand side
+	 * @return solution
+	 */
+	private static double[] solveTridiagonal(double first, double last, double[] r) {
+		int n = r.length;
+		double[] cp = new double[n];
+		double[] x = new double[n];
+		double d = first;
+		cp[0] = 1.0 / d;
+		x[0] = r[0] / d;
+		for (int i = 1; i < n; i++) {
+			d = ((i == n - 1) ? last : 4.0) - cp[i - 1];
+			cp[i] = 1.0 / d;
+			x[i] = (r[i] - x[i - 1]) / d;
+		}
+		for (int i = n - 2; i >= 0; i--) {
+			x[i] -= cp[i] * x[i + 1];
+		}
+		return x;
+	}
+
+	/**
+	 * Get the name of the profile
+	 * @return name (usually the file name)
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the number of samples
+	 * @return number of samples
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Get the smallest measured radius
+	 * @return smallest radius
+	 */
+	public double getMinRadius() {
+		return minRadius;
+	}
+
+	/**
+	 * Get the largest measured radius
+	 * @return largest radius
+	 */
+	public double getMaxRadius() {
+		return maxRadius;
+	}
+
+	/**
+	 * Get a sample as it was given
+	 * @param i sample number
+	 * @return radius
+	 */
+	public double getRadius(int i) {
+		return radii[i];
+	}
+
+	/**
+	 * Get the normalized value of a sample
+	 * @param i sample number
+	 * @return value from 0.0 to 1.0
+	 */
+	public double getSample(int i) {
+		return coef[4 * i];
+	}
+
+	/**
+	 * Get the interpolated value (the spline may overshoot 0.0 to 1.0 slightly between samples)
+	 * @param n A value from 0.0 to 1.0 representing the fraction of the distance into the pattern.
+	 * @return A value from 0.0 to 1.0 representing the output value.
+	 */
+	public double getValue(double n) {
+		double u = (n - Math.floor(n)) * size;
+		int i = (int) u;
+		double t = u - i;
+		if (i >= size) {		// n just below an integer can round up to size
+			i = 0;
+			t = 0.0;
+		}
+		int k = 4 * i;
+		return coef[k] + t * (coef[k + 1] + t * (coef[k + 2] + t * coef[k + 3]));
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof ProfileTable)) {
+			return false;
+		}
+		ProfileTable t = (ProfileTable) o;
+		return ((name == null) ? (t.name == null) : name.equals(t.name)) && Arrays.equals(radii, t.radii);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(radii);
+	}
+}
@@ -1,6 +1,7 @@
 
 package billooms.penchuck.rosettemodel;
 
+import billooms.penchuck.drawables.AngleStepper;
 import billooms.penchuck.drawables.Curve;
 import billooms.penchuck.drawables.Drawable;
 import billooms.penchuck.drawables.Plus;
@@ -15,6 +16,8 @@ import java.awt.geom.Ellipse2D;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import javax.vecmath.Point2d;
 
 /**
@@ -39,11 +42,22 @@ public class RosetteImpl implements Rosette {
 	public final static String PROP_PHASE = "phase";
 	public final static String PROP_REPEAT = "repeat";
 	public final static String PROP_STYLE = "style";
+	public final static String PROP_FOLLOWER = "follower";
+	public final static String PROP_PUMP_AMP = "pumpAmplitude";
+	public final static String PROP_PUMP_PHASE = "pumpPhase";
+	public final static String PROP_PROFILE = "profile";
     public final static double DEFAULT_RADIUS = 2.5;
+	public final static double DEFAULT_FOLLOWER_RADIUS = 0.0;
+	private final static int MIN_ENVELOPE_PTS = 3600;		// minimum points per revolution for the follower envelope
+	private final static int ENVELOPE_PTS_PER_REPEAT = 60;
 
     private Pattern pattern;		// pattern to use (which has style and repeat)
     private double pToP;			// Peak-to-Peak
     private double phase;			// phase shift in degrees (0 to 360) relative to one repetition, +phase is CCW
+	private double pumpAmp = DEFAULT_PUMP_AMP;		// peak-to-peak of the pumping (axial) motion
+	private double pumpPhase = DEFAULT_PUMP_PH;		// phase of the pumping motion in degrees relative to one repetition
+	private double followerRadius = DEFAULT_FOLLOWER_RADIUS;	// radius of the follower (rubber) riding on the rosette
+	private SampledProfile envelope = null;	// amplitude seen by a follower with non-zero radius (null if zero radius)
 
 	/* Information for drawing */
     private final static BasicStroke SOLID_LINE = new BasicStroke(1.0f);
@@ -74,6 +88,7 @@ public class RosetteImpl implements Rosette {
 		}
         drawList = new ArrayList<Drawable>();
 		this.pss = new PropertyChangeSupport(this);
+		makeEnvelope();
         makeDrawables();
     }
 
@@ -123,6 +138,7 @@ public class RosetteImpl implements Rosette {
 			this.pToP = 0.0;
 			this.phase = 0.0;
 		}
+		makeEnvelope();
         makeDrawables();
 		this.pss.firePropertyChange(PROP_STYLE, old, s);
 	}
@@ -144,10 +160,20 @@ public class RosetteImpl implements Rosette {
 	public void setRepeat(int n) {
 		int old = pattern.getRepeat();
 		pattern.setRepeat(n);
+		makeEnvelope();
         makeDrawables();
 		this.pss.firePropertyChange(PROP_REPEAT, old, n);
 	}
 
+	/**
+	 * Get the number of identical sections around the rosette
+	 * @return number of repeats
+	 */
+	@Override
+	public int getSymmetry() {
+		return pattern.getRepeat();
+	}
+
 	/**
 	 * Get the peak-to-peak amplitude of the rosette
 	 * @return peak-to-peak amplitude
@@ -168,6 +194,7 @@ public class RosetteImpl implements Rosette {
 		if (pattern.getStyle() == Styles.NONE) {
 			this.pToP = 0.0;
 		}
+		makeEnvelope();
         makeDrawables();
 		this.pss.firePropertyChange(PROP_AMP, old, p);
 	}
@@ -192,10 +219,112 @@ public class RosetteImpl implements Rosette {
 		if (pattern.getStyle() == Styles.NONE) {
 			this.phase = 0.0;
 		}
+		makeEnvelope();
         makeDrawables();
 		this.pss.firePropertyChange(PROP_PHASE, old, ph);
 	}
 
+	/**
+	 * Get the peak-to-peak amplitude of the pumping (axial) motion
+	 * @return peak-to-peak pumping amplitude
+	 */
+	@Override
+	public double getPumpAmp() {
+		return pumpAmp;
+	}
+
+	/**
+	 * Set the peak-to-peak amplitude of the pumping (axial) motion
+	 * @param p peak-to-peak pumping amplitude
+	 */
+	@Override
+	public void setPumpAmp(double p) {
+		double old = this.pumpAmp;
+		this.pumpAmp = p;
+		if (pattern.getStyle() == Styles.NONE) {
+			this.pumpAmp = 0.0;
+		}
+		this.pss.firePropertyChange(PROP_PUMP_AMP, old, p);
+	}
+
+	/**
+	 * Get the phase of the pumping (axial) motion (on the same pattern as the phase of the rocking motion)
+	 * @return phase in degrees: 180 means 1/2 of the repeat, 90 means 1/4 of the repeat, etc.
+	 */
+	@Override
+	public double getPumpPhase() {
+		return pumpPhase;
+	}
+
+	/**
+	 * Set the phase of the pumping (axial) motion (on the same pattern as the phase of the rocking motion)
+	 * @param ph phase in degrees: 180 means 1/2 of the repeat, 90 means 1/4 of the repeat, etc.
+	 */
+	@Override
+	public void setPumpPhase(double ph) {
+		double old = this.pumpPhase;
+		this.pumpPhase = angleCheck(ph);
+		if (pattern.getStyle() == Styles.NONE) {
+			this.pumpPhase = 0.0;
+		}
+		this.pss.firePropertyChange(PROP_PUMP_PHASE, old, ph);
+	}
+
+	/**
+	 * Get the radius of the follower (rubber) that rides on the rosette
+	 * @return follower radius (0.0 means a sharp follower)
+	 */
+	public double getFollowerRadius() {
+		return followerRadius;
+	}
+
+	/**
+	 * Set the radius of the follower (rubber) that rides on the rosette.
+	 * A follower with a finite radius can not reach into narrow concave parts of the rosette,
+	 * so cusps (such as on FLOWER, NSIDE and INDEX) are rounded off.
+	 * @param r follower radius (0.0 means a sharp follower)
+	 */
+	public void setFollowerRadius(double r) {
+		double old = this.followerRadius;
+		this.followerRadius = Math.max(0.0, r);
+		makeEnvelope();
+		this.pss.firePropertyChange(PROP_FOLLOWER, old, this.followerRadius);
+	}
+
+	/**
+	 * Get the measured profile used when the style is CUSTOM
+	 * @return profile (null if none has been given)
+	 */
+	public ProfileTable getProfile() {
+		return pattern.getProfile();
+	}
+
+	/**
+	 * Set a measured profile (such as one loaded with ProfileTable.load).
+	 * A non-null profile also changes the style to CUSTOM.
+	 * @param t profile (null for none)
+	 */
+	public void setProfile(ProfileTable t) {
+		ProfileTable old = pattern.getProfile();
+		pattern.setProfile(t);
+		if (t != null) {
+			setStyle(Styles.CUSTOM);	// this also remakes the envelope and drawables
+		} else {
+			makeEnvelope();
+			makeDrawables();
+		}
+		this.pss.firePropertyChange(PROP_PROFILE, old, t);
+	}
+
+	/**
+	 * Get the outline of the rosette (the same as is drawn, without the reference circle), e.g. for export
+	 * @return unmodifiable list of drawables
+	 */
+	@Override
+	public List<Drawable> getDrawables() {
+		return Collections.unmodifiableList(drawList);
+	}
+
 	/**
 	 * Draw the rosette at a given DPI
 	 * @param g Graphic context
@@ -223,30 +352,167 @@ public class RosetteImpl implements Rosette {
 	/**
 	 * Get the amplitude (offset from nominal radius) of the rosette at a given angle in degrees.
 	 * A value of zero means zero cutter deflection from its nominal radius.
+	 * If the follower has a non-zero radius, this is the deflection of the follower.
 	 * @param ang Angle in degrees around the rosette
 	 * @return amplitude which will be a positive number from 0.0 to pToP
 	 */
 	@Override
 	public double getAmplitudeAt(double ang) {
+		if (envelope != null) {
+			return envelope.getValue(ang);
+		}
+		return getSurfaceAmplitudeAt(ang);
+	}
+
+	/**
+	 * Get the rocking and pumping motion at equally spaced angles in a single pass.
+	 * The pattern is evaluated for all the angles at once with Pattern.getValues,
+	 * and when the pumping is in phase with the rocking the pattern is only evaluated once per angle.
+	 * With a follower of non-zero radius, the pumping follows the follower too (the envelope scaled to pumpAmp).
+	 * rock[i] is the same as getAmplitudeAt(startAng + i*dAng).
+	 * @param startAng first angle in degrees
+	 * @param dAng angle between samples in degrees
+	 * @param rock array to be filled with the rocking amplitude (0.0 to pToP)
+	 * @param pump array to be filled with the pumping amplitude (0.0 to pumpAmp), or null if not needed
+	 */
+	@Override
+	public void getMotionAt(double startAng, double dAng, double[] rock, double[] pump) {
+		int n = rock.length;
+		boolean pumping = (pump != null) && (pumpAmp != 0.0);
+		boolean samePhase = (pumpPhase == phase);
+		if ((envelope != null) && (pToP != 0.0)) {
+			double pumpShift = (pumpPhase - phase) / pattern.getRepeat();	// degrees around the rosette
+			double pumpScale = pumpAmp / pToP;
+			for (int i = 0; i < n; i++) {
+				double ang = startAng + i * dAng;
+				rock[i] = envelope.getValue(ang);
+				if (pumping) {
+					pump[i] = pumpScale * (samePhase ? rock[i] : envelope.getValue(ang + pumpShift));
+				}
+			}
+		} else {
+			if (pumping && !samePhase) {
+				for (int i = 0; i < n; i++) {
+					pump[i] = getPatternIndex(startAng + i * dAng, pumpPhase);
+				}
+				pattern.getValues(pump, pump, n);
+				for (int i = 0; i < n; i++) {
+					pump[i] = pumpAmp * pump[i];
+				}
+			}
+			for (int i = 0; i < n; i++) {
+				rock[i] = getPatternIndex(startAng + i * dAng, phase);
+			}
+			pattern.getValues(rock, rock, n);
+			for (int i = 0; i < n; i++) {
+				if (pumping && samePhase) {
+					pump[i] = pumpAmp * rock[i];
+				}
+				rock[i] = pToP * rock[i];
+			}
+		}
+		if ((pump != null) && !pumping) {
+			for (int i = 0; i < n; i++) {
+				pump[i] = 0.0;
+			}
+		}
+	}
+
+	/**
+	 * Get the amplitude of the rosette surface itself (i.e. seen by a sharp follower)
+	 * @param ang Angle in degrees around the rosette
+	 * @return amplitude which will be a positive number from 0.0 to pToP
+	 */
+	private double getSurfaceAmplitudeAt(double ang) {
+        return pToP * getPatternAt(ang, phase);
+	}
+
+	/**
+	 * Get the pattern value at a given angle around the rosette
+	 * @param ang Angle in degrees around the rosette
+	 * @param ph phase in degrees relative to one repeat
+	 * @return pattern value from 0.0 to 1.0
+	 */
+	private double getPatternAt(double ang, double ph) {
+        return pattern.getValue(getPatternIndex(ang, ph));
+	}
+
+	/**
+	 * Get the input for the pattern at a given angle around the rosette
+	 * @param ang Angle in degrees around the rosette
+	 * @param ph phase in degrees relative to one repeat
+	 * @return fraction of the distance into the pattern
+	 */
+	private double getPatternIndex(double ang, double ph) {
 		double angle = angleCheck(ang);
         double anglePerRepeat = 360.0 / pattern.getRepeat();	// degrees per every repeat of pattern
-        angle = angle + anglePerRepeat * phase / 360.0;
+        angle = angle + anglePerRepeat * ph / 360.0;
         int m = (int) (angle / anglePerRepeat);			// which repeat is the pattern in (0 to repeat-1)
         double partAngle = angle - m * anglePerRepeat;	// degrees into the pattern
-        return pToP * pattern.getValue(partAngle / anglePerRepeat);
+        return partAngle / anglePerRepeat;
 	}
 
 	/**
-	 * Make sure angle is in range 0.0 <= a < 360.0
+	 * Make the table of amplitude seen by a follower with non-zero radius.
+	 * The follower center sits on the envelope of circles rolled around the rosette surface.
+	 * The surface is sampled once, then at each angle the follower position is the maximum
+	 * over a window of neighboring samples (only those within reach of the follower).
+	 * This is done whenever the rosette changes so that getAmplitudeAt() is just a table lookup.
+	 */
+	private void makeEnvelope() {
+		if (followerRadius <= 0.0) {
+			envelope = null;
+			return;
+		}
+		int n = Math.max(MIN_ENVELOPE_PTS, ENVELOPE_PTS_PER_REPEAT * pattern.getRepeat());
+		double dAngle = 360.0 / n;
+		double[] r = new double[n];				// radius of the rosette surface
+		double minR = nomRadius;
+		for (int i = 0; i < n; i++) {
+			r[i] = nomRadius - getSurfaceAmplitudeAt(i * dAngle);
+			minR = Math.min(minR, r[i]);
+		}
+		double reach = (followerRadius >= minR) ? Math.PI / 2.0 : Math.asin(followerRadius / minR);
+		int w = Math.min(n / 4, (int) Math.ceil(reach / Math.toRadians(dAngle)));	// half-width of the window
+		double[] cosK = new double[w + 1];
+		double[] sinK = new double[w + 1];
+		for (int k = 0; k <= w; k++) {
+			cosK[k] = Math.cos(Math.toRadians(k * dAngle));
+			sinK[k] = Math.sin(Math.toRadians(k * dAngle));
+		}
+		double rho2 = followerRadius * followerRadius;
+		double[] amp = new double[n];
+		for (int i = 0; i < n; i++) {
+			double d = r[i] + followerRadius;	// follower center distance from the rosette center
+			for (int k = 1; k <= w; k++) {		// the window is symmetrical about i
+				double cs = cosK[k], sn = sinK[k];
+				double rm = r[(i - k + n) % n];
+				double rp = r[(i + k) % n];
+				double hm = rm * sn, hp = rp * sn;	// distance of the surface point off the follower axis
+				if (hm < followerRadius) {
+					d = Math.max(d, rm * cs + Math.sqrt(rho2 - hm * hm));
+				}
+				if (hp < followerRadius) {
+					d = Math.max(d, rp * cs + Math.sqrt(rho2 - hp * hp));
+				}
+			}
+			amp[i] = Math.max(0.0, nomRadius + followerRadius - d);
+		}
+		envelope = new SampledProfile(amp);
+	}
+
+	/**
+	 * Make sure angle is in range 0.0 <= a < 360.0.
+	 * One remainder is used, so it takes the same time however many turns the angle is (e.g. a long geared pass).
 	 * @param a angle in degrees
 	 * @return angle in range 0.0 <= a < 360.0
 	 */
 	private double angleCheck(double a) {
-		while (a < 0.0)
+		a %= 360.0;			// exact, and between -360 and 360
+		if (a < 0.0) {
 			a += 360.0;
-		while (a >= 360.0)
-			a -= 360.0;
-		return a;
+		}
+		return (a >= 360.0) ? 0.0 : a;	// a tiny negative angle rounds up to 360
 	}
 
     /**
@@ -258,16 +524,17 @@ public class RosetteImpl implements Rosette {
 
         int nPts = 360 / pattern.getRepeat();			// a point roughly every degree
 
-        double angleRad = 0.0 + (phase / (double)pattern.getRepeat()) * Math.PI / 180.0;	// cummulative angle
-        double deltaAngleRad = (360.0 / (pattern.getRepeat() * nPts)) * Math.PI / 180.0;		// add this amount every for every point
+		AngleStepper rot = new AngleStepper(phase / pattern.getRepeat(),		// cummulative angle
+				360.0 / (pattern.getRepeat() * nPts));			// add this amount every for every point
         for (int i = 0; i < pattern.getRepeat(); i++) {				// make a CurveSection for each repeat
             Point2d[] pts = new Point2d[nPts + 1];		// new each time so each curve has different points
             for (int j = 0; j <= nPts; j++) {			// calculate the points for the CurveSection
                 double r = nomRadius - pToP * pattern.getValue((double) j / (double) nPts);
-                pts[j] = new Point2d(r * Math.cos(angleRad), r * Math.sin(angleRad));
-                angleRad = angleRad + deltaAngleRad;
+                pts[j] = new Point2d(r * rot.cos(), r * rot.sin());
+				if (j < nPts) {
+					rot.next();					// the last point is used again for the next curve
+				}
             }
-            angleRad = angleRad - deltaAngleRad;		// use this point again for the next curve
             drawList.add(new Curve(pts, OUTLINE_COLOR));
         }
     }
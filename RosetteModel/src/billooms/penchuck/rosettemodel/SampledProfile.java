@@ -0,0 +1,72 @@
+package billooms.penchuck.rosettemodel;
+
+/**
+ * A periodic profile (such as a rosette amplitude) sampled at equal angles around one revolution.
+ * Values in between the samples are found by linear interpolation,
+ * so a lookup costs the same no matter how the samples were calculated.
+ * @author Bill Ooms Copyright (c) 2010 Studio of Bill Ooms all rights reserved
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+class SampledProfile {
+
+	private final double[] samples;		// samples[i] is the value at i*360/samples.length degrees
+	private final double ptsPerDegree;
+
+	/**
+	 * A sampled profile
+	 * @param samples values at equal angles starting at 0 degrees (the array is kept, not copied)
+	 */
+	SampledProfile(double[] samples) {
+		this.samples = samples;
+		this.ptsPerDegree = samples.length / 360.0;
+	}
+
+	/**
+	 * Get the number of samples
+	 * @return number of samples in one revolution
+	 */
+	int getSize() {
+		return samples.length;
+	}
+
+	/**
+	 * Get a sample
+	 * @param i index of the sample (0 to getSize()-1)
+	 * @return sample value
+	 */
+	double getSample(int i) {
+		return samples[i];
+	}
+
+	/**
+	 * Get the value at a given angle
+	 * @param ang angle in degrees (any value, it wraps around)
+	 * @return value interpolated between the nearest samples
+	 */
+	double getValue(double ang) {
+		int n = samples.length;
+		double x = ang * ptsPerDegree;
+		x -= n * Math.floor(x / n);			// wrap to 0 <= x < n
+		int i = (int) x;
+		if (i >= n) {						// in case of round-off
+			i = 0;
+			x = 0.0;
+		}
+		double t = x - i;
+		double v0 = samples[i];
+		double v1 = samples[(i + 1 == n) ? 0 : i + 1];
+		return v0 + t * (v1 - v0);
+	}
+}
@@ -1,9 +1,11 @@
 package billooms.penchuck.rosettemodel.api;
 
+import billooms.penchuck.drawables.Drawable;
 import java.awt.Graphics;
 import java.awt.Point;
 import java.beans.PropertyChangeListener;
 import java.io.Serializable;
+import java.util.List;
 
 /**
  * This describes a Rose Engine rosette wheel.
@@ -38,7 +40,8 @@ public interface Rosette extends Serializable {
 		BIGSMALL_("BigSmall Inverse"),
 		TRIANGLE("Triangle"),
 		TUDOR("Tudor Rose"),
-		INDEX("Index");
+		INDEX("Index"),
+		CUSTOM("Custom");
 		
 		public String text;
 
@@ -90,6 +93,14 @@ public interface Rosette extends Serializable {
 	 */
 	public void setRepeat(int n);
 
+	/**
+	 * Get the number of identical sections around the rosette.
+	 * The motion repeats every 360/getSymmetry() degrees, which is used to find
+	 * when a pass closes on itself (for instance with gearing between the rosette and the spindle).
+	 * @return number of identical sections (1 if the rosette has no symmetry)
+	 */
+	public int getSymmetry();
+
 	/**
 	 * Get the peak-to-peak amplitude of the rosette
 	 * @return peak-to-peak amplitude
@@ -114,6 +125,34 @@ public interface Rosette extends Serializable {
 	 */
 	public void setPhase(double ph);
 
+	/**
+	 * Get the peak-to-peak amplitude of the pumping (axial) motion
+	 * @return peak-to-peak pumping amplitude
+	 */
+	public double getPumpAmp();
+
+	/**
+	 * Set the peak-to-peak amplitude of the pumping (axial) motion
+	 * @param p peak-to-peak pumping amplitude
+	 */
+	public void setPumpAmp(double p);
+
+	/**
+	 * Get the phase of the pumping (axial) motion.
+	 * This is measured the same way as getPhase() (it is not relative to the rocking),
+	 * so the pumping is in step with the rocking when the two phases are equal.
+	 * @return phase in degrees: 180 means 1/2 of the repeat, 90 means 1/4 of the repeat, etc.
+	 */
+	public double getPumpPhase();
+
+	/**
+	 * Set the phase of the pumping (axial) motion.
+	 * This is measured the same way as setPhase() (it is not relative to the rocking),
+	 * so the pumping is in step with the rocking when the two phases are equal.
+	 * @param ph phase in degrees: 180 means 1/2 of the repeat, 90 means 1/4 of the repeat, etc.
+	 */
+	public void setPumpPhase(double ph);
+
 	/**
 	 * Draw the rosette at a given DPI
 	 * @param g Graphic context
@@ -122,6 +161,12 @@ public interface Rosette extends Serializable {
 	 */
 	public void draw(Graphics g, int dpi, Point zPix);
 
+	/**
+	 * Get the outline of the rosette (the same as is drawn, without the reference circle), e.g. for export
+	 * @return unmodifiable list of drawables
+	 */
+	public List<Drawable> getDrawables();
+
 	/**
 	 * Get the amplitude (offset from nominal radius) of the rosette at a given angle in degrees.
 	 * A value of zero means zero cutter deflection from its nominal radius.
@@ -130,6 +175,18 @@ public interface Rosette extends Serializable {
 	 */
 	public double getAmplitudeAt(double ang);
 
+	/**
+	 * Get the rocking and pumping motion at equally spaced angles in a single pass.
+	 * rock[i] is the same as getAmplitudeAt(startAng + i*dAng).
+	 * The pumping follows the same shape as the rocking (including the effect of a follower's radius),
+	 * scaled to the pumping amplitude and moved to the pumping phase.
+	 * @param startAng first angle in degrees
+	 * @param dAng angle between samples in degrees
+	 * @param rock array to be filled with the rocking amplitude (0.0 to pToP)
+	 * @param pump array to be filled with the pumping amplitude (0.0 to pumpAmp), or null if not needed
+	 */
+	public void getMotionAt(double startAng, double dAng, double[] rock, double[] pump);
+
 	/**
 	 * Add a property change listener for the rosette
 	 * @param listener
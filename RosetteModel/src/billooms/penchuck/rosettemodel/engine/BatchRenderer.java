@@ -0,0 +1,242 @@
+package billooms.penchuck.rosettemodel.engine;
+
+import billooms.penchuck.drawables.machine.MachineLimits;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+
+/**
+ * Command line renderer for many designs at once, without the NetBeans platform or any windows.
+ * Each design is a properties file (see Design.toProperties) and is rendered to a PNG file
+ * with the same name in the output directory. The designs are spread over all the processors.
+ * <pre>
+ * java -cp RosetteModel.jar:Drawables.jar:vecmath.jar billooms.penchuck.rosettemodel.engine.BatchRenderer
+ *      [-size WIDTHxHEIGHT | -dpi DPI] [-format png|svg|pdf|gcode|hpgl] [-tolerance INCHES] [-threads N]
+ *      -out DIRECTORY design.properties ...
+ * </pre>
+ * A directory can be given instead of a design, in which case all the .properties files in it are rendered.
+ * With -dpi the images are rendered at the given scale in tiles (see Design.exportPng) instead of
+ * at a fixed size, so they can be very large.
+ * With -format svg or pdf the designs are written as vector files (see Design.exportVector) instead,
+ * leaving out points within the -tolerance of a straight line. The size or dpi then only sets the pen widths.
+ * With -format gcode or hpgl the designs are written for a machine (see Design.exportToolpath)
+ * with the default MachineLimits.
+ * @author Bill Ooms Copyright (c) 2010 Studio of Bill Ooms all rights reserved
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class BatchRenderer {
+	public final static int DEFAULT_SIZE = 1000;
+	private final static String USAGE = "usage: BatchRenderer [-size WIDTHxHEIGHT | -dpi DPI] [-format png|svg|pdf|gcode|hpgl] [-tolerance INCHES] [-threads N] -out DIRECTORY design.properties ...";
+
+	private final int width, height;
+	private final File outDir;
+	private int dpi = 0;			// 0 to render at width x height
+	private int tileThreads = 1;	// threads painting the tiles of each design
+	private String format = "png";	// png, svg, pdf, gcode or hpgl
+	private double tolerance = 0.0;	// for leaving out points in vector files
+
+	/**
+	 * A renderer
+	 * @param w width of the images in pixels
+	 * @param h height of the images in pixels
+	 * @param dir directory for the images
+	 */
+	public BatchRenderer(int w, int h, File dir) {
+		this.width = w;
+		this.height = h;
+		this.outDir = dir;
+	}
+
+	/**
+	 * Render at a given scale instead of at a fixed size
+	 * @param d pixels per inch (0 to use the fixed size)
+	 */
+	public void setDpi(int d) {
+		this.dpi = Math.max(d, 0);
+	}
+
+	/**
+	 * Write vector files or machine files instead of images
+	 * @param f "png", "svg", "pdf", "gcode" or "hpgl"
+	 * @param tol points within this distance (inches) of a straight line are left out of a vector file
+	 */
+	public void setFormat(String f, double tol) {
+		if (!f.equals("png") && !f.equals("svg") && !f.equals("pdf") && !f.equals("gcode") && !f.equals("hpgl")) {
+			throw new IllegalArgumentException("Unknown format " + f);
+		}
+		this.format = f;
+		this.tolerance = tol;
+	}
+
+	/**
+	 * Render one design
+	 * @param f design properties file
+	 * @return the image file that was written
+	 * @throws IOException if the design can't be read or the image can't be written
+	 */
+	public File render(File f) throws IOException {
+		Properties p = new Properties();
+		InputStream in = new FileInputStream(f);
+		try {
+			p.load(in);
+		} finally {
+			in.close();
+		}
+		Design d;
+		try {
+			d = Design.fromProperties(p);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Bad design " + f.getName() + ": " + e.getMessage());
+		}
+		String name = f.getName();
+		if (name.endsWith(".properties")) {
+			name = name.substring(0, name.length() - ".properties".length());
+		}
+		File out = new File(outDir, name + "." + format);
+		if (format.equals("gcode") || format.equals("hpgl")) {
+			d.exportToolpath(out, new MachineLimits());
+		} else if (!format.equals("png")) {
+			d.exportVector(out, (dpi > 0) ? dpi : Design.getDpi(width, height), tolerance);
+		} else if (dpi > 0) {
+			try {
+				d.exportPng(out, dpi, tileThreads);
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted while rendering " + f.getName());
+			}
+		} else {
+			ImageIO.write(d.render(width, height), "png", out);
+		}
+		return out;
+	}
+
+	/**
+	 * Render many designs on a pool of threads
+	 * @param files design properties files
+	 * @param nThreads number of threads
+	 * @return number of designs which failed
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public int renderAll(List<File> files, int nThreads) throws InterruptedException {
+		tileThreads = Math.max(1, nThreads / Math.max(files.size(), 1));	// spare threads go to the tiles
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+		ArrayList<Future<File>> results = new ArrayList<Future<File>>(files.size());
+		for (final File f : files) {
+			results.add(pool.submit(new Callable<File>() {
+				@Override
+				public File call() throws IOException {
+					return render(f);
+				}
+			}));
+		}
+		pool.shutdown();
+		int failed = 0;
+		for (int i = 0; i < files.size(); i++) {
+			try {
+				System.out.println(results.get(i).get().getPath());
+			} catch (ExecutionException e) {
+				System.err.println(files.get(i).getPath() + ": " + e.getCause().getMessage());
+				failed++;
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * Command line entry
+	 * @param args see the class description
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		System.setProperty("java.awt.headless", "true");
+		int w = DEFAULT_SIZE, h = DEFAULT_SIZE;
+		int dpi = 0;
+		String format = "png";
+		double tol = 0.0;
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		File dir = null;
+		ArrayList<File> files = new ArrayList<File>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-size")) {
+					String[] wh = args[++i].toLowerCase().split("x");
+					w = Integer.parseInt(wh[0]);
+					h = Integer.parseInt(wh[1]);
+				} else if (args[i].equals("-dpi")) {
+					dpi = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-format")) {
+					format = args[++i].toLowerCase();
+				} else if (args[i].equals("-tolerance")) {
+					tol = Double.parseDouble(args[++i]);
+				} else if (args[i].equals("-threads")) {
+					nThreads = Math.max(1, Integer.parseInt(args[++i]));
+				} else if (args[i].equals("-out")) {
+					dir = new File(args[++i]);
+				} else {
+					addDesigns(new File(args[i]), files);
+				}
+			}
+		} catch (RuntimeException e) {		// missing or bad number
+			dir = null;
+		}
+		if ((dir == null) || files.isEmpty()) {
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			System.err.println("Can't make directory " + dir.getPath());
+			System.exit(2);
+		}
+		BatchRenderer br = new BatchRenderer(w, h, dir);
+		br.setDpi(dpi);
+		try {
+			br.setFormat(format, tol);
+		} catch (IllegalArgumentException e) {
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+		int failed = br.renderAll(files, nThreads);
+		System.exit((failed == 0) ? 0 : 1);
+	}
+
+	/**
+	 * Add a design file, or all the designs in a directory
+	 * @param f file or directory
+	 * @param files list to add to
+	 */
+	private static void addDesigns(File f, List<File> files) {
+		if (f.isDirectory()) {
+			File[] list = f.listFiles();
+			if (list != null) {
+				for (File g : list) {
+					if (g.getName().endsWith(".properties")) {
+						files.add(g);
+					}
+				}
+			}
+		} else {
+			files.add(f);
+		}
+	}
+}
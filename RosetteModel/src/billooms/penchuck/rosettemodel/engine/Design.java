@@ -0,0 +1,459 @@
+package billooms.penchuck.rosettemodel.engine;
+
+import billooms.penchuck.drawables.BufferedCurve;
+import billooms.penchuck.drawables.Drawable;
+import billooms.penchuck.drawables.io.PdfWriter;
+import billooms.penchuck.drawables.io.PngWriter;
+import billooms.penchuck.drawables.io.SvgWriter;
+import billooms.penchuck.drawables.io.TiledRenderer;
+import billooms.penchuck.drawables.io.VectorWriter;
+import billooms.penchuck.drawables.machine.GcodeWriter;
+import billooms.penchuck.drawables.machine.HpglWriter;
+import billooms.penchuck.drawables.machine.MachineLimits;
+import billooms.penchuck.drawables.machine.MachineWriter;
+import billooms.penchuck.drawables.machine.TimeEstimator;
+import billooms.penchuck.drawables.machine.Toolpath;
+import billooms.penchuck.rosettemodel.api.Rosette;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * A complete pen chuck design: a rosette and the passes of the pen.
+ * A pass can be drawn with other values of the rosette (e.g. when it was edited between passes),
+ * which are kept as a RosetteState for the pass.
+ * This has nothing to do with Swing or the window system, so a design can be
+ * made, saved (as Properties) and rendered to an image without starting the platform.
+ * @author Bill Ooms Copyright (c) 2010 Studio of Bill Ooms all rights reserved
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class Design {
+	public final static double WINDOW_PERCENT = 0.9;		// use 90% of the window for the drawing
+	public final static double MAX_RADIUS = 3.0;			// largest radius that fits in the window
+	public final static Color BACKGROUND_COLOR = Color.WHITE;
+	public final static double PAGE_SIZE = 2 * MAX_RADIUS / WINDOW_PERCENT;	// inches on a side for vector export
+
+	private Rosette rosette;
+	private ArrayList<PenPass> passes = new ArrayList<PenPass>();
+	private ArrayList<RosetteState> states = new ArrayList<RosetteState>();	// rosette of each pass (null for the design's rosette)
+	private RosetteState lastState = null;	// the rosette last made for a pass, so passes with the same values share it
+	private Rosette lastRosette = null;
+
+	/**
+	 * A design with no passes
+	 * @param r rosette
+	 */
+	public Design(Rosette r) {
+		this.rosette = r;
+	}
+
+	/**
+	 * Get the rosette
+	 * @return rosette
+	 */
+	public Rosette getRosette() {
+		return rosette;
+	}
+
+	/**
+	 * Get the passes of the pen (in the order they are drawn)
+	 * @return unmodifiable list of PenPass
+	 */
+	public List<PenPass> getPasses() {
+		return Collections.unmodifiableList(passes);
+	}
+
+	/**
+	 * Add a pass of the pen drawn with the rosette of the design
+	 * @param p PenPass
+	 */
+	public void addPass(PenPass p) {
+		addPass(p, null);
+	}
+
+	/**
+	 * Add a pass of the pen drawn with other values of the rosette
+	 * @param p PenPass
+	 * @param s values of the rosette for this pass (null for the rosette of the design)
+	 */
+	public void addPass(PenPass p, RosetteState s) {
+		passes.add(p);
+		states.add(s);
+	}
+
+	/**
+	 * Get the values of the rosette a pass is drawn with
+	 * @param i index of the pass
+	 * @return values of the rosette, or null if the pass is drawn with the rosette of the design
+	 */
+	public RosetteState getPassState(int i) {
+		return states.get(i);
+	}
+
+	/**
+	 * Calculate the curve of a pass with the rosette it is drawn with
+	 * @param i index of the pass
+	 * @return new curve
+	 */
+	public BufferedCurve makeCurve(int i) {
+		return passes.get(i).makeCurve(getPassRosette(i));
+	}
+
+	/**
+	 * Get the rosette a pass is drawn with
+	 * @param i index of the pass
+	 * @return rosette which must not be changed
+	 */
+	private synchronized Rosette getPassRosette(int i) {
+		RosetteState s = states.get(i);
+		if (s == null) {
+			return rosette;
+		}
+		if (!s.equals(lastState)) {
+			lastRosette = s.makeRosette();
+			lastState = s;
+		}
+		return lastRosette;
+	}
+
+	/**
+	 * Get the order of rotational symmetry of the design: the symmetry that all the passes have in common
+	 * (see PenPass.getSymmetry), or the symmetry of the rosette if there are no passes
+	 * @return order of symmetry (1 if there is none)
+	 */
+	public int getSymmetry() {
+		int fold = 0;
+		for (int i = 0; i < passes.size(); i++) {
+			fold = PenPass.gcd(passes.get(i).getSymmetry(getPassRosette(i)), fold);
+		}
+		return (fold > 0) ? fold : Math.max(rosette.getSymmetry(), 1);
+	}
+
+	/**
+	 * Calculate the curves for all the passes
+	 * @return list of drawables (one for each pass)
+	 */
+	public List<Drawable> makeDrawables() {
+		ArrayList<Drawable> list = new ArrayList<Drawable>(passes.size());
+		for (int i = 0; i < passes.size(); i++) {
+			list.add(makeCurve(i));
+		}
+		return list;
+	}
+
+	/**
+	 * Get the scale that fits the design in a window (the same as the PenChuckEditor)
+	 * @param w width of the window in pixels
+	 * @param h height of the window in pixels
+	 * @return pixels per inch
+	 */
+	public static int getDpi(int w, int h) {
+		return (int) Math.min(WINDOW_PERCENT * w / (2 * MAX_RADIUS), WINDOW_PERCENT * h / (2 * MAX_RADIUS));
+	}
+
+	/**
+	 * Render the design to an image
+	 * @param w width in pixels
+	 * @param h height in pixels
+	 * @return image
+	 */
+	public BufferedImage render(int w, int h) {
+		BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2d = img.createGraphics();
+		g2d.setColor(BACKGROUND_COLOR);
+		g2d.fillRect(0, 0, w, h);
+		int dpi = getDpi(w, h);
+		Point zeroPix = new Point(w / 2, h / 2);
+		for (int i = 0; i < passes.size(); i++) {		// one pass at a time so that only one curve is in memory
+			makeCurve(i).paint(g2d, dpi, zeroPix);
+		}
+		g2d.dispose();
+		return img;
+	}
+
+	/**
+	 * Get the size of the image that fits the design at a given scale
+	 * @param dpi pixels per inch
+	 * @return width and height in pixels
+	 */
+	public static int getSize(int dpi) {
+		return (int) Math.ceil(2 * MAX_RADIUS * dpi / WINDOW_PERCENT);
+	}
+
+	/**
+	 * Render the design to a PNG file at high resolution.
+	 * The image is painted in tiles on several threads and written as it is finished,
+	 * so it can be much bigger than would fit in memory as a BufferedImage.
+	 * All the curves are calculated first, though, so they must fit in memory.
+	 * @param f file for the image
+	 * @param dpi pixels per inch
+	 * @param nThreads number of threads for painting
+	 * @throws IOException if the image can't be written
+	 * @throws InterruptedException if interrupted while painting
+	 */
+	public void exportPng(File f, int dpi, int nThreads) throws IOException, InterruptedException {
+		int size = getSize(dpi);
+		List<Drawable> list = makeDrawables();
+		TiledRenderer tr = new TiledRenderer(size, size);
+		tr.setBackground(BACKGROUND_COLOR);
+		PngWriter png = new PngWriter(new BufferedOutputStream(new FileOutputStream(f)), size, size);
+		boolean done = false;
+		try {
+			tr.render(list, dpi, new Point(size / 2, size / 2), png, nThreads);
+			done = true;
+		} finally {
+			if (done) {
+				png.close();
+			} else {
+				png.abort();
+			}
+		}
+	}
+
+	/**
+	 * Write the passes to a vector file.
+	 * The curves are calculated and written one at a time, so only one is ever in memory.
+	 * @param w writer (it is not closed)
+	 * @throws IOException if the file can't be written
+	 */
+	public void exportVector(VectorWriter w) throws IOException {
+		for (int i = 0; i < passes.size(); i++) {
+			w.write(makeCurve(i));
+		}
+	}
+
+	/**
+	 * Write the design to an SVG file, or a PDF file if the name ends in .pdf
+	 * @param f file
+	 * @param dpi pixels per inch for the pen widths (e.g. the dpi of the screen it was designed on)
+	 * @param tolerance points within this distance (inches) of a straight line are left out (0 to keep all)
+	 * @throws IOException if the file can't be written
+	 */
+	public void exportVector(File f, int dpi, double tolerance) throws IOException {
+		OutputStream os = new FileOutputStream(f);
+		VectorWriter w;
+		try {
+			if (f.getName().toLowerCase().endsWith(".pdf")) {
+				w = new PdfWriter(os, PAGE_SIZE, PAGE_SIZE, dpi);
+			} else {
+				w = new SvgWriter(os, PAGE_SIZE, PAGE_SIZE, dpi);
+			}
+		} catch (IOException e) {
+			os.close();
+			throw e;
+		}
+		w.setTolerance(tolerance);
+		try {
+			exportVector(w);
+		} finally {
+			w.close();
+		}
+	}
+
+	/**
+	 * Calculate the curves for all the passes and order them for a machine.
+	 * Passes with different colors stay in order, but passes with the same color are reordered
+	 * (and drawn backward if that helps) to keep the pen-up travel short.
+	 * @return toolpath starting at the center
+	 */
+	public Toolpath makeToolpath() {
+		ArrayList<BufferedCurve> list = new ArrayList<BufferedCurve>(passes.size());
+		for (int i = 0; i < passes.size(); i++) {
+			list.add(makeCurve(i));
+		}
+		return new Toolpath(list);
+	}
+
+	/**
+	 * Write the design for a machine: HP-GL if the name ends in .hpgl or .plt, otherwise G-code.
+	 * G-code has the center of the design at 0,0, and HP-GL has it in the middle of the page
+	 * (the origin of a plotter is at the lower left).
+	 * @param f file
+	 * @param lim limits of the machine for planning the feed rates
+	 * @return the toolpath that was written
+	 * @throws IOException if the file can't be written
+	 */
+	public Toolpath exportToolpath(File f, MachineLimits lim) throws IOException {
+		Toolpath tp = makeToolpath();
+		OutputStream os = new FileOutputStream(f);
+		MachineWriter w;
+		try {
+			String name = f.getName().toLowerCase();
+			if (name.endsWith(".hpgl") || name.endsWith(".plt")) {
+				w = new HpglWriter(os, PAGE_SIZE / 2, PAGE_SIZE / 2);
+			} else {
+				w = new GcodeWriter(os, lim);
+			}
+		} catch (IOException e) {
+			os.close();
+			throw e;
+		}
+		try {
+			tp.write(w, lim);
+		} finally {
+			w.close();
+		}
+		return tp;
+	}
+
+	/**
+	 * Estimate how long a machine takes to draw the passes in order (see TimeEstimator).
+	 * Use makeToolpath and TimeEstimator.estimate(Toolpath) for the time after reordering.
+	 * @param lim machine limits
+	 * @return estimator with the total and the time for each pass
+	 */
+	public TimeEstimator estimateTime(MachineLimits lim) {
+		TimeEstimator te = new TimeEstimator(lim);
+		te.estimate(makeDrawables());
+		return te;
+	}
+
+	/**
+	 * Make a design from properties (as written by toProperties).
+	 * Missing values get their defaults.
+	 * The rosette is under "rosette.", the other rosettes that passes are drawn with under "rosettes.k."
+	 * (with "rosettes.count" of them), and each pass under "pass.i." with "pass.i.rosette" = k if it has one.
+	 * @param p Properties
+	 * @return new Design
+	 * @throws IllegalArgumentException if a value can't be understood
+	 */
+	public static Design fromProperties(Properties p) {
+		Design d = new Design(RosetteState.fromProperties(p, "rosette.").makeRosette());
+		RosetteState[] others = new RosetteState[Math.max(0, getInt(p, "rosettes.count", 0))];
+		for (int k = 0; k < others.length; k++) {
+			others[k] = RosetteState.fromProperties(p, "rosettes." + k + ".");
+		}
+		int n = getInt(p, "pass.count", 0);
+		for (int i = 0; i < n; i++) {
+			String k = "pass." + i + ".";
+			PenPass pass = new PenPass(getDouble(p, k + "position", PenPass.DEFAULT_POSITION),
+					getInt(p, k + "width", PenPass.DEFAULT_WIDTH),
+					new Color(Integer.parseInt(p.getProperty(k + "color", "000000"), 16)));
+			pass.setGearing(getInt(p, k + "rosetteTurns", 1), getInt(p, k + "spindleTurns", 1));
+			pass.setSpiralTurns(getInt(p, k + "spiralTurns", 0));
+			pass.setPositionChange(getDouble(p, k + "positionChange", 0.0));
+			pass.setWidthChange(getInt(p, k + "widthChange", 0));
+			pass.setRosetteAdvance(getDouble(p, k + "rosetteAdvance", 0.0));
+			pass.setOffset(getDouble(p, k + "offsetX", 0.0), getDouble(p, k + "offsetY", 0.0));
+			pass.setPenAngle(getDouble(p, k + "penAngle", 0.0));
+			int r = getInt(p, k + "rosette", -1);
+			if (r >= others.length) {
+				throw new IllegalArgumentException("Pass " + i + " has an unknown rosette: " + r);
+			}
+			d.addPass(pass, (r < 0) ? null : others[r]);
+		}
+		return d;
+	}
+
+	/**
+	 * Write the design to properties
+	 * @param p Properties
+	 */
+	public void toProperties(Properties p) {
+		RosetteState main = new RosetteState(rosette);
+		main.toProperties(p, "rosette.");
+		int[] index = numberStates(main);
+		int count = 0;
+		for (int i = 0; i < passes.size(); i++) {
+			if (index[i] == count) {		// the first pass with these values
+				states.get(i).toProperties(p, "rosettes." + count + ".");
+				count++;
+			}
+		}
+		if (count > 0) {
+			p.setProperty("rosettes.count", Integer.toString(count));
+		}
+		p.setProperty("pass.count", Integer.toString(passes.size()));
+		for (int i = 0; i < passes.size(); i++) {
+			PenPass pass = passes.get(i);
+			String k = "pass." + i + ".";
+			p.setProperty(k + "position", Double.toString(pass.getPosition()));
+			p.setProperty(k + "width", Integer.toString(pass.getWidth()));
+			p.setProperty(k + "color", String.format("%06x", pass.getColor().getRGB() & 0xffffff));
+			p.setProperty(k + "rosetteTurns", Integer.toString(pass.getRosetteTurns()));
+			p.setProperty(k + "spindleTurns", Integer.toString(pass.getSpindleTurns()));
+			p.setProperty(k + "spiralTurns", Integer.toString(pass.getSpiralTurns()));
+			p.setProperty(k + "positionChange", Double.toString(pass.getPositionChange()));
+			p.setProperty(k + "widthChange", Integer.toString(pass.getWidthChange()));
+			p.setProperty(k + "rosetteAdvance", Double.toString(pass.getRosetteAdvance()));
+			p.setProperty(k + "offsetX", Double.toString(pass.getOffsetX()));
+			p.setProperty(k + "offsetY", Double.toString(pass.getOffsetY()));
+			p.setProperty(k + "penAngle", Double.toString(pass.getPenAngle()));
+			if (index[i] >= 0) {
+				p.setProperty(k + "rosette", Integer.toString(index[i]));
+			}
+		}
+	}
+
+	/**
+	 * Number the different values of the rosette that passes are drawn with, in the order they are first used
+	 * (for saving each of them once)
+	 * @param main values of the rosette of the design
+	 * @return number of the values of each pass (-1 for the rosette of the design)
+	 */
+	int[] numberStates(RosetteState main) {
+		HashMap<RosetteState, Integer> numbers = new HashMap<RosetteState, Integer>();
+		int[] index = new int[passes.size()];
+		for (int i = 0; i < passes.size(); i++) {
+			RosetteState s = states.get(i);
+			if ((s == null) || s.equals(main)) {
+				index[i] = -1;
+			} else {
+				Integer k = numbers.get(s);
+				if (k == null) {
+					k = numbers.size();
+					numbers.put(s, k);
+				}
+				index[i] = k;
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Get an integer property
+	 * @param p Properties
+	 * @param key name of the property
+	 * @param def default value
+	 * @return value
+	 */
+	private static int getInt(Properties p, String key, int def) {
+		String s = p.getProperty(key);
+		return (s == null) ? def : Integer.parseInt(s.trim());
+	}
+
+	/**
+	 * Get a double property
+	 * @param p Properties
+	 * @param key name of the property
+	 * @param def default value
+	 * @return value
+	 */
+	private static double getDouble(Properties p, String key, double def) {
+		String s = p.getProperty(key);
+		return (s == null) ? def : Double.parseDouble(s.trim());
+	}
+}
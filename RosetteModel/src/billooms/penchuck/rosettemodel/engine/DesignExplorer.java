@@ -0,0 +1,657 @@
+package billooms.penchuck.rosettemodel.engine;
+
+import billooms.penchuck.drawables.BufferedCurve;
+import billooms.penchuck.rosettemodel.RosetteImpl;
+import billooms.penchuck.rosettemodel.api.Rosette;
+import billooms.penchuck.rosettemodel.api.Rosette.Styles;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Searches for good designs by trying many values of the style, repeat, amplitude and phase of the rosette
+ * and the position of the pen, either on a grid or at random. Each design is made from a template design
+ * (its passes and the rest of its rosette), with the first pass moved to the position being tried and the other
+ * passes moved with it. The designs are scored by DesignMetrics on all the processors, and only the best
+ * are kept, so any number of designs can be tried. Listeners hear PROP_RESULTS each time the best designs change
+ * (on the thread that found the change).
+ * <p>
+ * The samples are numbered and each one is made from its number alone, so the results are the same
+ * however many threads are used (designs with the same score are ranked by number).
+ * <pre>
+ * java -cp RosetteModel.jar:Drawables.jar:vecmath.jar billooms.penchuck.rosettemodel.engine.DesignExplorer
+ *      [-grid STEPS | -random SAMPLES [-seed SEED]] [-top K] [-threads N] [-template design.properties]
+ *      [-styles NSIDE,FLOWER,...] [-repeat MIN:MAX] [-ptop MIN:MAX] [-phase MIN:MAX] [-position MIN:MAX]
+ *      [-coverage WEIGHT] [-symmetry [FOLD:]WEIGHT] [-spacing WEIGHT] -out DIRECTORY
+ * </pre>
+ * The command line shows each new best design as it is found and writes the best designs to the output
+ * directory as properties files (best01.properties, ...) which can be rendered with the BatchRenderer.
+ * @author Bill Ooms Copyright (c) 2010 Studio of Bill Ooms all rights reserved
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class DesignExplorer {
+	public final static String PROP_RESULTS = "results";
+	public final static int DEFAULT_TOP = 20;
+	private final static int CHUNK = 8;		// samples taken by a thread at a time
+	private final static String USAGE = "usage: DesignExplorer [-grid STEPS | -random SAMPLES [-seed SEED]] [-top K] [-threads N] [-template design.properties]"
+			+ " [-styles NSIDE,FLOWER,...] [-repeat MIN:MAX] [-ptop MIN:MAX] [-phase MIN:MAX] [-position MIN:MAX]"
+			+ " [-coverage WEIGHT] [-symmetry [FOLD:]WEIGHT] [-spacing WEIGHT] -out DIRECTORY";
+
+	private final Design template;
+	private final ArrayList<PenPass> passes = new ArrayList<PenPass>();	// passes of the template
+	private Styles[] styles;
+	private int minRepeat = 2, maxRepeat = 24;
+	private double minPToP = 0.02, maxPToP = 0.2;
+	private double minPhase = 0.0, maxPhase = 0.0;
+	private double minPosition = 0.5, maxPosition = 2.5;
+	private final ArrayList<DesignMetric> metrics = new ArrayList<DesignMetric>();
+	private final ArrayList<Double> weights = new ArrayList<Double>();
+	private int top = DEFAULT_TOP;
+
+	private final PriorityQueue<Result> best = new PriorityQueue<Result>();	// worst of the best first
+	private volatile boolean cancelled = false;
+	private final PropertyChangeSupport pss = new PropertyChangeSupport(this);
+
+	/**
+	 * An explorer that changes a template design
+	 * @param d template (one pass at the default position is used if it has none)
+	 */
+	public DesignExplorer(Design d) {
+		this.template = d;
+		passes.addAll(d.getPasses());
+		if (passes.isEmpty()) {
+			passes.add(new PenPass());
+		}
+		ArrayList<Styles> list = new ArrayList<Styles>();
+		for (Styles s : Styles.values()) {
+			if ((s != Styles.NONE) && (s != Styles.CUSTOM)) {	// CUSTOM needs a measured profile
+				list.add(s);
+			}
+		}
+		styles = list.toArray(new Styles[list.size()]);
+	}
+
+	/**
+	 * Set the styles to try
+	 * @param s styles
+	 */
+	public void setStyles(Styles... s) {
+		if (s.length == 0) {
+			throw new IllegalArgumentException("No styles");
+		}
+		styles = s.clone();
+	}
+
+	/**
+	 * Set the range of repeats to try (every repeat in the range is tried on a grid)
+	 * @param min smallest
+	 * @param max largest
+	 */
+	public void setRepeats(int min, int max) {
+		minRepeat = Math.max(min, 1);
+		maxRepeat = Math.max(max, minRepeat);
+	}
+
+	/**
+	 * Set the range of peak-to-peak amplitudes to try
+	 * @param min smallest in inches
+	 * @param max largest in inches
+	 */
+	public void setPToP(double min, double max) {
+		minPToP = min;
+		maxPToP = Math.max(max, min);
+	}
+
+	/**
+	 * Set the range of phases to try
+	 * @param min smallest in degrees
+	 * @param max largest in degrees
+	 */
+	public void setPhase(double min, double max) {
+		minPhase = min;
+		maxPhase = Math.max(max, min);
+	}
+
+	/**
+	 * Set the range of positions of the first pen pass to try
+	 * @param min smallest in inches
+	 * @param max largest in inches
+	 */
+	public void setPosition(double min, double max) {
+		minPosition = min;
+		maxPosition = Math.max(max, min);
+	}
+
+	/**
+	 * Add a metric for scoring the designs. The score of a design is the weighted average of the metrics.
+	 * @param m metric
+	 * @param weight weight of the metric
+	 */
+	public void addMetric(DesignMetric m, double weight) {
+		metrics.add(m);
+		weights.add(weight);
+	}
+
+	/**
+	 * Set the number of designs kept
+	 * @param k number of designs
+	 */
+	public void setTop(int k) {
+		top = Math.max(k, 1);
+	}
+
+	/**
+	 * Get the number of designs on a grid
+	 * @param steps number of values from smallest to largest for the amplitude, phase and position
+	 * @return number of designs
+	 */
+	public long getGridSize(int steps) {
+		long n = (long) styles.length * (maxRepeat - minRepeat + 1);
+		n *= (maxPToP > minPToP) ? steps : 1;
+		n *= (maxPhase > minPhase) ? steps : 1;
+		n *= (maxPosition > minPosition) ? steps : 1;
+		return n;
+	}
+
+	/**
+	 * Try every design on a grid. Each range with more than one value is divided into steps
+	 * (every repeat is tried).
+	 * @param steps number of values from smallest to largest for the amplitude, phase and position
+	 * @param nThreads number of threads
+	 * @return the best designs (best first)
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public List<Result> exploreGrid(final int steps, int nThreads) throws InterruptedException {
+		if (steps < 1) {
+			throw new IllegalArgumentException("Bad number of steps");
+		}
+		return explore(getGridSize(steps), new Sampler() {
+			@Override
+			double[] sample(long i) {
+				double[] v = new double[5];
+				v[0] = i % styles.length;
+				i /= styles.length;
+				v[1] = minRepeat + i % (maxRepeat - minRepeat + 1);
+				i /= (maxRepeat - minRepeat + 1);
+				if (maxPToP > minPToP) {
+					v[2] = step(minPToP, maxPToP, (int) (i % steps), steps);
+					i /= steps;
+				} else {
+					v[2] = minPToP;
+				}
+				if (maxPhase > minPhase) {
+					v[3] = step(minPhase, maxPhase, (int) (i % steps), steps);
+					i /= steps;
+				} else {
+					v[3] = minPhase;
+				}
+				v[4] = (maxPosition > minPosition) ? step(minPosition, maxPosition, (int) (i % steps), steps) : minPosition;
+				return v;
+			}
+		}, nThreads);
+	}
+
+	/**
+	 * Try designs at random
+	 * @param n number of designs
+	 * @param seed seed for the random numbers (the same seed gives the same designs)
+	 * @param nThreads number of threads
+	 * @return the best designs (best first)
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public List<Result> exploreRandom(long n, final long seed, int nThreads) throws InterruptedException {
+		return explore(n, new Sampler() {
+			@Override
+			double[] sample(long i) {
+				Random r = new Random(seed + i * 0x9E3779B97F4A7C15L);
+				double[] v = new double[5];
+				v[0] = r.nextInt(styles.length);
+				v[1] = minRepeat + r.nextInt(maxRepeat - minRepeat + 1);
+				v[2] = minPToP + r.nextDouble() * (maxPToP - minPToP);
+				v[3] = minPhase + r.nextDouble() * (maxPhase - minPhase);
+				v[4] = minPosition + r.nextDouble() * (maxPosition - minPosition);
+				return v;
+			}
+		}, nThreads);
+	}
+
+	/**
+	 * Stop exploring (the designs found so far are kept)
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Get the best designs found so far
+	 * @return results, best first
+	 */
+	public List<Result> getResults() {
+		synchronized (best) {
+			ArrayList<Result> list = new ArrayList<Result>(best);
+			Collections.sort(list, Collections.reverseOrder());
+			return list;
+		}
+	}
+
+	/**
+	 * Make a design from the template
+	 * @param style style of the rosette
+	 * @param repeat repeat of the rosette
+	 * @param pToP peak-to-peak amplitude of the rosette
+	 * @param phase phase of the rosette
+	 * @param position position of the first pass (the others are moved by the same amount)
+	 * @return design
+	 */
+	public Design makeDesign(Styles style, int repeat, double pToP, double phase, double position) {
+		Rosette t = template.getRosette();
+		RosetteImpl r = new RosetteImpl(style, repeat, pToP, phase);
+		r.setPumpAmp(t.getPumpAmp());
+		r.setPumpPhase(t.getPumpPhase());
+		if (t instanceof RosetteImpl) {
+			r.setFollowerRadius(((RosetteImpl) t).getFollowerRadius());
+		}
+		Design d = new Design(r);
+		double shift = position - passes.get(0).getPosition();
+		for (PenPass p : passes) {
+			PenPass q = new PenPass(p);
+			q.setPosition(p.getPosition() + shift);
+			d.addPass(q);
+		}
+		return d;
+	}
+
+	/**
+	 * Add a listener which hears PROP_RESULTS (with a list of the best designs, best first) when they change
+	 * @param listener listener
+	 */
+	public void addPropertyChangeListener(PropertyChangeListener listener) {
+		pss.addPropertyChangeListener(listener);
+	}
+
+	/**
+	 * Remove a listener
+	 * @param listener listener
+	 */
+	public void removePropertyChangeListener(PropertyChangeListener listener) {
+		pss.removePropertyChangeListener(listener);
+	}
+
+	/**
+	 * Score samples on a pool of threads. Each thread takes the next few samples until they are all done.
+	 * @param n number of samples
+	 * @param sampler makes the values of a sample from its number
+	 * @param nThreads number of threads
+	 * @return the best designs (best first)
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private List<Result> explore(final long n, final Sampler sampler, int nThreads) throws InterruptedException {
+		if (metrics.isEmpty()) {
+			throw new IllegalStateException("No metrics");
+		}
+		synchronized (best) {
+			best.clear();
+		}
+		cancelled = false;
+		final AtomicLong next = new AtomicLong(0);
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(nThreads, 1));
+		try {
+			ArrayList<Future<Object>> workers = new ArrayList<Future<Object>>();
+			for (int t = 0; t < Math.max(nThreads, 1); t++) {
+				workers.add(pool.submit(new Callable<Object>() {
+					@Override
+					public Object call() {
+						long i;
+						while (!cancelled && ((i = next.getAndAdd(CHUNK)) < n)) {
+							for (long j = i; (j < Math.min(i + CHUNK, n)) && !cancelled; j++) {
+								offer(evaluate(j, sampler.sample(j)));
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Object> f : workers) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					cancelled = true;
+					throw new IllegalStateException("Exploring failed: " + e.getCause(), e.getCause());
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return getResults();
+	}
+
+	/**
+	 * Make and score a design
+	 * @param index number of the sample
+	 * @param v style (index into styles), repeat, amplitude, phase and position
+	 * @return result
+	 */
+	private Result evaluate(long index, double[] v) {
+		Design d = makeDesign(styles[(int) v[0]], (int) v[1], v[2], v[3], v[4]);
+		ArrayList<BufferedCurve> curves = new ArrayList<BufferedCurve>(d.getPasses().size());
+		for (PenPass p : d.getPasses()) {
+			curves.add(p.makeCurve(d.getRosette()));
+		}
+		double[] scores = new double[metrics.size()];
+		double sum = 0.0, total = 0.0;
+		for (int m = 0; m < scores.length; m++) {
+			scores[m] = metrics.get(m).score(d, curves);
+			if (Double.isNaN(scores[m])) {
+				scores[m] = 0.0;
+			}
+			sum += weights.get(m) * scores[m];
+			total += weights.get(m);
+		}
+		return new Result(index, d, (total > 0.0) ? sum / total : 0.0, scores);
+	}
+
+	/**
+	 * Keep a result if it is one of the best, and tell the listeners
+	 * @param r result
+	 */
+	private void offer(Result r) {
+		synchronized (best) {
+			if (best.size() >= top) {
+				if (r.compareTo(best.peek()) <= 0) {
+					return;		// not good enough
+				}
+				best.poll();
+			}
+			best.add(r);
+			pss.firePropertyChange(PROP_RESULTS, null, getResults());	// in order, since this holds the lock
+		}
+	}
+
+	/**
+	 * Get one of the values from the smallest to the largest
+	 * @param min smallest
+	 * @param max largest
+	 * @param k which value (0 to steps-1)
+	 * @param steps number of values
+	 * @return value
+	 */
+	private static double step(double min, double max, int k, int steps) {
+		return (steps == 1) ? min : min + (max - min) * k / (steps - 1);
+	}
+
+	/**
+	 * Makes the values of a sample from its number
+	 */
+	private static abstract class Sampler {
+		abstract double[] sample(long i);
+	}
+
+	/**
+	 * A design and its scores
+	 */
+	public static class Result implements Comparable<Result> {
+		private final long index;
+		private final Design design;
+		private final double score;
+		private final double[] scores;
+
+		Result(long i, Design d, double s, double[] m) {
+			this.index = i;
+			this.design = d;
+			this.score = s;
+			this.scores = m;
+		}
+
+		/**
+		 * Get the number of the sample
+		 * @return number
+		 */
+		public long getIndex() {
+			return index;
+		}
+
+		/**
+		 * Get the design
+		 * @return design
+		 */
+		public Design getDesign() {
+			return design;
+		}
+
+		/**
+		 * Get the score (the weighted average of the metrics)
+		 * @return score from 0.0 to 1.0
+		 */
+		public double getScore() {
+			return score;
+		}
+
+		/**
+		 * Get the score of one metric
+		 * @param m index of the metric (in the order they were added)
+		 * @return score from 0.0 to 1.0
+		 */
+		public double getScore(int m) {
+			return scores[m];
+		}
+
+		/**
+		 * Better results are greater. With the same score, the lower number is better.
+		 * @param r other result
+		 * @return comparison
+		 */
+		@Override
+		public int compareTo(Result r) {
+			int c = Double.compare(score, r.score);
+			if (c != 0) {
+				return c;
+			}
+			return (index < r.index) ? 1 : ((index > r.index) ? -1 : 0);
+		}
+
+		@Override
+		public String toString() {
+			Rosette ros = design.getRosette();
+			return String.format("%.4f  %s %d pToP=%.4f phase=%.1f position=%.4f", score, ros.getStyle().name(),
+					ros.getRepeat(), ros.getPToP(), ros.getPhase(), design.getPasses().get(0).getPosition());
+		}
+	}
+
+	/**
+	 * Command line entry
+	 * @param args see the class description
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		System.setProperty("java.awt.headless", "true");
+		int steps = 5;
+		long samples = 0;		// 0 for a grid
+		long seed = 1;
+		int k = DEFAULT_TOP;
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		File dir = null;
+		DesignExplorer ex;
+		try {
+			Design t = new Design(new RosetteImpl());
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-template")) {
+					t = readDesign(new File(args[++i]));
+				}
+			}
+			ex = new DesignExplorer(t);
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-grid")) {
+					steps = Integer.parseInt(args[++i]);
+					samples = 0;
+				} else if (args[i].equals("-random")) {
+					samples = Long.parseLong(args[++i]);
+				} else if (args[i].equals("-seed")) {
+					seed = Long.parseLong(args[++i]);
+				} else if (args[i].equals("-top")) {
+					k = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-threads")) {
+					nThreads = Math.max(1, Integer.parseInt(args[++i]));
+				} else if (args[i].equals("-template")) {
+					i++;		// already read
+				} else if (args[i].equals("-styles")) {
+					String[] names = args[++i].toUpperCase().split(",");
+					Styles[] s = new Styles[names.length];
+					for (int j = 0; j < names.length; j++) {
+						s[j] = Styles.valueOf(names[j].trim());
+					}
+					ex.setStyles(s);
+				} else if (args[i].equals("-repeat")) {
+					String[] r = args[++i].split(":");
+					ex.setRepeats(Integer.parseInt(r[0]), Integer.parseInt(r[r.length - 1]));
+				} else if (args[i].equals("-ptop")) {
+					double[] r = range(args[++i]);
+					ex.setPToP(r[0], r[1]);
+				} else if (args[i].equals("-phase")) {
+					double[] r = range(args[++i]);
+					ex.setPhase(r[0], r[1]);
+				} else if (args[i].equals("-position")) {
+					double[] r = range(args[++i]);
+					ex.setPosition(r[0], r[1]);
+				} else if (args[i].equals("-coverage")) {
+					ex.addMetric(DesignMetrics.coverage(DesignMetrics.DEFAULT_CELL), Double.parseDouble(args[++i]));
+				} else if (args[i].equals("-symmetry")) {
+					String[] v = args[++i].split(":");		// FOLD:WEIGHT, or just WEIGHT for the symmetry of each design
+					int fold = (v.length > 1) ? Integer.parseInt(v[0]) : 0;
+					ex.addMetric(DesignMetrics.symmetry(fold), Double.parseDouble(v[v.length - 1]));
+				} else if (args[i].equals("-spacing")) {
+					ex.addMetric(DesignMetrics.spacing(DesignMetrics.DEFAULT_CELL), Double.parseDouble(args[++i]));
+				} else if (args[i].equals("-out")) {
+					dir = new File(args[++i]);
+				} else {
+					throw new IllegalArgumentException(args[i]);
+				}
+			}
+		} catch (RuntimeException e) {		// missing or bad value
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(2);
+			return;
+		}
+		if (dir == null) {
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			System.err.println("Can't make directory " + dir.getPath());
+			System.exit(2);
+		}
+		if (ex.metrics.isEmpty()) {
+			ex.addMetric(DesignMetrics.coverage(DesignMetrics.DEFAULT_CELL), 1.0);
+		}
+		ex.setTop(k);
+		ex.addPropertyChangeListener(new PropertyChangeListener() {
+			private Result shown = null;
+
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				@SuppressWarnings("unchecked")
+				List<Result> list = (List<Result>) evt.getNewValue();
+				if (!list.isEmpty() && (list.get(0) != shown)) {
+					shown = list.get(0);
+					System.out.println("best " + shown);
+				}
+			}
+		});
+		long n = (samples > 0) ? samples : ex.getGridSize(steps);
+		System.out.println("exploring " + n + " designs");
+		List<Result> results = (samples > 0) ? ex.exploreRandom(samples, seed, nThreads) : ex.exploreGrid(steps, nThreads);
+		int failed = 0;
+		for (int i = 0; i < results.size(); i++) {
+			File f = new File(dir, String.format("best%02d.properties", i + 1));
+			System.out.println(f.getName() + "  " + results.get(i));
+			try {
+				writeDesign(results.get(i).getDesign(), f);
+			} catch (IOException e) {
+				System.err.println(f.getPath() + ": " + e.getMessage());
+				failed++;
+			}
+		}
+		System.exit((failed == 0) ? 0 : 1);
+	}
+
+	/**
+	 * Read a range
+	 * @param s MIN:MAX, or one value
+	 * @return min and max
+	 */
+	private static double[] range(String s) {
+		String[] r = s.split(":");
+		return new double[] {Double.parseDouble(r[0]), Double.parseDouble(r[r.length - 1])};
+	}
+
+	/**
+	 * Read a design properties file
+	 * @param f file
+	 * @return design
+	 * @throws IOException if it can't be read
+	 */
+	private static Design readDesign(File f) throws IOException {
+		Properties p = new Properties();
+		InputStream in = new FileInputStream(f);
+		try {
+			p.load(in);
+		} finally {
+			in.close();
+		}
+		try {
+			return Design.fromProperties(p);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Bad design " + f.getName() + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Write a design properties file
+	 * @param d design
+	 * @param f file
+	 * @throws IOException if it can't be written
+	 */
+	private static void writeDesign(Design d, File f) throws IOException {
+		Properties p = new Properties();
+		d.toProperties(p);
+		OutputStream out = new FileOutputStream(f);
+		try {
+			p.store(out, "Found by DesignExplorer");
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,474 @@
+package billooms.penchuck.rosettemodel.engine;
+
+import billooms.penchuck.drawables.BufferedCurve;
+import java.awt.Color;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * A design saved in a compact binary file, optionally with the curves that were calculated for it,
+ * so a large drawing can be shown again without calculating it.
+ * <p>
+ * A file is read by mapping it into memory: opening it only reads the header, and the points of a curve
+ * are only read (and paged in by the operating system) when getCurve is called.
+ * The file stays mapped until this object is garbage collected, and on some systems
+ * (e.g. Windows) a mapped file can't be replaced until then, so a file that may still be mapped
+ * (e.g. the one a session was loaded from) should be saved with writeNew rather than replaced.
+ * <p>
+ * The file is big-endian:
+ * <pre>
+ * int MAGIC, int version, int flags (GEOMETRY)
+ * rosette: UTF style name, int repeat, double pToP, phase, pumpAmp, pumpPhase, followerRadius,
+ *     int number of layers of a CompoundRosette (0 for a RosetteImpl; not in version 1), then if there are any:
+ *     UTF combine name, int selected layer, and for each layer: UTF style name, int repeat, double pToP, phase
+ *     int number of samples of a measured profile (0 for none; not in version 1), then if there are any:
+ *     UTF profile name ("" for none), and for each sample: double radius
+ * int number of other rosettes that passes are drawn with (not in version 1), then each of them as above
+ * int number of passes, then for each pass:
+ *     double position, int width, int color (RGB), int rosetteTurns, int spindleTurns, int spiralTurns,
+ *     double positionChange, int widthChange, double rosetteAdvance, offsetX, offsetY, penAngle,
+ *     int number of the other rosette it is drawn with (-1 for the rosette above; not in version 1)
+ * with GEOMETRY, for each pass: int number of points, int closed (0 or 1), then for each point: double x, double y, int width
+ *     followed by a long offset in the file of the curve of each pass, and a long offset of that table (the last 8 bytes)
+ * </pre>
+ * The rosettes are saved as RosetteStates. Files of version 1 can still be read.
+ * @author Bill Ooms Copyright (c) 2010 Studio of Bill Ooms all rights reserved
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class DesignFile {
+	public final static int MAGIC = 0x50434446;		// "PCDF"
+	public final static int VERSION = 2;
+	public final static int GEOMETRY = 1;			// flag: the curves are saved
+	private final static int PASS_BYTES = 8 + 4 * 5 + 8 + 4 + 8 * 4;
+	private final static int POINT_BYTES = 8 + 8 + 4;
+	private final static long MAX_SIZE = Integer.MAX_VALUE;	// largest file that can be mapped
+
+	private final ByteBuffer buf;
+	private final int version;
+	private final Design design;
+	private final long[] offsets;		// offset of the curve of each pass (null without geometry)
+
+	/**
+	 * Open a design file
+	 * @param f file
+	 * @throws IOException if it can't be read or isn't a design file
+	 */
+	public DesignFile(File f) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			FileChannel ch = raf.getChannel();
+			if (ch.size() > Integer.MAX_VALUE) {
+				throw new IOException(f.getName() + " is too big to map");
+			}
+			MappedByteBuffer mb = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+			this.buf = mb;
+		} finally {
+			raf.close();		// the mapping stays valid
+		}
+		try {
+			if (buf.getInt() != MAGIC) {
+				throw new IOException(f.getName() + " is not a design file");
+			}
+			version = buf.getInt();
+			if (version > VERSION) {
+				throw new IOException(f.getName() + " has version " + version + " which is newer than this program");
+			} else if (version < 1) {
+				throw new IOException(f.getName() + " is damaged");
+			}
+			int flags = buf.getInt();
+			design = new Design(RosetteState.read(buf, version).makeRosette());
+			int nStates = (version >= 2) ? buf.getInt() : 0;
+			if ((nStates < 0) || (nStates > buf.remaining())) {
+				throw new IOException(f.getName() + " is damaged");
+			}
+			RosetteState[] states = new RosetteState[nStates];
+			for (int k = 0; k < nStates; k++) {
+				states[k] = RosetteState.read(buf, version);
+			}
+			int passBytes = (version >= 2) ? PASS_BYTES + 4 : PASS_BYTES;
+			int n = buf.getInt();
+			if ((n < 0) || (n > buf.remaining() / passBytes)) {
+				throw new IOException(f.getName() + " is damaged");
+			}
+			for (int i = 0; i < n; i++) {
+				PenPass p = readPass();
+				int k = (version >= 2) ? buf.getInt() : -1;
+				if (k >= nStates) {
+					throw new IOException(f.getName() + " is damaged");
+				}
+				design.addPass(p, (k < 0) ? null : states[k]);
+			}
+			if ((flags & GEOMETRY) != 0) {
+				int table = (int) buf.getLong(buf.limit() - 8);
+				offsets = new long[n];
+				for (int i = 0; i < n; i++) {
+					offsets[i] = buf.getLong(table + 8 * i);
+				}
+			} else {
+				offsets = null;
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException(f.getName() + " is too short");
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException(f.getName() + " is damaged");
+		} catch (IllegalArgumentException e) {		// e.g. an unknown style
+			throw new IOException(f.getName() + " is damaged: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Get the version of the file
+	 * @return version
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Get the design (the rosette and the passes)
+	 * @return design
+	 */
+	public Design getDesign() {
+		return design;
+	}
+
+	/**
+	 * Find out if the curves were saved
+	 * @return true if getCurve can be used
+	 */
+	public boolean hasGeometry() {
+		return offsets != null;
+	}
+
+	/**
+	 * Get the number of points in the saved curve of a pass
+	 * @param i index of the pass
+	 * @return number of points
+	 * @throws IllegalStateException if the curves weren't saved
+	 */
+	public int getPointCount(int i) {
+		checkGeometry();
+		return buf.getInt((int) offsets[i]);
+	}
+
+	/**
+	 * Read the saved curve of a pass
+	 * @param i index of the pass
+	 * @return new curve in the color of the pass
+	 * @throws IOException if the file is damaged
+	 * @throws IllegalStateException if the curves weren't saved
+	 */
+	public BufferedCurve getCurve(int i) throws IOException {
+		checkGeometry();
+		try {
+			int pos = (int) offsets[i];
+			int n = buf.getInt(pos);
+			boolean closed = buf.getInt(pos + 4) != 0;
+			if ((n < 0) || (n > (buf.limit() - pos - 8) / POINT_BYTES)) {
+				throw new IOException("Curve " + i + " is damaged");
+			}
+			BufferedCurve c = new BufferedCurve(n, design.getPasses().get(i).getColor());
+			pos += 8;
+			for (int k = 0; k < n; k++, pos += POINT_BYTES) {
+				c.add(buf.getDouble(pos), buf.getDouble(pos + 8), buf.getInt(pos + 16));
+			}
+			c.setClosed(closed);
+			return c;
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Curve " + i + " is damaged");
+		}
+	}
+
+	/**
+	 * Get the saved curves as a list which reads each curve when it is asked for (see getCurve),
+	 * so they don't all have to be in memory, e.g. for PassHistory.reset
+	 * @return unmodifiable list of new curves, with null for a curve that is damaged
+	 * @throws IllegalStateException if the curves weren't saved
+	 */
+	public List<BufferedCurve> getCurves() {
+		checkGeometry();
+		return new AbstractList<BufferedCurve>() {
+			@Override
+			public BufferedCurve get(int i) {
+				try {
+					return getCurve(i);
+				} catch (IOException e) {
+					return null;		// it can be calculated instead
+				}
+			}
+
+			@Override
+			public int size() {
+				return offsets.length;
+			}
+		};
+	}
+
+	/**
+	 * Save a design, with or without its curves.
+	 * The curves are calculated and written one at a time, so only one is ever in memory.
+	 * The file is written under another name and then renamed, so a failure doesn't lose the old file.
+	 * If the curves would make the file too big to map, it is saved without them (they can be calculated again).
+	 * @param f file
+	 * @param d design
+	 * @param geometry true to calculate and save the curves
+	 * @throws IOException if it can't be written
+	 */
+	public static void write(File f, Design d, boolean geometry) throws IOException {
+		try {
+			write(f, d, null, geometry);
+		} catch (TooBigException e) {
+			write(f, d, null, false);
+		}
+	}
+
+	/**
+	 * Save a design with curves that have already been calculated.
+	 * The curves are written in order, so the list can read or calculate each one when it is asked for
+	 * (e.g. PassHistory.peekCurves) to keep only one in memory.
+	 * If the curves would make the file too big to map, it is saved without them (they can be calculated again).
+	 * @param f file
+	 * @param d design
+	 * @param curves curve of each pass of the design (null to not save the curves; an element may be null to calculate it)
+	 * @throws IOException if it can't be written
+	 */
+	public static void write(File f, Design d, List<? extends BufferedCurve> curves) throws IOException {
+		if ((curves != null) && (curves.size() != d.getPasses().size())) {
+			throw new IllegalArgumentException("Need one curve for each pass");
+		}
+		try {
+			write(f, d, curves, curves != null);
+		} catch (TooBigException e) {
+			write(f, d, null, false);
+		}
+	}
+
+	/**
+	 * Save a design to a new file in a directory, so a file that may still be mapped is never replaced.
+	 * The name is the prefix and a time, e.g. penchuck-1286000000000.pcd. Then the older files with the prefix
+	 * are deleted if they can be (one that is still mapped may not be deleted until a later save).
+	 * @param dir directory (it is made if needed)
+	 * @param prefix start of the name of the file
+	 * @param d design
+	 * @param curves curve of each pass of the design (see write), or null to not save the curves
+	 * @return the new file
+	 * @throws IOException if it can't be written
+	 */
+	public static File writeNew(File dir, String prefix, Design d, List<? extends BufferedCurve> curves) throws IOException {
+		dir.mkdirs();
+		long time = System.currentTimeMillis();
+		File f;
+		do {
+			f = new File(dir, prefix + "-" + time++ + ".pcd");
+		} while (f.exists());
+		write(f, d, curves);
+		File[] old = dir.listFiles();
+		if (old != null) {
+			for (File o : old) {
+				if (!o.equals(f) && o.getName().startsWith(prefix) && o.getName().endsWith(".pcd")) {
+					o.delete();		// best effort
+				}
+			}
+		}
+		return f;
+	}
+
+	/**
+	 * Save a design
+	 * @param f file
+	 * @param d design
+	 * @param curves curve of each pass (an element may be null), or null to calculate them
+	 * @param geometry true to save the curves
+	 * @throws TooBigException if the curves make the file too big to map (nothing is changed)
+	 * @throws IOException if it can't be written
+	 */
+	private static void write(File f, Design d, List<? extends BufferedCurve> curves, boolean geometry) throws IOException {
+		File tmp = new File(f.getPath() + ".tmp");
+		CountingStream counter = new CountingStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+		DataOutputStream out = new DataOutputStream(counter);	// its own count stops at Integer.MAX_VALUE
+		boolean done = false;
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(geometry ? GEOMETRY : 0);
+			RosetteState main = new RosetteState(d.getRosette());
+			main.write(out);
+			List<PenPass> passes = d.getPasses();
+			int[] index = d.numberStates(main);
+			int count = 0;
+			for (int k : index) {
+				count = Math.max(count, k + 1);
+			}
+			out.writeInt(count);
+			for (int i = 0, next = 0; i < passes.size(); i++) {
+				if (index[i] == next) {		// the first pass with these values
+					d.getPassState(i).write(out);
+					next++;
+				}
+			}
+			out.writeInt(passes.size());
+			for (int i = 0; i < passes.size(); i++) {
+				writePass(out, passes.get(i));
+				out.writeInt(index[i]);
+			}
+			if (geometry) {
+				long[] offsets = new long[passes.size()];
+				for (int i = 0; i < passes.size(); i++) {
+					offsets[i] = counter.count;
+					if (counter.count + 8L * (passes.size() + 1) > MAX_SIZE) {	// stop as soon as the table can't fit
+						throw new TooBigException();
+					}
+					BufferedCurve c = (curves != null) ? curves.get(i) : null;
+					if (c == null) {
+						c = d.makeCurve(i);
+					}
+					writeCurve(out, c);
+				}
+				long table = counter.count;
+				for (long off : offsets) {
+					out.writeLong(off);
+				}
+				out.writeLong(table);
+				if (counter.count > MAX_SIZE) {
+					throw new TooBigException();
+				}
+			}
+			done = true;
+		} finally {
+			out.close();
+			if (!done) {
+				tmp.delete();
+			}
+		}
+		if (f.exists() && !f.delete()) {
+			tmp.delete();
+			throw new IOException("Can't replace " + f.getPath());
+		}
+		if (!tmp.renameTo(f)) {
+			throw new IOException("Can't rename " + tmp.getPath());
+		}
+	}
+
+	/**
+	 * Write the values of a pass
+	 * @param out stream
+	 * @param p pass
+	 * @throws IOException if it can't be written
+	 */
+	private static void writePass(DataOutputStream out, PenPass p) throws IOException {
+		out.writeDouble(p.getPosition());
+		out.writeInt(p.getWidth());
+		out.writeInt(p.getColor().getRGB() & 0xffffff);
+		out.writeInt(p.getRosetteTurns());
+		out.writeInt(p.getSpindleTurns());
+		out.writeInt(p.getSpiralTurns());
+		out.writeDouble(p.getPositionChange());
+		out.writeInt(p.getWidthChange());
+		out.writeDouble(p.getRosetteAdvance());
+		out.writeDouble(p.getOffsetX());
+		out.writeDouble(p.getOffsetY());
+		out.writeDouble(p.getPenAngle());
+	}
+
+	/**
+	 * Read the values of a pass
+	 * @return new pass
+	 */
+	private PenPass readPass() {
+		PenPass p = new PenPass(buf.getDouble(), buf.getInt(), new Color(buf.getInt()));
+		int rosetteTurns = buf.getInt();
+		p.setGearing(rosetteTurns, buf.getInt());
+		p.setSpiralTurns(buf.getInt());
+		p.setPositionChange(buf.getDouble());
+		p.setWidthChange(buf.getInt());
+		p.setRosetteAdvance(buf.getDouble());
+		double x = buf.getDouble();
+		p.setOffset(x, buf.getDouble());
+		p.setPenAngle(buf.getDouble());
+		return p;
+	}
+
+	/**
+	 * Write the points of a curve
+	 * @param out stream
+	 * @param c curve
+	 * @throws IOException if it can't be written
+	 */
+	private static void writeCurve(DataOutputStream out, BufferedCurve c) throws IOException {
+		int n = c.getSize();
+		out.writeInt(n);
+		out.writeInt(c.isClosed() ? 1 : 0);
+		for (int k = 0; k < n; k++) {
+			out.writeDouble(c.getX(k));
+			out.writeDouble(c.getY(k));
+			out.writeInt(c.getWidth(k));
+		}
+	}
+
+	/**
+	 * Thrown when the curves would make a file too big to map
+	 */
+	private static class TooBigException extends IOException {
+
+		TooBigException() {
+			super("Design is too big to save with its curves");
+		}
+	}
+
+	/**
+	 * Counts the bytes written, with a long
+	 */
+	private static class CountingStream extends FilterOutputStream {
+		private long count = 0;
+
+		CountingStream(OutputStream os) {
+			super(os);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+	/**
+	 * Check that the curves were saved
+	 * @throws IllegalStateException if they weren't
+	 */
+	private void checkGeometry() {
+		if (offsets == null) {
+			throw new IllegalStateException("The curves were not saved");
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package billooms.penchuck.rosettemodel.engine;
+
+import billooms.penchuck.drawables.BufferedCurve;
+import java.util.List;
+
+/**
+ * A measure of how good a design looks, used by the DesignExplorer to rank designs.
+ * See DesignMetrics for the ones that come with the program.
+ * A metric is used by several threads at once, so it must not keep anything between calls.
+ * @author Bill Ooms Copyright (c) 2010 Studio of Bill Ooms all rights reserved
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public interface DesignMetric {
+
+	/**
+	 * Get the name of the metric (for showing with the scores)
+	 * @return name
+	 */
+	public String getName();
+
+	/**
+	 * Score a design
+	 * @param d design
+	 * @param curves curve of each pass of the design
+	 * @return score from 0.0 (bad) to 1.0 (good)
+	 */
+	public double score(Design d, List<BufferedCurve> curves);
+}
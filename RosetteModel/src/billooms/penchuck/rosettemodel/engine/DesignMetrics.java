@@ -0,0 +1,284 @@
+package billooms.penchuck.rosettemodel.engine;
+
+import billooms.penchuck.drawables.BufferedCurve;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The metrics that come with the program for the DesignExplorer.
+ * Each one looks only at the curves, so they work for any rosette.
+ * @author Bill Ooms Copyright (c) 2010 Studio of Bill Ooms all rights reserved
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class DesignMetrics {
+	public final static double DEFAULT_CELL = 0.02;		// inches (about the width of a fine pen line)
+	private final static int ANGLE_BINS = 720;			// half a degree
+	private final static int RADIUS_BINS = 64;
+	private final static int MAX_CELLS = 512;			// limit on the cells across a grid
+
+	private DesignMetrics() {
+	}
+
+	/**
+	 * A metric for how much of the disk around the design has ink on it.
+	 * The disk is divided into square cells and the score is the fraction of the cells that a line goes through.
+	 * @param cell size of the cells in inches
+	 * @return metric
+	 */
+	public static DesignMetric coverage(final double cell) {
+		return new DesignMetric() {
+			@Override
+			public String getName() {
+				return "coverage";
+			}
+
+			@Override
+			public double score(Design d, List<BufferedCurve> curves) {
+				double rMax = maxRadius(curves);
+				if (rMax <= 0.0) {
+					return 0.0;
+				}
+				double size = Math.max(cell, 2 * rMax / MAX_CELLS);
+				final int n = (int) Math.ceil(2 * rMax / size) + 1;
+				final double s = size;
+				final double r = rMax;
+				final BitSet ink = new BitSet(n * n);
+				walk(curves, size / 2, new Visitor() {
+					@Override
+					void visit(double x, double y) {
+						int i = (int) ((x + r) / s);
+						int j = (int) ((y + r) / s);
+						ink.set(j * n + i);
+					}
+				});
+				double disk = Math.PI * rMax * rMax / (size * size);
+				return Math.min(ink.cardinality() / Math.max(disk, 1.0), 1.0);
+			}
+		};
+	}
+
+	/**
+	 * A metric for rotational symmetry about the center of the chuck, using the symmetry that the rosette
+	 * and gearing give the design (see Design.getSymmetry), so a rosette with an odd repeat isn't marked down.
+	 * @return metric
+	 */
+	public static DesignMetric symmetry() {
+		return symmetry(0);
+	}
+
+	/**
+	 * A metric for rotational symmetry about the center of the chuck.
+	 * The lines are binned by angle and radius, and the score is how many of the bins with ink still have ink
+	 * after turning by 1/fold of a revolution (the number in both divided by the number in either).
+	 * A design is only symmetric for a fold that divides the symmetry of its rosette and gearing
+	 * (e.g. a rosette with a repeat of 5 isn't symmetric after half a turn, so it scores near 0 for a fold of 2).
+	 * With fold 0 the symmetry of each design is used, and then the score is only less than 1.0
+	 * when something (e.g. an offset or a spiral) breaks that symmetry.
+	 * A fold of 1 is a whole turn, which always scores 1.0.
+	 * @param fold order of symmetry (2 for half a turn), or 0 for the symmetry of each design
+	 * @return metric
+	 */
+	public static DesignMetric symmetry(final int fold) {
+		return new DesignMetric() {
+			@Override
+			public String getName() {
+				return "symmetry";
+			}
+
+			@Override
+			public double score(Design d, List<BufferedCurve> curves) {
+				final double rMax = maxRadius(curves);
+				if (rMax <= 0.0) {
+					return 0.0;
+				}
+				int f = (fold > 0) ? fold : d.getSymmetry();
+				final int bins = f * ((ANGLE_BINS + f - 1) / f);	// a multiple of the fold, so 1/fold is a whole number of bins
+				final int shift = bins / f;
+				final BitSet ink = new BitSet(bins * RADIUS_BINS);
+				walk(curves, rMax / RADIUS_BINS / 2, new Visitor() {
+					@Override
+					void visit(double x, double y) {
+						int a = (int) ((Math.atan2(y, x) + Math.PI) / (2 * Math.PI) * bins) % bins;
+						int r = Math.min((int) (Math.sqrt(x * x + y * y) / rMax * RADIUS_BINS), RADIUS_BINS - 1);
+						ink.set(r * bins + a);
+					}
+				});
+				BitSet turned = new BitSet(bins * RADIUS_BINS);	// the bins turned back by 1/fold
+				for (int b = ink.nextSetBit(0); b >= 0; b = ink.nextSetBit(b + 1)) {
+					int r = b / bins;
+					int a = b % bins;
+					turned.set(r * bins + (a + bins - shift) % bins);
+				}
+				BitSet either = (BitSet) ink.clone();
+				either.or(turned);
+				ink.and(turned);
+				int both = ink.cardinality();
+				return either.isEmpty() ? 0.0 : (double) both / either.cardinality();
+			}
+		};
+	}
+
+	/**
+	 * A metric for the spacing of the lines of different passes, which run together if they are too close.
+	 * The score is the smallest distance between points of different passes divided by the target, up to 1.0.
+	 * A design with only one pass always gets 1.0.
+	 * @param target spacing in inches which is good enough
+	 * @return metric
+	 */
+	public static DesignMetric spacing(final double target) {
+		return new DesignMetric() {
+			@Override
+			public String getName() {
+				return "spacing";
+			}
+
+			@Override
+			public double score(Design d, List<BufferedCurve> curves) {
+				if ((curves.size() < 2) || (target <= 0.0)) {
+					return 1.0;
+				}
+				return Math.min(minSpacing(curves, target) / target, 1.0);
+			}
+		};
+	}
+
+	/**
+	 * Find the smallest distance between points of different curves, if it is less than a limit.
+	 * The points are sorted into a grid of cells at least as big as the limit, so only the 9 cells
+	 * around each point have to be looked at.
+	 * @param curves curves
+	 * @param limit largest distance of interest in inches
+	 * @return smallest distance, or the limit if none are closer
+	 */
+	static double minSpacing(List<BufferedCurve> curves, double limit) {
+		double rMax = maxRadius(curves);
+		double size = Math.max(limit, 2 * rMax / MAX_CELLS);
+		int n = (int) Math.ceil(2 * rMax / size) + 1;
+		int total = 0;
+		for (BufferedCurve c : curves) {
+			total += c.getSize();
+		}
+		double[] xs = new double[total];
+		double[] ys = new double[total];
+		int[] owner = new int[total];		// curve of each point
+		int[] cellOf = new int[total];
+		int[] start = new int[n * n + 1];	// points of each cell, sorted by cell
+		int k = 0;
+		for (int c = 0; c < curves.size(); c++) {
+			BufferedCurve curve = curves.get(c);
+			for (int i = 0; i < curve.getSize(); i++) {
+				xs[k] = curve.getX(i);
+				ys[k] = curve.getY(i);
+				owner[k] = c;
+				cellOf[k] = cellIndex(ys[k], rMax, size, n) * n + cellIndex(xs[k], rMax, size, n);
+				start[cellOf[k] + 1]++;
+				k++;
+			}
+		}
+		for (int i = 0; i < n * n; i++) {
+			start[i + 1] += start[i];
+		}
+		int[] sorted = new int[total];
+		int[] fill = new int[n * n];
+		for (int p = 0; p < total; p++) {
+			sorted[start[cellOf[p]] + fill[cellOf[p]]++] = p;
+		}
+		double best2 = limit * limit;
+		for (int p = 0; p < total; p++) {
+			int ci = cellOf[p] % n;
+			int cj = cellOf[p] / n;
+			for (int j = Math.max(cj - 1, 0); j <= Math.min(cj + 1, n - 1); j++) {
+				for (int i = Math.max(ci - 1, 0); i <= Math.min(ci + 1, n - 1); i++) {
+					int cell = j * n + i;
+					for (int m = start[cell]; m < start[cell + 1]; m++) {
+						int q = sorted[m];
+						if ((q > p) && (owner[q] != owner[p])) {
+							double dx = xs[q] - xs[p];
+							double dy = ys[q] - ys[p];
+							best2 = Math.min(best2, dx * dx + dy * dy);
+						}
+					}
+				}
+			}
+		}
+		return Math.sqrt(best2);
+	}
+
+	/**
+	 * Get the grid cell of a coordinate
+	 * @param v x or y in inches
+	 * @param rMax the grid goes from -rMax to rMax
+	 * @param size size of a cell
+	 * @param n number of cells across
+	 * @return cell index from 0 to n-1
+	 */
+	private static int cellIndex(double v, double rMax, double size, int n) {
+		return Math.max(0, Math.min((int) ((v + rMax) / size), n - 1));
+	}
+
+	/**
+	 * Get the distance from the center to the farthest point
+	 * @param curves curves
+	 * @return radius in inches
+	 */
+	private static double maxRadius(List<BufferedCurve> curves) {
+		double r2 = 0.0;
+		for (BufferedCurve c : curves) {
+			for (int i = 0; i < c.getSize(); i++) {
+				double x = c.getX(i);
+				double y = c.getY(i);
+				r2 = Math.max(r2, x * x + y * y);
+			}
+		}
+		return Math.sqrt(r2);
+	}
+
+	/**
+	 * Visit points along the lines of the curves, no farther apart than a step
+	 * @param curves curves
+	 * @param step largest distance between the points visited
+	 * @param v visitor
+	 */
+	private static void walk(List<BufferedCurve> curves, double step, Visitor v) {
+		for (BufferedCurve c : curves) {
+			int n = c.getSize();
+			if (n == 0) {
+				continue;
+			}
+			double px = c.getX(0);
+			double py = c.getY(0);
+			v.visit(px, py);
+			int end = c.isClosed() ? n + 1 : n;
+			for (int i = 1; i < end; i++) {
+				double x = c.getX(i % n);
+				double y = c.getY(i % n);
+				int m = (int) Math.ceil(Math.sqrt((x - px) * (x - px) + (y - py) * (y - py)) / step);
+				for (int k = 1; k <= m; k++) {
+					double t = (double) k / m;
+					v.visit(px + t * (x - px), py + t * (y - py));
+				}
+				px = x;
+				py = y;
+			}
+		}
+	}
+
+	/**
+	 * Something done at each point visited by walk()
+	 */
+	private static abstract class Visitor {
+		abstract void visit(double x, double y);
+	}
+}
@@ -0,0 +1,517 @@
+package billooms.penchuck.rosettemodel.engine;
+
+import billooms.penchuck.drawables.BufferedCurve;
+import billooms.penchuck.rosettemodel.RosetteImpl;
+import billooms.penchuck.rosettemodel.api.Rosette;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The history of a drawing session, for unlimited undo and redo of pen passes and rosette edits.
+ * <p>
+ * The history is a log of commands (draw a pass, clear, edit the rosette) with only the values that
+ * are needed to do and undo them: each pass is kept with the values of the rosette it was drawn with,
+ * and its curve is calculated again whenever it is needed. The curves that were used most recently are kept,
+ * up to a limit on the total number of points, so the memory used stays the same however long the session.
+ * Passes that were loaded can read their curves from the file instead (see reset).
+ * <p>
+ * The history listens to the rosette, and an edit of the rosette is recorded as a command.
+ * Quick changes of the same continuous value (e.g. while a slider or spinner is dragged) are one command,
+ * but changes of the style, profile or layers are always separate commands.
+ * Undoing an edit sets the rosette back, and listeners of the history hear PROP_HISTORY after every change.
+ * @author Bill Ooms Copyright (c) 2010 Studio of Bill Ooms all rights reserved
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class PassHistory implements PropertyChangeListener {
+	public final static String PROP_HISTORY = "history";
+	public final static long DEFAULT_MAX_POINTS = 2000000L;		// about 40 MB of curves
+	public final static long MERGE_MILLIS = 750;		// changes of a value closer than this are one edit
+
+	private final Rosette rosette;
+	private final long maxPoints;
+	private final ArrayList<Command> commands = new ArrayList<Command>();
+	private int done = 0;			// number of commands that are applied (the rest can be redone)
+	private ArrayList<Entry> passes = new ArrayList<Entry>();	// passes that are showing
+	private RosetteState current;	// values of the rosette as last seen
+	private boolean applying = false;	// true while the history is changing the rosette
+	private final LinkedHashMap<Entry, BufferedCurve> cache = new LinkedHashMap<Entry, BufferedCurve>(16, 0.75f, true);
+	private long cachedPoints = 0;
+	private List<? extends BufferedCurve> saved = null;	// curves of the passes that were loaded (see reset)
+	private RosetteState lastState = null;	// the rosette last made for calculating a curve,
+	private Rosette lastRosette = null;		// so passes with the same values share it
+	private final PropertyChangeSupport pss = new PropertyChangeSupport(this);
+
+	/**
+	 * A history for a rosette
+	 * @param r rosette which is being edited (the history listens to it)
+	 * @param max limit on the points of the curves kept in memory
+	 */
+	public PassHistory(Rosette r, long max) {
+		this.rosette = r;
+		this.maxPoints = max;
+		this.current = new RosetteState(r);
+		r.addPropertyChangeListener(this);
+	}
+
+	/**
+	 * A history for a rosette with the default limit on memory
+	 * @param r rosette which is being edited (the history listens to it)
+	 */
+	public PassHistory(Rosette r) {
+		this(r, DEFAULT_MAX_POINTS);
+	}
+
+	/**
+	 * Stop listening to the rosette
+	 */
+	public void dispose() {
+		rosette.removePropertyChangeListener(this);
+	}
+
+	/**
+	 * Draw a pass with the rosette as it is now
+	 * @param p pass (a copy is kept)
+	 */
+	public void addPass(PenPass p) {
+		record(new AddPass(new Entry(new PenPass(p), current, -1)));
+	}
+
+	/**
+	 * Remove all the passes (this can be undone)
+	 */
+	public void clear() {
+		record(new Clear(passes));
+	}
+
+	/**
+	 * Start again with passes that were saved. The commands are forgotten.
+	 * Each pass keeps the values of the rosette it was drawn with (see Design.getPassState).
+	 * The saved curves are only read when they are needed and aren't in memory (like calculating them),
+	 * so the list can read them from a file, e.g. DesignFile.getCurves.
+	 * @param d design with the passes
+	 * @param curves saved curve of each pass (an element may be null to calculate it), or null to calculate them all
+	 */
+	public void reset(Design d, List<? extends BufferedCurve> curves) {
+		commands.clear();
+		done = 0;
+		cache.clear();
+		cachedPoints = 0;
+		saved = curves;
+		List<PenPass> list = d.getPasses();
+		passes = new ArrayList<Entry>(list.size());
+		RosetteState main = new RosetteState(d.getRosette());
+		for (int i = 0; i < list.size(); i++) {
+			RosetteState s = d.getPassState(i);
+			passes.add(new Entry(new PenPass(list.get(i)), (s == null) ? main : s, (curves == null) ? -1 : i));
+		}
+		pss.firePropertyChange(PROP_HISTORY, null, null);
+	}
+
+	/**
+	 * Make a design of the passes that are showing, each with the values of the rosette it was drawn with
+	 * @param r rosette for the design (usually the rosette being edited)
+	 * @return new design
+	 */
+	public Design makeDesign(Rosette r) {
+		Design d = new Design(r);
+		for (Entry e : passes) {
+			d.addPass(e.pass, e.rosette);
+		}
+		return d;
+	}
+
+	/**
+	 * Set the rosette without recording it as an edit, e.g. when restoring it from the last session
+	 * @param s values for the rosette
+	 */
+	public void restoreRosette(RosetteState s) {
+		setRosette(s);
+	}
+
+	/**
+	 * Find out if there is something to undo
+	 * @return true if undo can be used
+	 */
+	public boolean canUndo() {
+		return done > 0;
+	}
+
+	/**
+	 * Find out if there is something to redo
+	 * @return true if redo can be used
+	 */
+	public boolean canRedo() {
+		return done < commands.size();
+	}
+
+	/**
+	 * Undo the last command
+	 */
+	public void undo() {
+		if (canUndo()) {
+			done--;
+			commands.get(done).undo();
+			pss.firePropertyChange(PROP_HISTORY, null, null);
+		}
+	}
+
+	/**
+	 * Redo the last command that was undone
+	 */
+	public void redo() {
+		if (canRedo()) {
+			commands.get(done).apply();
+			done++;
+			pss.firePropertyChange(PROP_HISTORY, null, null);
+		}
+	}
+
+	/**
+	 * Get the number of passes that are showing
+	 * @return number of passes
+	 */
+	public int getSize() {
+		return passes.size();
+	}
+
+	/**
+	 * Get a pass that is showing
+	 * @param i index (in the order drawn)
+	 * @return pass which must not be changed
+	 */
+	public PenPass getPass(int i) {
+		return passes.get(i).pass;
+	}
+
+	/**
+	 * Get the passes that are showing. The list follows the history as it changes.
+	 * @return unmodifiable list of passes which must not be changed
+	 */
+	public List<PenPass> getPasses() {
+		return new AbstractList<PenPass>() {
+			@Override
+			public PenPass get(int i) {
+				return getPass(i);
+			}
+
+			@Override
+			public int size() {
+				return getSize();
+			}
+		};
+	}
+
+	/**
+	 * Get the curves of the passes that are showing. The list follows the history as it changes,
+	 * and each curve is calculated when it is asked for if it isn't in memory.
+	 * @return unmodifiable list of curves which must not be changed
+	 */
+	public List<BufferedCurve> getCurves() {
+		return new AbstractList<BufferedCurve>() {
+			@Override
+			public BufferedCurve get(int i) {
+				return getCurve(i);
+			}
+
+			@Override
+			public int size() {
+				return getSize();
+			}
+		};
+	}
+
+	/**
+	 * Get the curves of the passes that are showing without keeping them in memory,
+	 * for going through all of them once (e.g. to save them with DesignFile.write).
+	 * @return unmodifiable list of curves which must not be changed
+	 */
+	public List<BufferedCurve> peekCurves() {
+		return new AbstractList<BufferedCurve>() {
+			@Override
+			public BufferedCurve get(int i) {
+				return peekCurve(i);
+			}
+
+			@Override
+			public int size() {
+				return getSize();
+			}
+		};
+	}
+
+	/**
+	 * Get the curve of a pass that is showing. It is read or calculated if it isn't in memory, and then kept.
+	 * @param i index (in the order drawn)
+	 * @return curve which must not be changed
+	 */
+	public BufferedCurve getCurve(int i) {
+		Entry e = passes.get(i);
+		BufferedCurve c = cache.get(e);
+		if (c == null) {
+			c = loadCurve(e);
+			remember(e, c);
+		}
+		return c;
+	}
+
+	/**
+	 * Get the curve of a pass that is showing. It is read or calculated if it isn't in memory,
+	 * but it isn't kept, so the curves in memory stay the same.
+	 * @param i index (in the order drawn)
+	 * @return curve which must not be changed
+	 */
+	public BufferedCurve peekCurve(int i) {
+		Entry e = passes.get(i);
+		BufferedCurve c = cache.get(e);
+		return (c == null) ? loadCurve(e) : c;
+	}
+
+	/**
+	 * Get the number of points in the curves that are kept in memory
+	 * @return number of points
+	 */
+	public long getCachedPoints() {
+		return cachedPoints;
+	}
+
+	/**
+	 * Get the number of commands that have been recorded (including those that were undone)
+	 * @return number of commands
+	 */
+	public int getCommandCount() {
+		return commands.size();
+	}
+
+	/**
+	 * Record an edit of the rosette
+	 * @param evt event from the rosette
+	 */
+	@Override
+	public void propertyChange(PropertyChangeEvent evt) {
+		if (applying) {
+			return;
+		}
+		RosetteState s = new RosetteState(rosette);
+		if (s.equals(current)) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		Command last = (done > 0) ? commands.get(done - 1) : null;
+		if ((done == commands.size()) && (last instanceof RosetteEdit) && isContinuous(evt.getPropertyName())
+				&& ((RosetteEdit) last).property.equals(evt.getPropertyName())
+				&& (now - ((RosetteEdit) last).time < MERGE_MILLIS)) {
+			((RosetteEdit) last).after = s;		// still changing the same value
+			((RosetteEdit) last).time = now;
+			current = s;
+			pss.firePropertyChange(PROP_HISTORY, null, null);
+		} else {
+			record(new RosetteEdit(evt.getPropertyName(), current, s, now));
+		}
+	}
+
+	/**
+	 * Find out if a value of the rosette is changed in small steps (e.g. by a slider),
+	 * so that quick changes can be one edit. The style, profile and layers are not.
+	 * @param prop name of the property
+	 * @return true if it is continuous
+	 */
+	private static boolean isContinuous(String prop) {
+		return RosetteImpl.PROP_AMP.equals(prop) || RosetteImpl.PROP_PHASE.equals(prop)
+				|| RosetteImpl.PROP_REPEAT.equals(prop) || RosetteImpl.PROP_PUMP_AMP.equals(prop)
+				|| RosetteImpl.PROP_PUMP_PHASE.equals(prop) || RosetteImpl.PROP_FOLLOWER.equals(prop);
+	}
+
+	/**
+	 * Add a listener which hears PROP_HISTORY whenever the history changes
+	 * @param listener listener
+	 */
+	public void addPropertyChangeListener(PropertyChangeListener listener) {
+		pss.addPropertyChangeListener(listener);
+	}
+
+	/**
+	 * Remove a listener
+	 * @param listener listener
+	 */
+	public void removePropertyChangeListener(PropertyChangeListener listener) {
+		pss.removePropertyChangeListener(listener);
+	}
+
+	/**
+	 * Do a new command, forgetting any commands that were undone
+	 * @param c command
+	 */
+	private void record(Command c) {
+		while (commands.size() > done) {
+			commands.remove(commands.size() - 1);
+		}
+		commands.add(c);
+		c.apply();
+		done++;
+		pss.firePropertyChange(PROP_HISTORY, null, null);
+	}
+
+	/**
+	 * Keep a curve in memory, forgetting the curves used least recently if there are too many points
+	 * @param e pass
+	 * @param c curve
+	 */
+	private void remember(Entry e, BufferedCurve c) {
+		cache.put(e, c);
+		cachedPoints += c.getSize();
+		Iterator<Map.Entry<Entry, BufferedCurve>> it = cache.entrySet().iterator();
+		while ((cachedPoints > maxPoints) && (cache.size() > 1)) {	// the newest is always kept
+			cachedPoints -= it.next().getValue().getSize();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Read the saved curve of a pass, or calculate it if there isn't one
+	 * @param e pass
+	 * @return new curve
+	 */
+	private BufferedCurve loadCurve(Entry e) {
+		BufferedCurve c = (e.saved < 0) ? null : saved.get(e.saved);
+		return (c == null) ? e.pass.makeCurve(getRosette(e.rosette)) : c;
+	}
+
+	/**
+	 * Get a rosette with some values for calculating curves.
+	 * The last one is kept, so passes drawn with the same values share one rosette.
+	 * @param s values
+	 * @return rosette which must not be changed
+	 */
+	private synchronized Rosette getRosette(RosetteState s) {
+		if (!s.equals(lastState)) {
+			lastRosette = s.makeRosette();
+			lastState = s;
+		}
+		return lastRosette;
+	}
+
+	/**
+	 * Set the rosette without recording it
+	 * @param s values for the rosette
+	 */
+	private void setRosette(RosetteState s) {
+		applying = true;
+		try {
+			s.applyTo(rosette);
+		} finally {
+			applying = false;
+		}
+		current = s;
+	}
+
+	/**
+	 * A pass with the values of the rosette it was drawn with
+	 */
+	private static class Entry {
+		final PenPass pass;
+		final RosetteState rosette;
+		final int saved;		// index of its saved curve (-1 if there isn't one)
+
+		Entry(PenPass p, RosetteState r, int i) {
+			this.pass = p;
+			this.rosette = r;
+			this.saved = i;
+		}
+	}
+
+	/**
+	 * Something that can be done and undone
+	 */
+	private static abstract class Command {
+		abstract void apply();
+		abstract void undo();
+	}
+
+	/**
+	 * Draw a pass
+	 */
+	private class AddPass extends Command {
+		private final Entry entry;
+
+		AddPass(Entry e) {
+			this.entry = e;
+		}
+
+		@Override
+		void apply() {
+			passes.add(entry);
+		}
+
+		@Override
+		void undo() {
+			passes.remove(passes.size() - 1);
+		}
+	}
+
+	/**
+	 * Remove all the passes
+	 */
+	private class Clear extends Command {
+		private final ArrayList<Entry> removed;
+
+		Clear(List<Entry> list) {
+			this.removed = new ArrayList<Entry>(list);
+		}
+
+		@Override
+		void apply() {
+			passes = new ArrayList<Entry>();
+		}
+
+		@Override
+		void undo() {
+			passes = new ArrayList<Entry>(removed);
+		}
+	}
+
+	/**
+	 * Change the rosette
+	 */
+	private class RosetteEdit extends Command {
+		private final String property;		// name of the value that was changed
+		private final RosetteState before;
+		private RosetteState after;
+		private long time;					// when it was last changed (milliseconds)
+
+		RosetteEdit(String prop, RosetteState b, RosetteState a, long t) {
+			this.property = prop;
+			this.before = b;
+			this.after = a;
+			this.time = t;
+		}
+
+		@Override
+		void apply() {
+			setRosette(after);
+		}
+
+		@Override
+		void undo() {
+			setRosette(before);
+		}
+	}
+}
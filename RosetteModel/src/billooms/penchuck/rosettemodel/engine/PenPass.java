@@ -0,0 +1,354 @@
+package billooms.penchuck.rosettemodel.engine;
+
+import billooms.penchuck.drawables.AngleStepper;
+import billooms.penchuck.drawables.BufferedCurve;
+import billooms.penchuck.rosettemodel.api.Rosette;
+import java.awt.Color;
+
+/**
+ * The settings for one pass of the pen on a pen chuck, and the calculation of the curve it draws.
+ * This has nothing to do with Swing or the window system,
+ * so it can be used by the PenChuckEditor as well as by a headless renderer.
+ * With gearing, the rosette turns p times for every q turns of the spindle,
+ * and the pass continues until the curve closes on itself.
+ * A spiral pass instead runs for a given number of turns while the pen position,
+ * pen width and rosette phase change steadily from the start to the end.
+ * The spindle can be offset from the center of the work (eccentric chuck)
+ * and the pen can be at an angle to the spindle's zero.
+ * @author Bill Ooms Copyright (c) 2010 Studio of Bill Ooms all rights reserved
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class PenPass {
+	public final static double DEFAULT_POSITION = 1.0;
+	public final static int DEFAULT_WIDTH = 1;
+	public final static Color DEFAULT_PEN_COLOR = Color.BLACK;
+	public final static double PUMP_WIDTH_SCALE = 100.0;	// pixels of line width per inch of pen depth
+	public final static int PTS_PER_REV = 360;				// a point every degree
+	public final static int CHUNK_PTS = 4096;				// points calculated at a time
+	public final static long MAX_PTS = 20000000L;			// limit on the points in one pass
+
+	private double position = DEFAULT_POSITION;	// pen position in inches (+ is toward the front)
+	private int width = DEFAULT_WIDTH;			// pen width in pixels
+	private Color color = DEFAULT_PEN_COLOR;
+	private int rosetteTurns = 1;		// gear ratio is rosetteTurns/spindleTurns
+	private int spindleTurns = 1;
+	private int spiralTurns = 0;		// 0 for a normal pass which stops when the curve closes
+	private double positionChange = 0.0;	// change from the start to the end of a spiral pass
+	private int widthChange = 0;
+	private double rosetteAdvance = 0.0;	// degrees of extra rosette rotation over a spiral pass
+	private double offsetX = 0.0;		// offset of the spindle from the center of the work
+	private double offsetY = 0.0;
+	private double penAngle = 0.0;		// angle of the pen from the spindle's zero in degrees
+
+	/**
+	 * A pass with default settings
+	 */
+	public PenPass() {
+	}
+
+	/**
+	 * A simple pass
+	 * @param pos pen position in inches
+	 * @param w pen width in pixels
+	 * @param c pen color
+	 */
+	public PenPass(double pos, int w, Color c) {
+		this.position = pos;
+		this.width = w;
+		this.color = c;
+	}
+
+	/**
+	 * A copy of another pass
+	 * @param p pass to copy
+	 */
+	public PenPass(PenPass p) {
+		this.position = p.position;
+		this.width = p.width;
+		this.color = p.color;
+		this.rosetteTurns = p.rosetteTurns;
+		this.spindleTurns = p.spindleTurns;
+		this.spiralTurns = p.spiralTurns;
+		this.positionChange = p.positionChange;
+		this.widthChange = p.widthChange;
+		this.rosetteAdvance = p.rosetteAdvance;
+		this.offsetX = p.offsetX;
+		this.offsetY = p.offsetY;
+		this.penAngle = p.penAngle;
+	}
+
+	/**
+	 * Calculate the curve drawn by this pass.
+	 * The points are calculated a chunk at a time and go straight into a BufferedCurve.
+	 * @param rosette rosette that moves the pen
+	 * @return curve drawn by the pen
+	 */
+	public BufferedCurve makeCurve(Rosette rosette) {
+		int p = rosetteTurns;
+		int q = spindleTurns;
+		int g = gcd(p, q);
+		p = p / g;
+		q = q / g;
+		long revs;
+		boolean closed;
+		if (spiralTurns > 0) {
+			revs = spiralTurns;
+			closed = false;
+		} else {
+			revs = q / gcd(p * rosette.getSymmetry(), q);		// spindle turns until the curve closes
+			closed = true;
+		}
+		int ptsPerRev = PTS_PER_REV * ((p + q - 1) / q);		// at least a point every degree of the rosette too
+		if (revs * ptsPerRev > MAX_PTS) {
+			revs = MAX_PTS / ptsPerRev;
+			closed = false;
+		}
+		long nPts = revs * ptsPerRev;
+		double dAngle = 360.0 / ptsPerRev;
+		long rosDen = (long) ptsPerRev * q;		// the geared rosette angle of point j is 360*j*p/rosDen
+		double dPos = closed ? 0.0 : positionChange / nPts;	// changes per point for a spiral
+		double dWid = closed ? 0.0 : (double) widthChange / nPts;
+		double dAdv = closed ? 0.0 : rosetteAdvance / nPts;
+		AngleStepper rot = new AngleStepper(penAngle, dAngle);	// spindle angle (without per-point trig)
+		double[] rock = new double[CHUNK_PTS];	// rocking motion moves the pen radially
+		double[] pump = new double[CHUNK_PTS];	// pumping motion moves the pen in and out, which changes the width
+		BufferedCurve curve = new BufferedCurve((int) nPts, color);
+		curve.setClosed(closed);
+		for (long j0 = 0; j0 < nPts; j0 += CHUNK_PTS) {
+			int n = (int) Math.min(CHUNK_PTS, nPts - j0);
+			double rosStart = 360.0 * ((j0 * p) % rosDen) / rosDen + (j0 * dAdv) % 360.0;
+			rosette.getMotionAt(rosStart, dAngle * p / q + dAdv, rock, pump);
+			for (int i = 0; i < n; i++) {
+				long j = j0 + i;
+				double r = position + j * dPos - rock[i];
+				double x = offsetX - r * rot.cos();		// negative: 0 degrees is at 9pm
+				double y = offsetY + r * rot.sin();
+				int w = width + (int) Math.round(j * dWid + PUMP_WIDTH_SCALE * pump[i]);
+				curve.add(x, y, Math.max(1, w));
+				rot.next();
+			}
+		}
+		return curve;
+	}
+
+	/**
+	 * Get the order of rotational symmetry of the curve drawn with a rosette:
+	 * the curve looks the same after turning by 1/getSymmetry() of a revolution.
+	 * With p rosette turns per q spindle turns this is p*s/gcd(p*s, q) for a rosette of symmetry s.
+	 * A spiral, offset or rosette advance can break this symmetry.
+	 * @param rosette rosette that moves the pen
+	 * @return order of symmetry (1 if there is none)
+	 */
+	public int getSymmetry(Rosette rosette) {
+		int g = gcd(rosetteTurns, spindleTurns);
+		int ps = rosetteTurns / g * rosette.getSymmetry();
+		return ps / gcd(ps, spindleTurns / g);
+	}
+
+	/**
+	 * Greatest common divisor
+	 * @param a first number
+	 * @param b second number
+	 * @return greatest common divisor of a and b
+	 */
+	static int gcd(int a, int b) {
+		while (b != 0) {
+			int t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	/**
+	 * Get the pen position
+	 * @return position in inches (+ is toward the front, - is toward the back)
+	 */
+	public double getPosition() {
+		return position;
+	}
+
+	/**
+	 * Set the pen position
+	 * @param pos position in inches (+ is toward the front, - is toward the back)
+	 */
+	public void setPosition(double pos) {
+		this.position = pos;
+	}
+
+	/**
+	 * Get the pen width
+	 * @return width in pixels
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Set the pen width
+	 * @param w width in pixels
+	 */
+	public void setWidth(int w) {
+		this.width = w;
+	}
+
+	/**
+	 * Get the pen color
+	 * @return color
+	 */
+	public Color getColor() {
+		return color;
+	}
+
+	/**
+	 * Set the pen color
+	 * @param c color
+	 */
+	public void setColor(Color c) {
+		this.color = c;
+	}
+
+	/**
+	 * Get the number of rosette turns for the gear ratio
+	 * @return rosette turns (p in the ratio p/q)
+	 */
+	public int getRosetteTurns() {
+		return rosetteTurns;
+	}
+
+	/**
+	 * Get the number of spindle (pen) turns for the gear ratio
+	 * @return spindle turns (q in the ratio p/q)
+	 */
+	public int getSpindleTurns() {
+		return spindleTurns;
+	}
+
+	/**
+	 * Set the gear ratio between the rosette and the spindle
+	 * @param p rosette turns
+	 * @param q spindle turns
+	 */
+	public void setGearing(int p, int q) {
+		this.rosetteTurns = Math.max(p, 1);
+		this.spindleTurns = Math.max(q, 1);
+	}
+
+	/**
+	 * Get the number of spindle turns for a spiral pass
+	 * @return spindle turns (0 for a normal pass which stops when the curve closes)
+	 */
+	public int getSpiralTurns() {
+		return spiralTurns;
+	}
+
+	/**
+	 * Set the number of spindle turns for a spiral pass
+	 * @param n spindle turns (0 for a normal pass which stops when the curve closes)
+	 */
+	public void setSpiralTurns(int n) {
+		this.spiralTurns = Math.max(n, 0);
+	}
+
+	/**
+	 * Get the change in pen position over a spiral pass
+	 * @return change in inches from the start to the end of the pass
+	 */
+	public double getPositionChange() {
+		return positionChange;
+	}
+
+	/**
+	 * Set the change in pen position over a spiral pass
+	 * @param d change in inches from the start to the end of the pass
+	 */
+	public void setPositionChange(double d) {
+		this.positionChange = d;
+	}
+
+	/**
+	 * Get the change in pen width over a spiral pass
+	 * @return change in pixels from the start to the end of the pass
+	 */
+	public int getWidthChange() {
+		return widthChange;
+	}
+
+	/**
+	 * Set the change in pen width over a spiral pass
+	 * @param d change in pixels from the start to the end of the pass
+	 */
+	public void setWidthChange(int d) {
+		this.widthChange = d;
+	}
+
+	/**
+	 * Get the extra rotation of the rosette (i.e. a change of phase) over a spiral pass
+	 * @return rotation in degrees of the rosette from the start to the end of the pass
+	 */
+	public double getRosetteAdvance() {
+		return rosetteAdvance;
+	}
+
+	/**
+	 * Set the extra rotation of the rosette (i.e. a change of phase) over a spiral pass
+	 * @param a rotation in degrees of the rosette from the start to the end of the pass
+	 */
+	public void setRosetteAdvance(double a) {
+		this.rosetteAdvance = a;
+	}
+
+	/**
+	 * Get the x offset of the spindle center from the center of the work (eccentric chuck)
+	 * @return offset in inches
+	 */
+	public double getOffsetX() {
+		return offsetX;
+	}
+
+	/**
+	 * Get the y offset of the spindle center from the center of the work (eccentric chuck)
+	 * @return offset in inches
+	 */
+	public double getOffsetY() {
+		return offsetY;
+	}
+
+	/**
+	 * Set the offset of the spindle center from the center of the work (eccentric chuck)
+	 * @param x x offset in inches
+	 * @param y y offset in inches
+	 */
+	public void setOffset(double x, double y) {
+		this.offsetX = x;
+		this.offsetY = y;
+	}
+
+	/**
+	 * Get the angle of the pen relative to the spindle's zero
+	 * @return angle in degrees (+ is in the direction the pass is drawn)
+	 */
+	public double getPenAngle() {
+		return penAngle;
+	}
+
+	/**
+	 * Set the angle of the pen relative to the spindle's zero
+	 * @param a angle in degrees (+ is in the direction the pass is drawn)
+	 */
+	public void setPenAngle(double a) {
+		this.penAngle = a;
+	}
+}
@@ -0,0 +1,536 @@
+package billooms.penchuck.rosettemodel.engine;
+
+import billooms.penchuck.drawables.BufferedCurve;
+import billooms.penchuck.drawables.Polyline;
+import billooms.penchuck.rosettemodel.Pattern;
+import billooms.penchuck.rosettemodel.RosetteImpl;
+import billooms.penchuck.rosettemodel.api.Rosette.Styles;
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Finds the rosette (style, repeat, amplitude and phase) and pen position which draw a curve closest to a target,
+ * for instance a curve measured from a sample piece. The pass is drawn like the PenChuckEditor draws it,
+ * with the gearing, pen angle and offset of a template pass. The rosette turns a whole number of times
+ * for each turn of the spindle, so the radius of the curve depends only on the spindle angle, and the distance
+ * between the target and a curve is measured along the radius at the angle of each target point.
+ * <p>
+ * Every style and repeat is fitted separately, on all the processors. For each one the pattern is put in a table,
+ * so a try only needs a table lookup per target point. For a given phase, the best amplitude and position are found
+ * directly (the radius is a straight line function of them), so only the phase has to be searched:
+ * it is tried at many starting values and the best few are refined. The error of each fit is then
+ * measured again with the rosette itself. A sharp follower is assumed.
+ * <pre>
+ * java -cp RosetteModel.jar:Drawables.jar:vecmath.jar billooms.penchuck.rosettemodel.engine.RosetteFitter
+ *      [-styles NSIDE,FLOWER,...] [-repeat MIN:MAX] [-gearing ROSETTE_TURNS] [-threads N] [-top K]
+ *      [-out design.properties] target.txt
+ * </pre>
+ * The target file has the x and y of a point (in inches, with the center of the chuck at 0, 0) on each line.
+ * @author Bill Ooms Copyright (c) 2010 Studio of Bill Ooms all rights reserved
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public class RosetteFitter {
+	public final static int TABLE_SIZE = 4096;		// pattern values in a table (for one repeat)
+	public final static int DEFAULT_MAX_REPEAT = 48;
+	private final static int PHASE_STARTS = 64;		// starting phases tried for each style and repeat
+	private final static int REFINE = 4;			// best starting phases which are refined
+	private final static double PHASE_TOLERANCE = 1.0e-4;	// degrees
+	private final static double GOLDEN = (Math.sqrt(5.0) - 1.0) / 2.0;
+	private final static String USAGE = "usage: RosetteFitter [-styles NSIDE,FLOWER,...] [-repeat MIN:MAX] [-gearing ROSETTE_TURNS]"
+			+ " [-threads N] [-top K] [-out design.properties] target.txt";
+
+	private final PenPass template;
+	private final double[] radius;		// distance of each target point from the pen's center
+	private final double[] turns;		// angle of the rosette at each target point, in turns
+	private Styles[] styles;
+	private int minRepeat = 1, maxRepeat = DEFAULT_MAX_REPEAT;
+
+	/**
+	 * A fitter for a target curve
+	 * @param target points of the target curve (in inches, the same as the PenChuckEditor)
+	 * @param pass template for the pass (its gearing, pen angle and offset are used)
+	 * @throws IllegalArgumentException if the target has too few points or the spindle turns more than once
+	 */
+	public RosetteFitter(Polyline target, PenPass pass) {
+		if (pass.getSpindleTurns() != 1) {
+			throw new IllegalArgumentException("The spindle must turn once for each pass");
+		}
+		if (target.getSize() < 3) {
+			throw new IllegalArgumentException("Too few points in the target");
+		}
+		this.template = new PenPass(pass);
+		int n = target.getSize();
+		radius = new double[n];
+		turns = new double[n];
+		for (int i = 0; i < n; i++) {
+			double x = target.getX(i) - pass.getOffsetX();
+			double y = target.getY(i) - pass.getOffsetY();
+			radius[i] = Math.sqrt(x * x + y * y);
+			double spindle = Math.toDegrees(Math.atan2(y, -x));		// 0 degrees is at 9pm (see PenPass)
+			turns[i] = pass.getRosetteTurns() * (spindle - pass.getPenAngle()) / 360.0;
+		}
+		ArrayList<Styles> list = new ArrayList<Styles>();
+		for (Styles s : Styles.values()) {
+			if ((s != Styles.NONE) && (s != Styles.CUSTOM)) {	// CUSTOM needs a measured profile
+				list.add(s);
+			}
+		}
+		styles = list.toArray(new Styles[list.size()]);
+	}
+
+	/**
+	 * A fitter for a target curve drawn with a simple pass
+	 * @param target points of the target curve (in inches, the same as the PenChuckEditor)
+	 */
+	public RosetteFitter(Polyline target) {
+		this(target, new PenPass());
+	}
+
+	/**
+	 * Set the styles to try
+	 * @param s styles
+	 */
+	public void setStyles(Styles... s) {
+		if (s.length == 0) {
+			throw new IllegalArgumentException("No styles");
+		}
+		styles = s.clone();
+	}
+
+	/**
+	 * Set the range of repeats to try
+	 * @param min smallest
+	 * @param max largest
+	 */
+	public void setRepeats(int min, int max) {
+		minRepeat = Math.max(min, 1);
+		maxRepeat = Math.max(max, minRepeat);
+	}
+
+	/**
+	 * Fit every style and repeat on a pool of threads
+	 * @param nThreads number of threads
+	 * @return the fits, best first
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public List<Fit> fit(int nThreads) throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(nThreads, 1));
+		try {
+			ArrayList<Future<Fit>> futures = new ArrayList<Future<Fit>>();
+			for (final Styles s : styles) {
+				for (int r = minRepeat; r <= maxRepeat; r++) {
+					final int repeat = r;
+					futures.add(pool.submit(new Callable<Fit>() {
+						@Override
+						public Fit call() {
+							return fit(s, repeat);
+						}
+					}));
+				}
+			}
+			ArrayList<Fit> fits = new ArrayList<Fit>(futures.size());
+			for (Future<Fit> f : futures) {
+				try {
+					fits.add(f.get());
+				} catch (ExecutionException e) {
+					throw new IllegalStateException("Fitting failed: " + e.getCause(), e.getCause());
+				}
+			}
+			Collections.sort(fits);
+			return fits;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Fit one style and repeat
+	 * @param s style
+	 * @param repeat repeat
+	 * @return best fit
+	 */
+	public Fit fit(Styles s, int repeat) {
+		Evaluator ev = new Evaluator(s, repeat);
+		double step = 360.0 / PHASE_STARTS;
+		double[] sse = new double[PHASE_STARTS];
+		for (int k = 0; k < PHASE_STARTS; k++) {
+			sse[k] = ev.evaluate(k * step);
+		}
+		double bestPhase = 0.0;
+		double bestSse = Double.MAX_VALUE;
+		boolean[] used = new boolean[PHASE_STARTS];
+		for (int m = 0; m < Math.min(REFINE, PHASE_STARTS); m++) {
+			int k0 = -1;
+			for (int k = 0; k < PHASE_STARTS; k++) {
+				if (!used[k] && ((k0 < 0) || (sse[k] < sse[k0]))) {
+					k0 = k;
+				}
+			}
+			used[k0] = true;
+			double ph = refine(ev, k0 * step - step, k0 * step + step);
+			double e = ev.evaluate(ph);
+			if (e < bestSse) {
+				bestSse = e;
+				bestPhase = ph;
+			}
+		}
+		bestPhase = ((bestPhase % 360.0) + 360.0) % 360.0;
+		ev.evaluate(bestPhase);		// sets the amplitude and position
+		return new Fit(s, repeat, ev.pToP, bestPhase, ev.position, measure(s, repeat, ev.pToP, bestPhase, ev.position));
+	}
+
+	/**
+	 * Find the phase with the least error between two phases (golden section search)
+	 * @param ev evaluator
+	 * @param a smallest phase
+	 * @param b largest phase
+	 * @return best phase
+	 */
+	private static double refine(Evaluator ev, double a, double b) {
+		double c = b - GOLDEN * (b - a);
+		double d = a + GOLDEN * (b - a);
+		double fc = ev.evaluate(c);
+		double fd = ev.evaluate(d);
+		while (b - a > PHASE_TOLERANCE) {
+			if (fc < fd) {
+				b = d;
+				d = c;
+				fd = fc;
+				c = b - GOLDEN * (b - a);
+				fc = ev.evaluate(c);
+			} else {
+				a = c;
+				c = d;
+				fc = fd;
+				d = a + GOLDEN * (b - a);
+				fd = ev.evaluate(d);
+			}
+		}
+		return (a + b) / 2;
+	}
+
+	/**
+	 * Measure the error of a fit with the rosette itself
+	 * @param s style
+	 * @param repeat repeat
+	 * @param pToP peak-to-peak amplitude
+	 * @param phase phase
+	 * @param position pen position
+	 * @return root mean square of the radial error in inches
+	 */
+	private double measure(Styles s, int repeat, double pToP, double phase, double position) {
+		RosetteImpl r = new RosetteImpl(s, repeat, pToP, phase);
+		double[] rock = new double[1];
+		double sum = 0.0;
+		for (int i = 0; i < radius.length; i++) {
+			double ang = 360.0 * (turns[i] - Math.floor(turns[i]));
+			r.getMotionAt(ang, 0.0, rock, null);
+			double e = radius[i] - (position - rock[0]);
+			sum += e * e;
+		}
+		return Math.sqrt(sum / radius.length);
+	}
+
+	/**
+	 * Tries phases for one style and repeat, using a table of the pattern
+	 */
+	private class Evaluator {
+		private final double[] table = new double[TABLE_SIZE + 1];
+		private final double[] base = new double[radius.length];	// fraction into the pattern with no phase
+		private final double[] z = new double[radius.length];
+		double pToP, position;		// best for the last phase evaluated
+
+		Evaluator(Styles s, int repeat) {
+			double[] u = new double[TABLE_SIZE];
+			for (int k = 0; k < TABLE_SIZE; k++) {
+				u[k] = (double) k / TABLE_SIZE;
+			}
+			new Pattern(s, repeat).getValues(u, table, TABLE_SIZE);
+			table[TABLE_SIZE] = table[0];		// the pattern wraps around
+			for (int i = 0; i < base.length; i++) {
+				double f = turns[i] * repeat;
+				base[i] = f - Math.floor(f);
+			}
+		}
+
+		/**
+		 * Find the best amplitude and position for a phase (least squares)
+		 * @param phase phase in degrees
+		 * @return sum of the squared radial errors
+		 */
+		double evaluate(double phase) {
+			int n = radius.length;
+			double shift = phase / 360.0;
+			double sz = 0.0, sr = 0.0, szz = 0.0, szr = 0.0;
+			for (int i = 0; i < n; i++) {
+				double u = base[i] + shift;
+				u = (u - Math.floor(u)) * TABLE_SIZE;
+				int k = Math.min((int) u, TABLE_SIZE - 1);
+				double t = u - k;
+				z[i] = table[k] + t * (table[k + 1] - table[k]);
+				sz += z[i];
+				sr += radius[i];
+				szz += z[i] * z[i];
+				szr += z[i] * radius[i];
+			}
+			double varZ = szz - sz * sz / n;
+			pToP = (varZ > 1.0e-12) ? -(szr - sz * sr / n) / varZ : 0.0;	// radius = position - pToP * z
+			pToP = Math.max(pToP, 0.0);
+			position = (sr + pToP * sz) / n;
+			double sse = 0.0;
+			for (int i = 0; i < n; i++) {
+				double e = radius[i] - (position - pToP * z[i]);
+				sse += e * e;
+			}
+			return sse;
+		}
+	}
+
+	/**
+	 * The best rosette and pen position for one style and repeat
+	 */
+	public class Fit implements Comparable<Fit> {
+		private final Styles style;
+		private final int repeat;
+		private final double pToP, phase, position;
+		private final double error;
+
+		Fit(Styles s, int r, double pp, double ph, double pos, double err) {
+			this.style = s;
+			this.repeat = r;
+			this.pToP = pp;
+			this.phase = ph;
+			this.position = pos;
+			this.error = err;
+		}
+
+		/**
+		 * Get the style of the rosette
+		 * @return style
+		 */
+		public Styles getStyle() {
+			return style;
+		}
+
+		/**
+		 * Get the repeat of the rosette
+		 * @return repeat
+		 */
+		public int getRepeat() {
+			return repeat;
+		}
+
+		/**
+		 * Get the peak-to-peak amplitude of the rosette
+		 * @return amplitude in inches
+		 */
+		public double getPToP() {
+			return pToP;
+		}
+
+		/**
+		 * Get the phase of the rosette
+		 * @return phase in degrees
+		 */
+		public double getPhase() {
+			return phase;
+		}
+
+		/**
+		 * Get the position of the pen
+		 * @return position in inches
+		 */
+		public double getPosition() {
+			return position;
+		}
+
+		/**
+		 * Get the error of the fit
+		 * @return root mean square of the radial distance from the target in inches
+		 */
+		public double getError() {
+			return error;
+		}
+
+		/**
+		 * Make a design which draws the fitted curve
+		 * @return design with one pass
+		 */
+		public Design makeDesign() {
+			Design d = new Design(new RosetteImpl(style, repeat, pToP, phase));
+			PenPass p = new PenPass(template);
+			p.setPosition(position);
+			d.addPass(p);
+			return d;
+		}
+
+		/**
+		 * Smaller errors come first
+		 * @param f other fit
+		 * @return comparison
+		 */
+		@Override
+		public int compareTo(Fit f) {
+			return Double.compare(error, f.error);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%.6f  %s %d pToP=%.4f phase=%.2f position=%.4f", error, style.name(), repeat, pToP, phase, position);
+		}
+	}
+
+	/**
+	 * Command line entry
+	 * @param args see the class description
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		System.setProperty("java.awt.headless", "true");
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		int k = 10;
+		int gearing = 1;
+		Styles[] styles = null;
+		int[] repeats = null;
+		File out = null;
+		File in = null;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-styles")) {
+					String[] names = args[++i].toUpperCase().split(",");
+					styles = new Styles[names.length];
+					for (int j = 0; j < names.length; j++) {
+						styles[j] = Styles.valueOf(names[j].trim());
+					}
+				} else if (args[i].equals("-repeat")) {
+					String[] r = args[++i].split(":");
+					repeats = new int[] {Integer.parseInt(r[0]), Integer.parseInt(r[r.length - 1])};
+				} else if (args[i].equals("-gearing")) {
+					gearing = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-threads")) {
+					nThreads = Math.max(1, Integer.parseInt(args[++i]));
+				} else if (args[i].equals("-top")) {
+					k = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-out")) {
+					out = new File(args[++i]);
+				} else if (in == null) {
+					in = new File(args[i]);
+				} else {
+					throw new IllegalArgumentException(args[i]);
+				}
+			}
+		} catch (RuntimeException e) {		// missing or bad value
+			in = null;
+		}
+		if (in == null) {
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+		RosetteFitter fitter;
+		try {
+			PenPass pass = new PenPass();
+			pass.setGearing(gearing, 1);
+			fitter = new RosetteFitter(readTarget(in), pass);
+		} catch (IOException e) {
+			System.err.println(in.getPath() + ": " + e.getMessage());
+			System.exit(1);
+			return;
+		} catch (IllegalArgumentException e) {
+			System.err.println(in.getPath() + ": " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+		if (styles != null) {
+			fitter.setStyles(styles);
+		}
+		if (repeats != null) {
+			fitter.setRepeats(repeats[0], repeats[1]);
+		}
+		List<Fit> fits = fitter.fit(nThreads);
+		for (int i = 0; i < Math.min(k, fits.size()); i++) {
+			System.out.println(fits.get(i));
+		}
+		if ((out != null) && !fits.isEmpty()) {
+			Properties p = new Properties();
+			fits.get(0).makeDesign().toProperties(p);
+			try {
+				OutputStream os = new FileOutputStream(out);
+				try {
+					p.store(os, "Fitted by RosetteFitter");
+				} finally {
+					os.close();
+				}
+			} catch (IOException e) {
+				System.err.println(out.getPath() + ": " + e.getMessage());
+				System.exit(1);
+			}
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Read the points of a target curve
+	 * @param f text file with x and y (separated by spaces, a tab or a comma) on each line; # starts a comment
+	 * @return curve
+	 * @throws IOException if the file can't be read or has a bad line
+	 */
+	private static BufferedCurve readTarget(File f) throws IOException {
+		ArrayList<double[]> pts = new ArrayList<double[]>();
+		BufferedReader in = new BufferedReader(new FileReader(f));
+		try {
+			String line;
+			int n = 0;
+			while ((line = in.readLine()) != null) {
+				n++;
+				int c = line.indexOf('#');
+				if (c >= 0) {
+					line = line.substring(0, c);
+				}
+				line = line.trim();
+				if (line.length() == 0) {
+					continue;
+				}
+				String[] v = line.split("[\\s,]+");
+				try {
+					pts.add(new double[] {Double.parseDouble(v[0]), Double.parseDouble(v[1])});
+				} catch (RuntimeException e) {
+					throw new IOException("Bad point on line " + n);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		BufferedCurve curve = new BufferedCurve(pts.size(), Color.BLACK);
+		for (double[] p : pts) {
+			curve.add(p[0], p[1], 1);
+		}
+		return curve;
+	}
+}
@@ -0,0 +1,475 @@
+package billooms.penchuck.rosettemodel.engine;
+
+import billooms.penchuck.rosettemodel.CompoundRosette;
+import billooms.penchuck.rosettemodel.CompoundRosette.Combine;
+import billooms.penchuck.rosettemodel.ProfileTable;
+import billooms.penchuck.rosettemodel.RosetteImpl;
+import billooms.penchuck.rosettemodel.api.Rosette;
+import billooms.penchuck.rosettemodel.api.Rosette.Styles;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * The values of a rosette at one time, which can't be changed.
+ * This is much smaller than a rosette, so one can be kept for every pass and every edit,
+ * and a rosette is only made from it (with makeRosette) when a curve must be calculated.
+ * The values in the Rosette interface are kept, along with the follower and measured profile of a RosetteImpl
+ * and the layers of a CompoundRosette. This is also how a rosette is saved (see Design and DesignFile).
+ * @author Bill Ooms Copyright (c) 2010 Studio of Bill Ooms all rights reserved
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+public final class RosetteState {
+	private final Styles style;
+	private final int repeat;
+	private final double pToP, phase;
+	private final double pumpAmp, pumpPhase;
+	private final double follower;
+	private final ProfileTable profile;		// measured profile of a RosetteImpl (null if none), which isn't changed so it can be shared
+	private final Combine combine;			// the rest are only for a CompoundRosette (null otherwise)
+	private final int selected;
+	private final Styles[] layerStyles;
+	private final int[] layerRepeats;
+	private final double[] layerPToPs, layerPhases;
+
+	/**
+	 * The values of a rosette now
+	 * @param r rosette
+	 */
+	public RosetteState(Rosette r) {
+		this.style = r.getStyle();
+		this.repeat = r.getRepeat();
+		this.pToP = r.getPToP();
+		this.phase = r.getPhase();
+		this.pumpAmp = r.getPumpAmp();
+		this.pumpPhase = r.getPumpPhase();
+		this.follower = (r instanceof RosetteImpl) ? ((RosetteImpl) r).getFollowerRadius() : RosetteImpl.DEFAULT_FOLLOWER_RADIUS;
+		this.profile = (r instanceof RosetteImpl) ? ((RosetteImpl) r).getProfile() : null;
+		if (r instanceof CompoundRosette) {
+			CompoundRosette c = (CompoundRosette) r;
+			int n = c.getLayerCount();
+			combine = c.getCombine();
+			selected = c.getSelectedLayer();
+			layerStyles = new Styles[n];
+			layerRepeats = new int[n];
+			layerPToPs = new double[n];
+			layerPhases = new double[n];
+			for (int i = 0; i < n; i++) {
+				layerStyles[i] = c.getLayerStyle(i);
+				layerRepeats[i] = c.getLayerRepeat(i);
+				layerPToPs[i] = c.getLayerPToP(i);
+				layerPhases[i] = c.getLayerPhase(i);
+			}
+		} else {
+			combine = null;
+			selected = 0;
+			layerStyles = null;
+			layerRepeats = null;
+			layerPToPs = null;
+			layerPhases = null;
+		}
+	}
+
+	/**
+	 * Values which have already been checked (e.g. read from a file written from a rosette)
+	 */
+	private RosetteState(Styles st, int rep, double pp, double ph, double pumpA, double pumpPh, double fol, ProfileTable prof,
+			Combine comb, int sel, Styles[] lStyles, int[] lRepeats, double[] lPToPs, double[] lPhases) {
+		this.style = st;
+		this.repeat = rep;
+		this.pToP = pp;
+		this.phase = ph;
+		this.pumpAmp = pumpA;
+		this.pumpPhase = pumpPh;
+		this.follower = fol;
+		this.profile = prof;
+		this.combine = comb;
+		this.selected = sel;
+		this.layerStyles = lStyles;
+		this.layerRepeats = lRepeats;
+		this.layerPToPs = lPToPs;
+		this.layerPhases = lPhases;
+	}
+
+	/**
+	 * Read the values of a rosette from properties (as written by toProperties).
+	 * Missing values get their defaults.
+	 * @param p Properties
+	 * @param prefix start of the name of each property, e.g. "rosette."
+	 * @return new RosetteState
+	 * @throws IllegalArgumentException if a value can't be understood
+	 */
+	public static RosetteState fromProperties(Properties p, String prefix) {
+		int n = getInt(p, prefix + "layers", 0);
+		if (n < 0) {
+			throw new IllegalArgumentException("Bad number of layers: " + n);
+		}
+		Combine comb = null;
+		Styles[] lStyles = null;
+		int[] lRepeats = null;
+		double[] lPToPs = null, lPhases = null;
+		if (n > 0) {
+			comb = Combine.valueOf(p.getProperty(prefix + "combine", Combine.SUM.name()));
+			lStyles = new Styles[n];
+			lRepeats = new int[n];
+			lPToPs = new double[n];
+			lPhases = new double[n];
+			for (int i = 0; i < n; i++) {
+				String k = prefix + "layer." + i + ".";
+				lStyles[i] = Styles.valueOf(p.getProperty(k + "style", Rosette.DEFAULT_STYLE.name()));
+				lRepeats[i] = getInt(p, k + "repeat", Rosette.DEFAULT_REPEAT);
+				lPToPs[i] = getDouble(p, k + "pToP", Rosette.DEFAULT_PTOP);
+				lPhases[i] = getDouble(p, k + "phase", Rosette.DEFAULT_PHASE);
+			}
+		}
+		return new RosetteState(Styles.valueOf(p.getProperty(prefix + "style", Rosette.DEFAULT_STYLE.name())),
+				getInt(p, prefix + "repeat", Rosette.DEFAULT_REPEAT),
+				getDouble(p, prefix + "pToP", Rosette.DEFAULT_PTOP),
+				getDouble(p, prefix + "phase", Rosette.DEFAULT_PHASE),
+				getDouble(p, prefix + "pumpAmp", Rosette.DEFAULT_PUMP_AMP),
+				getDouble(p, prefix + "pumpPhase", Rosette.DEFAULT_PUMP_PH),
+				getDouble(p, prefix + "follower", RosetteImpl.DEFAULT_FOLLOWER_RADIUS),
+				readProfile(p, prefix), comb, Math.max(0, Math.min(getInt(p, prefix + "selected", 0), n - 1)),
+				lStyles, lRepeats, lPToPs, lPhases);
+	}
+
+	/**
+	 * Write the values to properties
+	 * @param p Properties
+	 * @param prefix start of the name of each property, e.g. "rosette."
+	 */
+	public void toProperties(Properties p, String prefix) {
+		p.setProperty(prefix + "style", style.name());
+		p.setProperty(prefix + "repeat", Integer.toString(repeat));
+		p.setProperty(prefix + "pToP", Double.toString(pToP));
+		p.setProperty(prefix + "phase", Double.toString(phase));
+		p.setProperty(prefix + "pumpAmp", Double.toString(pumpAmp));
+		p.setProperty(prefix + "pumpPhase", Double.toString(pumpPhase));
+		p.setProperty(prefix + "follower", Double.toString(follower));
+		if (profile != null) {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < profile.getSize(); i++) {
+				if (i > 0) {
+					sb.append(',');
+				}
+				sb.append(profile.getRadius(i));
+			}
+			if (profile.getName() != null) {
+				p.setProperty(prefix + "profile.name", profile.getName());
+			}
+			p.setProperty(prefix + "profile.radii", sb.toString());
+		}
+		if (layerStyles != null) {
+			p.setProperty(prefix + "layers", Integer.toString(layerStyles.length));
+			p.setProperty(prefix + "combine", combine.name());
+			p.setProperty(prefix + "selected", Integer.toString(selected));
+			for (int i = 0; i < layerStyles.length; i++) {
+				String k = prefix + "layer." + i + ".";
+				p.setProperty(k + "style", layerStyles[i].name());
+				p.setProperty(k + "repeat", Integer.toString(layerRepeats[i]));
+				p.setProperty(k + "pToP", Double.toString(layerPToPs[i]));
+				p.setProperty(k + "phase", Double.toString(layerPhases[i]));
+			}
+		}
+	}
+
+	/**
+	 * Write the values in the binary form of a DesignFile
+	 * @param out stream
+	 * @throws IOException if it can't be written
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeUTF(style.name());
+		out.writeInt(repeat);
+		out.writeDouble(pToP);
+		out.writeDouble(phase);
+		out.writeDouble(pumpAmp);
+		out.writeDouble(pumpPhase);
+		out.writeDouble(follower);
+		if (layerStyles == null) {
+			out.writeInt(0);
+		} else {
+			out.writeInt(layerStyles.length);
+			out.writeUTF(combine.name());
+			out.writeInt(selected);
+			for (int i = 0; i < layerStyles.length; i++) {
+				out.writeUTF(layerStyles[i].name());
+				out.writeInt(layerRepeats[i]);
+				out.writeDouble(layerPToPs[i]);
+				out.writeDouble(layerPhases[i]);
+			}
+		}
+		if (profile == null) {
+			out.writeInt(0);
+		} else {
+			out.writeInt(profile.getSize());
+			out.writeUTF((profile.getName() == null) ? "" : profile.getName());
+			for (int i = 0; i < profile.getSize(); i++) {
+				out.writeDouble(profile.getRadius(i));
+			}
+		}
+	}
+
+	/**
+	 * Read the values in the binary form of a DesignFile
+	 * @param buf buffer positioned at the values
+	 * @param version version of the file (version 1 has no layers or profile)
+	 * @return new RosetteState
+	 * @throws IOException if the values are damaged
+	 */
+	static RosetteState read(ByteBuffer buf, int version) throws IOException {
+		Styles st = Styles.valueOf(readUtf(buf));
+		int rep = buf.getInt();
+		double pp = buf.getDouble();
+		double ph = buf.getDouble();
+		double pumpA = buf.getDouble();
+		double pumpPh = buf.getDouble();
+		double fol = buf.getDouble();
+		int n = (version >= 2) ? buf.getInt() : 0;
+		if ((n < 0) || (n > buf.remaining())) {
+			throw new IOException("Bad number of layers: " + n);
+		}
+		Combine comb = null;
+		int sel = 0;
+		Styles[] lStyles = null;
+		int[] lRepeats = null;
+		double[] lPToPs = null, lPhases = null;
+		if (n > 0) {
+			comb = Combine.valueOf(readUtf(buf));
+			sel = Math.max(0, Math.min(buf.getInt(), n - 1));
+			lStyles = new Styles[n];
+			lRepeats = new int[n];
+			lPToPs = new double[n];
+			lPhases = new double[n];
+			for (int i = 0; i < n; i++) {
+				lStyles[i] = Styles.valueOf(readUtf(buf));
+				lRepeats[i] = buf.getInt();
+				lPToPs[i] = buf.getDouble();
+				lPhases[i] = buf.getDouble();
+			}
+		}
+		ProfileTable prof = null;
+		int nSamples = (version >= 2) ? buf.getInt() : 0;
+		if ((nSamples < 0) || (nSamples > buf.remaining() / 8)) {
+			throw new IOException("Bad number of profile samples: " + nSamples);
+		}
+		if (nSamples > 0) {
+			String name = readUtf(buf);
+			double[] radii = new double[nSamples];
+			for (int i = 0; i < nSamples; i++) {
+				radii[i] = buf.getDouble();
+			}
+			prof = new ProfileTable(radii, (name.length() == 0) ? null : name);
+		}
+		return new RosetteState(st, rep, pp, ph, pumpA, pumpPh, fol, prof, comb, sel, lStyles, lRepeats, lPToPs, lPhases);
+	}
+
+	/**
+	 * Read a measured profile from properties
+	 * @param p Properties
+	 * @param prefix start of the name of each property
+	 * @return profile (null if there isn't one)
+	 * @throws IllegalArgumentException if the samples can't be understood
+	 */
+	private static ProfileTable readProfile(Properties p, String prefix) {
+		String s = p.getProperty(prefix + "profile.radii");
+		if (s == null) {
+			return null;
+		}
+		String[] parts = s.split(",");
+		double[] radii = new double[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			radii[i] = Double.parseDouble(parts[i].trim());
+		}
+		return new ProfileTable(radii, p.getProperty(prefix + "profile.name"));
+	}
+
+	/**
+	 * Make a new rosette with these values: a CompoundRosette if the values came from one, otherwise a RosetteImpl
+	 * @return new rosette
+	 */
+	public Rosette makeRosette() {
+		if (layerStyles == null) {
+			RosetteImpl r = new RosetteImpl(style, repeat, pToP, phase);
+			r.setPumpAmp(pumpAmp);
+			r.setPumpPhase(pumpPhase);
+			r.setFollowerRadius(follower);
+			setProfile(r);
+			return r;
+		}
+		CompoundRosette c = new CompoundRosette(layerStyles[0], layerRepeats[0], layerPToPs[0], layerPhases[0]);
+		for (int i = 1; i < layerStyles.length; i++) {
+			c.addLayer(layerStyles[i], layerRepeats[i], layerPToPs[i], layerPhases[i]);
+		}
+		c.setCombine(combine);
+		c.setSelectedLayer(selected);
+		c.setPumpAmp(pumpAmp);
+		c.setPumpPhase(pumpPhase);
+		return c;
+	}
+
+	/**
+	 * Set a rosette to these values. Only the values that are different are set,
+	 * so listeners only hear about real changes.
+	 * The layers are only set if both are CompoundRosettes.
+	 * @param r rosette
+	 */
+	public void applyTo(Rosette r) {
+		if ((r instanceof RosetteImpl) && (((RosetteImpl) r).getProfile() != profile)) {
+			((RosetteImpl) r).setProfile(profile);	// before the style, because this changes the style to CUSTOM
+		}
+		if ((layerStyles != null) && (r instanceof CompoundRosette)) {
+			applyLayers((CompoundRosette) r);
+		} else {
+			applyValues(r, style, repeat, pToP, phase);
+		}
+		if (r.getPumpAmp() != pumpAmp) {
+			r.setPumpAmp(pumpAmp);
+		}
+		if (r.getPumpPhase() != pumpPhase) {
+			r.setPumpPhase(pumpPhase);
+		}
+		if ((r instanceof RosetteImpl) && (((RosetteImpl) r).getFollowerRadius() != follower)) {
+			((RosetteImpl) r).setFollowerRadius(follower);
+		}
+	}
+
+	/**
+	 * Give a new rosette the measured profile and then the style
+	 * (setting a profile changes the style to CUSTOM, but another style may have been chosen since)
+	 * @param r new rosette
+	 */
+	private void setProfile(RosetteImpl r) {
+		if (profile != null) {
+			r.setProfile(profile);
+			if (style != Styles.CUSTOM) {
+				r.setStyle(style);
+			}
+		}
+	}
+
+	/**
+	 * Set the layers of a CompoundRosette to these values
+	 * @param c rosette
+	 */
+	private void applyLayers(CompoundRosette c) {
+		while (c.getLayerCount() > layerStyles.length) {
+			c.removeLayer(c.getLayerCount() - 1);
+		}
+		for (int i = 0; i < layerStyles.length; i++) {
+			if (i < c.getLayerCount()) {
+				c.setSelectedLayer(i);
+				applyValues(c, layerStyles[i], layerRepeats[i], layerPToPs[i], layerPhases[i]);
+			} else {
+				c.addLayer(layerStyles[i], layerRepeats[i], layerPToPs[i], layerPhases[i]);
+			}
+		}
+		if (c.getCombine() != combine) {
+			c.setCombine(combine);
+		}
+		c.setSelectedLayer(selected);
+	}
+
+	/**
+	 * Set the values of a rosette (or the selected layer) that are different
+	 * @param r rosette
+	 * @param st style
+	 * @param rep repeat
+	 * @param pp peak-to-peak
+	 * @param ph phase
+	 */
+	private static void applyValues(Rosette r, Styles st, int rep, double pp, double ph) {
+		if (r.getStyle() != st) {
+			r.setStyle(st);
+		}
+		if (r.getRepeat() != rep) {
+			r.setRepeat(rep);
+		}
+		if (r.getPToP() != pp) {
+			r.setPToP(pp);
+		}
+		if (r.getPhase() != ph) {
+			r.setPhase(ph);
+		}
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof RosetteState)) {
+			return false;
+		}
+		RosetteState s = (RosetteState) o;
+		return (style == s.style) && (repeat == s.repeat) && (pToP == s.pToP) && (phase == s.phase)
+				&& (pumpAmp == s.pumpAmp) && (pumpPhase == s.pumpPhase) && (follower == s.follower)
+				&& ((profile == null) ? (s.profile == null) : profile.equals(s.profile))
+				&& (combine == s.combine) && (selected == s.selected)
+				&& Arrays.equals(layerStyles, s.layerStyles) && Arrays.equals(layerRepeats, s.layerRepeats)
+				&& Arrays.equals(layerPToPs, s.layerPToPs) && Arrays.equals(layerPhases, s.layerPhases);
+	}
+
+	@Override
+	public int hashCode() {
+		long h = style.hashCode();
+		h = 31 * h + repeat;
+		h = 31 * h + Double.doubleToLongBits(pToP);
+		h = 31 * h + Double.doubleToLongBits(phase);
+		h = 31 * h + Double.doubleToLongBits(pumpAmp);
+		h = 31 * h + Double.doubleToLongBits(pumpPhase);
+		h = 31 * h + Double.doubleToLongBits(follower);
+		h = 31 * h + ((profile == null) ? 0 : profile.hashCode());
+		h = 31 * h + Arrays.hashCode(layerRepeats);
+		h = 31 * h + Arrays.hashCode(layerPToPs);
+		h = 31 * h + Arrays.hashCode(layerPhases);
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * Read a string written by DataOutputStream.writeUTF (names of styles are plain ASCII)
+	 * @param buf buffer
+	 * @return string
+	 * @throws IOException if it can't be decoded
+	 */
+	private static String readUtf(ByteBuffer buf) throws IOException {
+		byte[] name = new byte[buf.getShort() & 0xffff];
+		buf.get(name);
+		return new String(name, "UTF-8");
+	}
+
+	/**
+	 * Get an integer property
+	 * @param p Properties
+	 * @param key name of the property
+	 * @param def default value
+	 * @return value
+	 */
+	private static int getInt(Properties p, String key, int def) {
+		String s = p.getProperty(key);
+		return (s == null) ? def : Integer.parseInt(s.trim());
+	}
+
+	/**
+	 * Get a double property
+	 * @param p Properties
+	 * @param key name of the property
+	 * @param def default value
+	 * @return value
+	 */
+	private static double getDouble(Properties p, String key, double def) {
+		String s = p.getProperty(key);
+		return (s == null) ? def : Double.parseDouble(s.trim());
+	}
+}